@@ -0,0 +1,234 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.ArtifactManager;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Archive artifacts to Artifactory with per-call transfer settings, and return the statistics of the transfer.
+ * <p>
+ * The result is a map with the number of {@code files}, the {@code bytes}, the {@code durationMillis} and the
+ * {@code bytesPerSecond} of the call, so it can be read from a sandboxed Pipeline.
+ */
+public class ArtifactoryArchiveStep extends Step {
+
+    private final String artifacts;
+    private String excludes;
+    private boolean defaultExcludes = true;
+    private boolean allowEmpty;
+    private int concurrency = ArtifactoryArtifactManager.UPLOAD_THREADS;
+    private boolean checksumDeploy;
+    private boolean skipUnchanged = true;
+    private Integer bandwidthLimit;
+
+    @DataBoundConstructor
+    public ArtifactoryArchiveStep(String artifacts) {
+        this.artifacts = artifacts;
+    }
+
+    public String getArtifacts() {
+        return artifacts;
+    }
+
+    public String getExcludes() {
+        return excludes;
+    }
+
+    @DataBoundSetter
+    public void setExcludes(String excludes) {
+        this.excludes = Util.fixEmptyAndTrim(excludes);
+    }
+
+    public boolean isDefaultExcludes() {
+        return defaultExcludes;
+    }
+
+    @DataBoundSetter
+    public void setDefaultExcludes(boolean defaultExcludes) {
+        this.defaultExcludes = defaultExcludes;
+    }
+
+    public boolean isAllowEmpty() {
+        return allowEmpty;
+    }
+
+    @DataBoundSetter
+    public void setAllowEmpty(boolean allowEmpty) {
+        this.allowEmpty = allowEmpty;
+    }
+
+    /**
+     * @return the number of parallel uploads
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    @DataBoundSetter
+    public void setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    public boolean isChecksumDeploy() {
+        return checksumDeploy;
+    }
+
+    @DataBoundSetter
+    public void setChecksumDeploy(boolean checksumDeploy) {
+        this.checksumDeploy = checksumDeploy;
+    }
+
+    public boolean isSkipUnchanged() {
+        return skipUnchanged;
+    }
+
+    @DataBoundSetter
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    /**
+     * @return the limit in KiB/s, 0 for none, null for the limit of the node
+     */
+    @CheckForNull
+    public Integer getBandwidthLimit() {
+        return bandwidthLimit;
+    }
+
+    @DataBoundSetter
+    public void setBandwidthLimit(@CheckForNull Integer bandwidthLimit) {
+        this.bandwidthLimit = bandwidthLimit == null ? null : Math.max(bandwidthLimit, 0);
+    }
+
+    ArtifactoryArtifactManager.ArchiveOptions toOptions() {
+        return new ArtifactoryArtifactManager.ArchiveOptions(
+                concurrency, checksumDeploy, skipUnchanged, bandwidthLimit == null ? -1 : bandwidthLimit * 1024L);
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new Execution(this, context);
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<Map<String, Object>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient ArtifactoryArchiveStep step;
+
+        Execution(ArtifactoryArchiveStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        protected Map<String, Object> run() throws Exception {
+            Run<?, ?> run = getContext().get(Run.class);
+            FilePath workspace = getContext().get(FilePath.class);
+            TaskListener listener = getContext().get(TaskListener.class);
+            ArtifactManager manager = run.pickArtifactManager();
+            if (!(manager instanceof ArtifactoryArtifactManager)) {
+                throw new AbortException("artifactoryArchive requires the Artifactory artifact manager");
+            }
+            Map<String, String> files = workspace.act(
+                    new ListFiles(step.artifacts, step.excludes, step.defaultExcludes));
+            if (files.isEmpty()) {
+                String message = String.format("No artifacts found that match the file pattern \"%s\"", step.artifacts);
+                if (!step.allowEmpty) {
+                    throw new AbortException(message);
+                }
+                listener.getLogger().println(message);
+            }
+            long start = System.nanoTime();
+            List<ArtifactoryClient.FileInfo> archived = ((ArtifactoryArtifactManager) manager)
+                    .archive(workspace, listener, files, step.toOptions(), false);
+            long nanos = System.nanoTime() - start;
+            long bytes = archived.stream()
+                    .mapToLong(ArtifactoryClient.FileInfo::getSize)
+                    .sum();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("files", archived.size());
+            result.put("bytes", bytes);
+            result.put("durationMillis", TimeUnit.NANOSECONDS.toMillis(nanos));
+            result.put("bytesPerSecond", (long) (bytes / (Math.max(nanos, 1) / 1e9)));
+            return result;
+        }
+    }
+
+    /**
+     * List the files of the workspace matching the patterns, mapped by their relative path
+     */
+    private static final class ListFiles extends MasterToSlaveFileCallable<Map<String, String>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String includes;
+        private final String excludes;
+        private final boolean defaultExcludes;
+
+        ListFiles(String includes, String excludes, boolean defaultExcludes) {
+            this.includes = includes;
+            this.excludes = excludes;
+            this.defaultExcludes = defaultExcludes;
+        }
+
+        @Override
+        public Map<String, String> invoke(File dir, VirtualChannel channel) throws IOException {
+            FileSet fileSet = Util.createFileSet(dir, includes, excludes);
+            fileSet.setDefaultexcludes(defaultExcludes);
+            DirectoryScanner scanner = fileSet.getDirectoryScanner(new Project());
+            Map<String, String> files = new LinkedHashMap<>();
+            for (String file : scanner.getIncludedFiles()) {
+                String path = file.replace('\\', '/');
+                files.put(path, path);
+            }
+            return files;
+        }
+    }
+
+    @Extension(optional = true)
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Set.of(Run.class, FilePath.class, Launcher.class, TaskListener.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "artifactoryArchive";
+        }
+
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Archive artifacts to Artifactory";
+        }
+    }
+}
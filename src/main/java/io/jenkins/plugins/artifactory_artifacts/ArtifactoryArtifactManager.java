@@ -1,72 +1,428 @@
 package io.jenkins.plugins.artifactory_artifacts;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.*;
+import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
+import hudson.model.Computer;
 import hudson.model.Item;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.model.listeners.ItemListener;
+import hudson.remoting.Pipe;
 import hudson.remoting.VirtualChannel;
 import hudson.slaves.WorkspaceList;
 import hudson.util.DirScanner;
 import hudson.util.io.ArchiverFactory;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import jenkins.MasterToSlaveFileCallable;
 import jenkins.model.ArtifactManager;
+import jenkins.util.SystemProperties;
 import jenkins.util.VirtualFile;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.flow.FlowExecutionListener;
 import org.jenkinsci.plugins.workflow.flow.StashManager;
+import org.jfrog.artifactory.client.model.AqlItemType;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-@Restricted(NoExternalUse.class)
 public class ArtifactoryArtifactManager extends ArtifactManager implements StashManager.StashAwareArtifactManager {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactoryArtifactManager.class);
-    private static final int UPLOAD_THREADS = 4;
+    static final int UPLOAD_THREADS = 4;
+
+    /**
+     * Manifests with more files are stored in a side file instead of the build record
+     */
+    private static final int MANIFEST_INLINE_LIMIT = 100;
+
+    /**
+     * Upload lists with more files are streamed to agents instead of being sent with the callable
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "For tests and tuning")
+    @Restricted(NoExternalUse.class)
+    static int streamingThreshold =
+            SystemProperties.getInteger(ArtifactoryArtifactManager.class.getName() + ".streamingThreshold", 10_000);
+
+    private static final int STREAMING_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Threads compressing a stash on the agent, or 0 for one per processor of the agent
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "For tests and tuning")
+    @Restricted(NoExternalUse.class)
+    static int stashCompressionThreads =
+            SystemProperties.getInteger(ArtifactoryArtifactManager.class.getName() + ".stashCompressionThreads", 0);
+
+    /**
+     * Size of the blocks of a stash compressed in parallel
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "For tests and tuning")
+    @Restricted(NoExternalUse.class)
+    static int stashCompressionBlockSize = SystemProperties.getInteger(
+            ArtifactoryArtifactManager.class.getName() + ".stashCompressionBlockSize", 128 * 1024);
+
+    /**
+     * Threads writing the files of a stash on the agent
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "For tests and tuning")
+    @Restricted(NoExternalUse.class)
+    static int unstashWriterThreads =
+            SystemProperties.getInteger(ArtifactoryArtifactManager.class.getName() + ".unstashWriterThreads", 8);
+
     private transient Run<?, ?> build;
     private final ArtifactoryGenericArtifactConfig config;
     private transient String defaultKey;
 
+    /**
+     * Layout of the run folder, chosen when the run starts so the run stays readable when the option changes. Null
+     * for the original {@code <job>/<number>} layout
+     */
+    @CheckForNull
+    private String layout;
+
+    /**
+     * Set while the run folder is moved to the sharded layout. The layout is recorded before the move, so until the
+     * move is done the run reads its original folder when the sharded one is missing
+     */
+    private boolean layoutMovePending;
+
+    private transient String resolvedKey;
+
+    /**
+     * Manifest of the archived artifacts, when small enough to be kept in the build record
+     */
+    private String manifest;
+
+    private boolean manifestSpilled;
+
+    /**
+     * Set when the manifest could not be recorded or read, so it no longer lists all artifacts
+     */
+    private boolean manifestIncomplete;
+
+    private transient ArtifactoryManifest loadedManifest;
+    private transient boolean manifestLoaded;
+
+    /**
+     * Uploads of the deferred mode still running on agents
+     */
+    private transient List<Future<List<ArtifactoryClient.FileInfo>>> deferredUploads;
+
+    /**
+     * First failure of a deferred upload, reported again by every barrier
+     */
+    private transient IOException deferredFailure;
+
+    @Restricted(NoExternalUse.class)
     public ArtifactoryArtifactManager(Run<?, ?> build, ArtifactoryGenericArtifactConfig config) {
         this.config = config;
         this.build = build;
+        this.layout = config.isShardedLayout() ? Utils.SHARDED_LAYOUT : null;
         onLoad(build);
     }
 
     @Override
     public void onLoad(@NonNull Run<?, ?> build) {
         this.build = build;
-        this.defaultKey = String.format("%s/%s", build.getParent().getFullName(), build.getNumber())
-                .replace("%2F", "/");
+        this.defaultKey = Utils.getBuildKey(build.getParent().getFullName(), build.getNumber(), layout);
+    }
+
+    /**
+     * @return true if the run folder uses the sharded layout
+     */
+    boolean isShardedLayout() {
+        return Utils.SHARDED_LAYOUT.equals(layout);
+    }
+
+    /**
+     * Move the run folder to the sharded layout, or finish an interrupted move. The run must be completed.
+     * <p>
+     * The new layout is saved before the move and marked as pending until the move is done, so a failure to save or
+     * a restart in between never leaves the run pointing to a missing folder. If the server cannot move, the run goes
+     * back to its original layout
+     * @param client the client
+     * @return true if the run was migrated, false if it already used the sharded layout or is still running
+     * @throws IOException if the run cannot be moved or saved
+     */
+    synchronized boolean migrateToShardedLayout(ArtifactoryClient client) throws IOException {
+        if ((isShardedLayout() && !layoutMovePending) || build.isBuilding()) {
+            return false;
+        }
+        String original = Utils.getBuildKey(build.getParent().getFullName(), build.getNumber(), null);
+        String key = Utils.getBuildKey(build.getParent().getFullName(), build.getNumber(), Utils.SHARDED_LAYOUT);
+        if (!layoutMovePending) {
+            setLayout(Utils.SHARDED_LAYOUT, key, true);
+            build.save();
+        }
+        String source = Utils.stripTrailingSlash(Utils.getFilePath(original, ""));
+        String target = Utils.stripTrailingSlash(Utils.getFilePath(key, ""));
+        try {
+            if (client.isFolder(source)) {
+                LOGGER.debug(String.format("Moving %s to %s", source, target));
+                client.move(source, target);
+            }
+        } catch (IOException | RuntimeException e) {
+            setLayout(null, original, false);
+            build.save();
+            throw e;
+        }
+        setLayout(Utils.SHARDED_LAYOUT, key, false);
+        build.save();
+        return true;
+    }
+
+    private void setLayout(@CheckForNull String layout, String key, boolean movePending) {
+        this.layout = layout;
+        this.defaultKey = key;
+        this.layoutMovePending = movePending;
+        this.resolvedKey = null;
+        // The manifest is relative to the artifacts folder, read it again with the new base
+        loadedManifest = null;
+        manifestLoaded = false;
+    }
+
+    /**
+     * @return the key of the run folder, the original one while a move to the sharded layout is pending and the
+     * sharded folder doesn't exist yet
+     */
+    private String getKey() {
+        if (!layoutMovePending) {
+            return defaultKey;
+        }
+        String key = resolvedKey;
+        if (key == null) {
+            key = defaultKey;
+            String original = Utils.getBuildKey(build.getParent().getFullName(), build.getNumber(), null);
+            try (ArtifactoryClient client = buildArtifactoryClient()) {
+                if (!client.isFolder(Utils.stripTrailingSlash(Utils.getFilePath(defaultKey, "")))
+                        && client.isFolder(Utils.stripTrailingSlash(Utils.getFilePath(original, "")))) {
+                    key = original;
+                }
+            } catch (Exception e) {
+                LOGGER.warn(String.format("Failed to find the folder of %s, its move is pending", build), e);
+            }
+            resolvedKey = key;
+        }
+        return key;
     }
 
     @Override
     public void archive(FilePath workspace, Launcher launcher, BuildListener listener, Map<String, String> artifacts)
             throws IOException, InterruptedException {
+        archive(workspace, listener, artifacts, ArchiveOptions.DEFAULT, isDeferredArchiving());
+    }
+
+    /**
+     * Archive files with options
+     * @param workspace the workspace holding the files
+     * @param listener the listener
+     * @param artifacts the artifact paths mapped to the paths of the files in the workspace
+     * @param options the options of the transfer
+     * @param deferred true to upload in the background and return before the files are archived
+     * @return the archived files, empty when deferred
+     * @throws IOException if the files cannot be archived
+     * @throws InterruptedException if interrupted
+     */
+    List<ArtifactoryClient.FileInfo> archive(
+            FilePath workspace,
+            TaskListener listener,
+            Map<String, String> artifacts,
+            ArchiveOptions options,
+            boolean deferred)
+            throws IOException, InterruptedException {
         if (artifacts.isEmpty()) {
-            return;
+            return Collections.emptyList();
+        }
+        ArtifactoryOrphanCollector.markOwned(build.getParent());
+        String base = getManifestBase();
+        HashMap<String, String> archived =
+                options.skipUnchanged ? archivedChecksums(base, artifacts.keySet()) : new HashMap<>();
+        ArtifactoryClient.ArtifactoryConfig transferConfig = buildArtifactoryConfig(workspace);
+        if (options.bandwidthLimit >= 0) {
+            transferConfig = transferConfig.withBandwidthLimit(options.bandwidthLimit);
+        }
+        if (deferred) {
+            archiveDeferred(workspace, listener, artifacts, base, archived, options, transferConfig);
+            return Collections.emptyList();
+        }
+        List<ArtifactoryClient.FileInfo> uploaded;
+        if (workspace.isRemote() && artifacts.size() > streamingThreshold) {
+            // Stream the list so the agent starts uploading before it has received all of it
+            Pipe pipe = Pipe.createLocalToRemote();
+            Future<List<ArtifactoryClient.FileInfo>> upload = workspace.actAsync(
+                    new UploadToArtifactoryStorage(transferConfig, base, pipe, archived, options, listener));
+            try (OutputStream out = new BufferedOutputStream(pipe.getOut(), STREAMING_CHUNK_SIZE)) {
+                ArtifactoryUploadList.write(artifacts, out);
+            }
+            try {
+                uploaded = upload.get();
+            } catch (InterruptedException e) {
+                upload.cancel(true);
+                throw e;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        } else {
+            uploaded = workspace.act(new UploadToArtifactoryStorage(
+                    transferConfig, base, ArtifactoryUploadList.of(artifacts), archived, options, listener, false));
+        }
+        recordManifest(uploaded);
+        return uploaded;
+    }
+
+    /**
+     * Find the checksums of the files of this call already archived by the run, so unchanged files are not uploaded
+     * again. They are read from the manifest, and only listed with an AQL query when the manifest is incomplete
+     * @param base the artifacts folder of the run
+     * @param paths the artifact paths of this call
+     * @return the SHA-1 of the archived files among the paths, by artifact path
+     */
+    private HashMap<String, String> archivedChecksums(String base, Set<String> paths) {
+        HashMap<String, String> archived = new HashMap<>();
+        boolean incomplete;
+        synchronized (this) {
+            incomplete = manifestIncomplete;
         }
-        List<UploadFile> files = new ArrayList<>();
-        for (Map.Entry<String, String> entry : artifacts.entrySet()) {
-            String path = "artifacts/" + entry.getKey();
-            String filePath = getFilePath(path);
-            files.add(new UploadFile(entry.getValue(), filePath));
+        if (!incomplete) {
+            // Nothing archived yet when there is no manifest, no need to ask Artifactory
+            ArtifactoryManifest current = getManifest();
+            if (current != null) {
+                for (String path : paths) {
+                    ArtifactoryClient.FileInfo file = current.file(base + path);
+                    if (file != null && file.getSha1() != null) {
+                        archived.put(path, file.getSha1());
+                    }
+                }
+            }
+            return archived;
         }
+        try (ArtifactoryClient client = buildArtifactoryClient()) {
+            for (ArtifactoryClient.FileInfo file : client.listFiles(base)) {
+                String path = file.getPath().substring(base.length());
+                if (file.getSha1() != null && paths.contains(path)) {
+                    archived.put(path, file.getSha1());
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.debug(String.format("Failed to list the archived files of %s, uploading all files", base), e);
+        }
+        return archived;
+    }
 
-        workspace.act(new UploadToArtifactoryStorage(buildArtifactoryConfig(), files));
+    private boolean isDeferredArchiving() {
+        ArtifactoryGenericArtifactConfig current = ArtifactoryConfigSnapshot.get().getConfig();
+        // Freestyle builds archive in their last step, there is nothing to overlap
+        return (current == null ? this.config : current).isDeferredArchiving() && !(build instanceof AbstractBuild);
+    }
+
+    /**
+     * Copy the files to a staging folder of the agent, so the build can change them, and upload them in the background
+     */
+    private void archiveDeferred(
+            FilePath workspace,
+            TaskListener listener,
+            Map<String, String> artifacts,
+            String base,
+            HashMap<String, String> archived,
+            ArchiveOptions options,
+            ArtifactoryClient.ArtifactoryConfig transferConfig)
+            throws IOException, InterruptedException {
+        FilePath tempDir = WorkspaceList.tempDir(workspace);
+        if (tempDir == null) {
+            throw new AbortException("Could not make temporary directory in " + workspace);
+        }
+        FilePath staging = tempDir.child("artifactory-" + UUID.randomUUID());
+        workspace.act(new StageArtifacts(staging.getRemote(), ArtifactoryUploadList.of(artifacts)));
+        Map<String, String> staged = new LinkedHashMap<>();
+        for (String path : artifacts.keySet()) {
+            staged.put(path, path);
+        }
+        Future<List<ArtifactoryClient.FileInfo>> upload = staging.actAsync(new UploadToArtifactoryStorage(
+                transferConfig, base, ArtifactoryUploadList.of(staged), archived, options, listener, true));
+        synchronized (this) {
+            if (deferredUploads == null) {
+                deferredUploads = new ArrayList<>();
+            }
+            deferredUploads.add(upload);
+        }
+        listener.getLogger().printf("Uploading %d file(s) to %s in the background%n", artifacts.size(), base);
+    }
+
+    /**
+     * @return true if deferred uploads were started and not awaited yet, or one of them failed
+     */
+    synchronized boolean hasDeferredUploads() {
+        return deferredUploads != null || deferredFailure != null;
+    }
+
+    /**
+     * Wait for the deferred uploads and record their files in the manifest. The lock is held while waiting, so a
+     * concurrent caller returns only once every upload is recorded
+     * @throws IOException if a deferred upload failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized void awaitDeferredUploads() throws IOException, InterruptedException {
+        if (deferredUploads != null) {
+            Iterator<Future<List<ArtifactoryClient.FileInfo>>> pending = deferredUploads.iterator();
+            while (pending.hasNext()) {
+                Future<List<ArtifactoryClient.FileInfo>> upload = pending.next();
+                try {
+                    recordManifest(upload.get());
+                } catch (ExecutionException e) {
+                    if (deferredFailure == null) {
+                        deferredFailure = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause()
+                                : new IOException(e.getCause());
+                    }
+                }
+                // Removed once done, an interrupted wait leaves the remaining uploads to the next barrier
+                pending.remove();
+            }
+            deferredUploads = null;
+        }
+        if (deferredFailure != null) {
+            throw deferredFailure;
+        }
     }
 
     @Override
@@ -74,7 +430,8 @@ public class ArtifactoryArtifactManager extends ArtifactManager implements Stash
         String virtualPath = getFilePath("");
         LOGGER.trace(String.format("Deleting %s...", virtualPath));
         try (ArtifactoryClient client = buildArtifactoryClient()) {
-            if (client.isFile(virtualPath) || client.isFolder(virtualPath)) {
+            // A single lookup tells whether a file or a folder exists
+            if (client.info(virtualPath) != null) {
                 client.deleteArtifact(virtualPath);
             } else {
                 LOGGER.debug(String.format("No file or folder found at %s", virtualPath));
@@ -88,6 +445,10 @@ public class ArtifactoryArtifactManager extends ArtifactManager implements Stash
         return true;
     }
 
+    /**
+     * Return the artifacts folder. Reads through it wait for the artifacts still uploaded in the background, and fail
+     * if one of them failed to upload
+     */
     @Override
     public VirtualFile root() {
         return new ArtifactoryVirtualFile(getFilePath("artifacts"), build);
@@ -106,12 +467,13 @@ public class ArtifactoryArtifactManager extends ArtifactManager implements Stash
             boolean allowEmpty)
             throws IOException, InterruptedException {
         String path = getFilePath("stashes/" + name + ".tgz");
+        ArtifactoryOrphanCollector.markOwned(build.getParent());
         FilePath tempDir = WorkspaceList.tempDir(workspace);
         if (tempDir == null) {
             throw new AbortException("Could not make temporary directory in " + workspace);
         }
         workspace.act(new Stash(
-                buildArtifactoryConfig(),
+                buildArtifactoryConfig(workspace),
                 path,
                 includes,
                 excludes,
@@ -134,14 +496,18 @@ public class ArtifactoryArtifactManager extends ArtifactManager implements Stash
         if (tempDir == null) {
             throw new AbortException("Could not make temporary directory in " + workspace);
         }
+        ArtifactoryClient.FileInfo stash;
         try (ArtifactoryClient client = buildArtifactoryClient()) {
-            if (!client.isFile(path)) {
-                throw new AbortException(String.format("No such saved stash ‘%s’ found at %s", name, path));
-            }
+            stash = client.info(path);
         } catch (Exception e) {
             throw new AbortException(String.format("Failed to stash %s from %s", name, path));
         }
-        workspace.act(new Unstash(buildArtifactoryConfig(), path, listener));
+        if (stash == null || !stash.isFile()) {
+            throw new AbortException(String.format("No such saved stash ‘%s’ found at %s", name, path));
+        }
+        // The checksum of the server pins the version, a replica still serving a previous stash of the same name
+        // is not used
+        workspace.act(new Unstash(buildArtifactoryConfig(workspace), path, stash.getSha1(), listener));
     }
 
     @Override
@@ -176,18 +542,38 @@ public class ArtifactoryArtifactManager extends ArtifactManager implements Stash
             String artifactPath = getFilePath("artifacts");
             String toStashedPath = artifactoryArtifactManager.getFilePath("stashes");
             String toArtifactPath = artifactoryArtifactManager.getFilePath("artifacts");
-            if (client.isFolder(artifactPath)) {
-                LOGGER.debug(String.format("Copying artifacts from %s to %s", artifactPath, toArtifactPath));
-                listener.getLogger()
-                        .println(String.format("Copying artifacts from %s to %s", artifactPath, toArtifactPath));
-                client.copy(artifactPath, toArtifactPath);
-            }
-            if (client.isFolder(stashedPath)) {
+            // Artifacts and stashes are copied concurrently, each after its own check
+            CompletableFuture<List<ArtifactoryClient.FileInfo>> artifacts = client.isFolderAsync(artifactPath)
+                    .thenCompose(folder -> {
+                        if (!folder) {
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        LOGGER.debug(String.format("Copying artifacts from %s to %s", artifactPath, toArtifactPath));
+                        listener.getLogger()
+                                .println(String.format(
+                                        "Copying artifacts from %s to %s", artifactPath, toArtifactPath));
+                        return client.copyAsync(artifactPath, toArtifactPath)
+                                .thenCompose(copied -> client.listFilesAsync(toArtifactPath));
+                    });
+            CompletableFuture<Void> stashes = client.isFolderAsync(stashedPath).thenCompose(folder -> {
+                if (!folder) {
+                    return CompletableFuture.completedFuture(null);
+                }
                 listener.getLogger()
                         .println(String.format("Copying stashes from %s to %s", stashedPath, toStashedPath));
                 LOGGER.debug(String.format("Copying stashes from %s to %s", stashedPath, toStashedPath));
-                client.copy(stashedPath, toStashedPath);
+                return client.copyAsync(stashedPath, toStashedPath);
+            });
+            try {
+                List<ArtifactoryClient.FileInfo> copied = ArtifactoryClient.await(artifacts);
+                if (copied != null) {
+                    artifactoryArtifactManager.recordManifest(copied);
+                }
+            } finally {
+                // Don't close the client under a running copy
+                stashes.exceptionally(e -> null).join();
             }
+            ArtifactoryClient.await(stashes);
         } catch (Exception e) {
             listener.getLogger()
                     .printf("Failed to copy artifact and stashes on Artifactory Storage. Details %s%n", e.getMessage());
@@ -195,35 +581,288 @@ public class ArtifactoryArtifactManager extends ArtifactManager implements Stash
         }
     }
 
-    private String getFilePath(String path) {
-        return Utils.getFilePath(defaultKey, path);
+    /**
+     * Copy artifacts of another run to this run. The content is copied inside Artifactory, with a server-side copy or
+     * a checksum deploy, so nothing transits through Jenkins
+     * @param from the run to copy artifacts from. Its artifacts must be stored on the same repository
+     * @param artifacts the relative paths of the artifacts to copy, or all artifacts of the run if empty
+     * @param listener the listener
+     * @return the number of copied artifacts
+     * @throws IOException if an artifact cannot be copied
+     * @throws InterruptedException if interrupted
+     */
+    public int copyArtifactsFrom(
+            @NonNull Run<?, ?> from, @NonNull Collection<String> artifacts, @NonNull TaskListener listener)
+            throws IOException, InterruptedException {
+        ArtifactManager artifactManager = from.getArtifactManager();
+        if (!(artifactManager instanceof ArtifactoryArtifactManager)) {
+            throw new AbortException(
+                    String.format("Cannot copy artifacts from %s using %s", from, artifactManager.getClass()));
+        }
+        ArtifactoryArtifactManager source = (ArtifactoryArtifactManager) artifactManager;
+        if (!Objects.equals(source.config.getServerUrl(), this.config.getServerUrl())
+                || !Objects.equals(source.config.getRepository(), this.config.getRepository())) {
+            throw new AbortException(
+                    String.format("Cannot copy artifacts from %s stored on another Artifactory repository", from));
+        }
+        String sourceRoot = Utils.stripTrailingSlash(source.getFilePath("artifacts"));
+        String targetRoot = Utils.stripTrailingSlash(getFilePath("artifacts"));
+        ArtifactoryOrphanCollector.markOwned(build.getParent());
+        Set<String> remaining = new HashSet<>(artifacts);
+        List<ArtifactoryClient.FileInfo> files = new ArrayList<>();
+        try (ArtifactoryClient client = buildArtifactoryClient()) {
+            for (ArtifactoryClient.FileInfo file : client.listFiles(sourceRoot)) {
+                String relativePath = file.getPath().substring(sourceRoot.length() + 1);
+                if (artifacts.isEmpty() || remaining.remove(relativePath)) {
+                    files.add(file);
+                }
+            }
+            if (!remaining.isEmpty()) {
+                throw new AbortException(String.format("No such artifact(s) in %s: %s", from, remaining));
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(UPLOAD_THREADS);
+            try {
+                CompletableFuture.allOf(files.stream()
+                                .map(file -> CompletableFuture.runAsync(
+                                        () -> copy(
+                                                client,
+                                                file,
+                                                targetRoot + file.getPath().substring(sourceRoot.length())),
+                                        executor))
+                                .toArray(CompletableFuture[]::new))
+                        .get();
+            } finally {
+                executor.shutdown();
+            }
+        } catch (AbortException | InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            LOGGER.error(String.format("Failed to copy artifacts from %s", from), e);
+            throw new IOException(String.format("Failed to copy artifacts from %s", from), e);
+        }
+        List<ArtifactoryClient.FileInfo> copied = new ArrayList<>();
+        for (ArtifactoryClient.FileInfo file : files) {
+            copied.add(new ArtifactoryClient.FileInfo(
+                    targetRoot + file.getPath().substring(sourceRoot.length()),
+                    System.currentTimeMillis(),
+                    file.getSize(),
+                    AqlItemType.FILE,
+                    file.getSha1(),
+                    file.getSha256(),
+                    file.getMd5()));
+        }
+        recordManifest(copied);
+        listener.getLogger().printf("Copied %d artifact(s) from %s%n", files.size(), from);
+        return files.size();
     }
 
-    private ArtifactoryClient buildArtifactoryClient() {
-        return new ArtifactoryClient(this.config.getServerUrl(), this.config.getRepository(), Utils.getCredentials());
+    /**
+     * Download artifacts of this run to a workspace. The files are selected on the controller, from the manifest when
+     * there is one, and the agent of the workspace downloads them directly from Artifactory
+     * @param target the folder receiving the files
+     * @param listener the listener
+     * @param includes the comma separated Ant patterns of the artifacts to download
+     * @param excludes the comma separated Ant patterns of the artifacts to skip, or null
+     * @param flatten true to download the files in the folder itself, without their artifact folders
+     * @param threads the number of parallel downloads
+     * @return the downloaded files
+     * @throws IOException if the artifacts cannot be listed or downloaded
+     * @throws InterruptedException if interrupted
+     */
+    List<ArtifactoryClient.FileInfo> fetch(
+            FilePath target,
+            TaskListener listener,
+            String includes,
+            @CheckForNull String excludes,
+            boolean flatten,
+            int threads)
+            throws IOException, InterruptedException {
+        awaitDeferredUploads();
+        String base = getManifestBase();
+        List<ArtifactoryClient.FileInfo> files = new ArrayList<>();
+        ArtifactoryManifest current = getManifest();
+        if (current != null) {
+            for (int i = 0; i < current.size(); i++) {
+                files.add(current.getListing().getFileInfo(i));
+            }
+        } else {
+            try (ArtifactoryClient client = buildArtifactoryClient()) {
+                files.addAll(client.listFiles(base));
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(String.format("Failed to list artifacts of %s", build), e);
+            }
+        }
+        String[] included = Utils.splitPatterns(includes);
+        String[] excluded = Utils.splitPatterns(excludes);
+        Map<String, String> selected = new HashMap<>();
+        Map<String, ArtifactoryClient.FileInfo> byPath = new HashMap<>();
+        Set<String> names = new HashSet<>();
+        for (ArtifactoryClient.FileInfo file : files) {
+            if (!file.getPath().startsWith(base)) {
+                continue;
+            }
+            String path = file.getPath().substring(base.length());
+            if (!Utils.matchesAny(included, path) || Utils.matchesAny(excluded, path)) {
+                continue;
+            }
+            String name = flatten ? path.substring(path.lastIndexOf('/') + 1) : path;
+            if (!names.add(name)) {
+                throw new AbortException(String.format(
+                        "Cannot flatten the artifacts of %s, more than one artifact is named %s", build, name));
+            }
+            selected.put(path, name);
+            byPath.put(path, file);
+        }
+        if (selected.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // Sizes in the order of the list, to schedule the largest downloads first
+        List<String> paths = new ArrayList<>(new TreeMap<>(selected).keySet());
+        long[] sizes = new long[paths.size()];
+        String[] checksums = new String[paths.size()];
+        List<ArtifactoryClient.FileInfo> fetched = new ArrayList<>();
+        for (int i = 0; i < sizes.length; i++) {
+            ArtifactoryClient.FileInfo file = byPath.get(paths.get(i));
+            sizes[i] = file.getSize();
+            checksums[i] = file.getSha1();
+            fetched.add(file);
+        }
+        target.act(new Fetch(
+                buildArtifactoryConfig(target),
+                base,
+                ArtifactoryUploadList.of(selected),
+                sizes,
+                checksums,
+                threads,
+                listener));
+        return fetched;
     }
 
-    private ArtifactoryClient.ArtifactoryConfig buildArtifactoryConfig() {
-        return new ArtifactoryClient.ArtifactoryConfig(
-                this.config.getServerUrl(), this.config.getRepository(), Utils.getCredentials());
+    /**
+     * Return the manifest of the archived artifacts
+     * @return the manifest or null if the artifacts were archived without manifest
+     */
+    @CheckForNull
+    synchronized ArtifactoryManifest getManifest() {
+        if (manifestIncomplete) {
+            return null;
+        }
+        if (!manifestLoaded) {
+            loadedManifest = readManifest();
+            manifestLoaded = true;
+        }
+        return loadedManifest;
     }
 
-    private static class UploadFile implements Serializable {
-        private final String name;
-        private final String url;
+    @CheckForNull
+    private ArtifactoryManifest readManifest() {
+        String base = getManifestBase();
+        try {
+            if (manifestSpilled) {
+                Path file = getManifestFile();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+                    return ArtifactoryManifest.read(base, reader);
+                }
+            }
+            if (manifest != null) {
+                return ArtifactoryManifest.read(base, new BufferedReader(new StringReader(manifest)));
+            }
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Failed to read artifact manifest of %s, using Artifactory", build), e);
+            manifestIncomplete = true;
+        }
+        return null;
+    }
 
-        public UploadFile(String name, String url) {
-            this.name = name;
-            this.url = url;
+    /**
+     * Add files to the manifest, in the build record or spilled to a side file when large
+     * @param files the archived files
+     */
+    private synchronized void recordManifest(List<ArtifactoryClient.FileInfo> files) {
+        ArtifactoryManifest current = getManifest();
+        if (manifestIncomplete) {
+            return;
+        }
+        ArtifactoryManifest updated =
+                current == null ? ArtifactoryManifest.of(getManifestBase(), files) : current.merge(files);
+        try {
+            Path file = getManifestFile();
+            if (updated.size() > MANIFEST_INLINE_LIMIT) {
+                Path tmp = Files.createTempFile(file.getParent(), "manifest", ".tmp");
+                try (Writer writer = new OutputStreamWriter(
+                        new GZIPOutputStream(Files.newOutputStream(tmp)), StandardCharsets.UTF_8)) {
+                    updated.write(writer);
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                manifest = null;
+                manifestSpilled = true;
+            } else {
+                StringWriter writer = new StringWriter();
+                updated.write(writer);
+                manifest = writer.toString();
+                manifestSpilled = false;
+                Files.deleteIfExists(file);
+            }
+            loadedManifest = updated;
+            if (!build.isBuilding()) {
+                build.save();
+            }
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Failed to record artifact manifest of %s, using Artifactory", build), e);
+            manifest = null;
+            manifestSpilled = false;
+            manifestIncomplete = true;
+            loadedManifest = null;
         }
+    }
 
-        public String getName() {
-            return name;
+    private Path getManifestFile() {
+        return build.getRootDir().toPath().resolve(ArtifactoryManifest.FILE_NAME);
+    }
+
+    private String getManifestBase() {
+        return Utils.stripTrailingSlash(getFilePath("artifacts")) + "/";
+    }
+
+    private static void copy(ArtifactoryClient client, ArtifactoryClient.FileInfo file, String targetPath) {
+        try {
+            LOGGER.debug(String.format("Copying %s to %s", file.getPath(), targetPath));
+            client.copyFile(file, targetPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
-        public String getUrl() {
-            return url;
+    private String getFilePath(String path) {
+        return Utils.getFilePath(getKey(), path);
+    }
+
+    private ArtifactoryClient buildArtifactoryClient() {
+        return new ArtifactoryClient(buildArtifactoryConfig());
+    }
+
+    private ArtifactoryClient.ArtifactoryConfig buildArtifactoryConfig() {
+        return ArtifactoryConfigSnapshot.get()
+                .getArtifactoryConfig(this.config.getServerUrl(), this.config.getRepository());
+    }
+
+    /**
+     * Build the client configuration of transfers from or to a workspace, with the bandwidth limit and the read
+     * replicas of its node
+     */
+    private ArtifactoryClient.ArtifactoryConfig buildArtifactoryConfig(FilePath workspace) {
+        ArtifactoryGenericArtifactConfig current = ArtifactoryConfigSnapshot.get().getConfig();
+        if (current == null) {
+            current = this.config;
         }
+        Computer computer = workspace.toComputer();
+        Node node = computer == null ? null : computer.getNode();
+        return buildArtifactoryConfig()
+                .withBandwidthLimit(current.getBandwidthLimit(node))
+                .withReadReplicas(current.getReadReplicaUrls(node));
     }
 
     /**
@@ -236,6 +875,8 @@ public class ArtifactoryArtifactManager extends ArtifactManager implements Stash
         private final boolean useDefaultExcludes;
         private final boolean allowEmpty;
         private final String tempDir;
+        private final int compressionThreads;
+        private final int compressionBlockSize;
         private final TaskListener listener;
 
         public Stash(
@@ -255,6 +896,8 @@ public class ArtifactoryArtifactManager extends ArtifactManager implements Stash
             this.useDefaultExcludes = useDefaultExcludes;
             this.allowEmpty = allowEmpty;
             this.tempDir = tempDir;
+            this.compressionThreads = stashCompressionThreads;
+            this.compressionBlockSize = stashCompressionBlockSize;
             this.listener = listener;
         }
 
@@ -265,10 +908,15 @@ public class ArtifactoryArtifactManager extends ArtifactManager implements Stash
             Path tmp = Files.createTempFile(tempDirP, "stash", ".tgz");
             try {
                 int count;
-                try (OutputStream os = Files.newOutputStream(tmp)) {
+                int threads = compressionThreads > 0
+                        ? compressionThreads
+                        : Runtime.getRuntime().availableProcessors();
+                // Standard gzip, compressed on all the threads instead of one
+                try (OutputStream os = new ArtifactoryParallelGzipOutputStream(
+                        Files.newOutputStream(tmp), threads, compressionBlockSize)) {
                     count = new FilePath(f)
                             .archive(
-                                    ArchiverFactory.TARGZ,
+                                    ArchiverFactory.TAR,
                                     os,
                                     new DirScanner.Glob(
                                             Util.fixEmpty(includes) == null ? "**" : includes,
@@ -281,8 +929,12 @@ public class ArtifactoryArtifactManager extends ArtifactManager implements Stash
                     throw new AbortException("No files included in stash");
                 }
                 try (ArtifactoryClient client = new ArtifactoryClient(this.config)) {
-                    client.uploadArtifact(tmp, path);
-                    listener.getLogger().printf("Stashed %d file(s) to %s%n", count, path);
+                    long start = System.nanoTime();
+                    long size = client.uploadArtifact(tmp, path).getSize();
+                    listener.getLogger()
+                            .printf(
+                                    "Stashed %d file(s) to %s, %s%n",
+                                    count, path, Utils.formatTransfer(size, System.nanoTime() - start));
                 } catch (Exception e) {
                     LOGGER.error("Unable to stash files to Artifactory", e);
                     throw new AbortException("Unable to stash files to Artifactory. Details: " + e.getMessage());
@@ -302,20 +954,36 @@ public class ArtifactoryArtifactManager extends ArtifactManager implements Stash
         private static final long serialVersionUID = 1L;
         private final ArtifactoryClient.ArtifactoryConfig config;
         private final String path;
+        private final String sha1;
+        private final int writerThreads;
         private final TaskListener listener;
 
-        public Unstash(ArtifactoryClient.ArtifactoryConfig config, String path, TaskListener listener)
-                throws IOException {
+        /**
+         * @param sha1 the SHA-1 of the stash on the server, or null to only read it from the server
+         */
+        public Unstash(
+                ArtifactoryClient.ArtifactoryConfig config,
+                String path,
+                @CheckForNull String sha1,
+                TaskListener listener) {
             this.config = config;
             this.path = path;
+            this.sha1 = sha1;
+            this.writerThreads = unstashWriterThreads;
             this.listener = listener;
         }
 
         @Override
         public Void invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
             try (ArtifactoryClient client = new ArtifactoryClient(this.config)) {
-                try (InputStream is = client.downloadArtifact(path)) {
-                    new FilePath(f).untarFrom(is, FilePath.TarCompression.GZIP);
+                long start = System.nanoTime();
+                try (CountingInputStream is =
+                        new CountingInputStream(client.downloadArtifactFromReplicas(path, sha1))) {
+                    int count = new ArtifactoryUnstashPipeline(f.toPath(), writerThreads).extract(is);
+                    listener.getLogger()
+                            .printf(
+                                    "Unstashed %d file(s) from %s, %s%n",
+                                    count, path, Utils.formatTransfer(is.getCount(), System.nanoTime() - start));
                 } finally {
                     listener.getLogger().flush();
                 }
@@ -327,45 +995,370 @@ public class ArtifactoryArtifactManager extends ArtifactManager implements Stash
         }
     }
 
+    /**
+     * Master to slave callable that downloads artifacts to a folder of the agent
+     */
+    private static final class Fetch extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+        private final ArtifactoryClient.ArtifactoryConfig config;
+        private final String base;
+        private final ArtifactoryUploadList files;
+        private final long[] sizes;
+        private final String[] checksums;
+        private final int threads;
+        private final TaskListener listener;
+
+        /**
+         * @param files the artifact paths, relative to the base, mapped to the names of the downloaded files
+         * @param sizes the sizes of the files, in the order of the list
+         * @param checksums the SHA-1 of the files on the server in the order of the list, so replicas serving another
+         * version are not used
+         */
+        private Fetch(
+                ArtifactoryClient.ArtifactoryConfig config,
+                String base,
+                ArtifactoryUploadList files,
+                long[] sizes,
+                String[] checksums,
+                int threads,
+                TaskListener listener) {
+            this.config = config;
+            this.base = base;
+            this.files = files;
+            this.sizes = sizes;
+            this.checksums = checksums;
+            this.threads = Math.max(1, threads);
+            this.listener = listener;
+        }
+
+        @Override
+        public Void invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            Path target = f.toPath().toAbsolutePath().normalize();
+            try (ArtifactoryClient client = new ArtifactoryClient(this.config)) {
+                long start = System.nanoTime();
+                AtomicLong downloaded = new AtomicLong();
+                Map<String, String> expected = new ConcurrentHashMap<>();
+                ArtifactoryUploadScheduler<ArtifactoryUploadList.Entry, Path> scheduler =
+                        new ArtifactoryUploadScheduler<>(threads, entry -> {
+                            Path file = target.resolve(entry.getName()).normalize();
+                            String url = base + entry.getPath();
+                            LOGGER.debug(String.format("Downloading %s to %s", url, file));
+                            Files.createDirectories(file.getParent());
+                            try (CountingInputStream in = new CountingInputStream(
+                                    client.downloadArtifactFromReplicas(url, expected.get(entry.getPath())))) {
+                                Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+                                downloaded.addAndGet(in.getCount());
+                            }
+                            return file;
+                        });
+                try {
+                    ArtifactoryUploadList.Reader reader = files.reader();
+                    ArtifactoryUploadList.Entry entry;
+                    int index = 0;
+                    while ((entry = reader.next()) != null) {
+                        if (!target.resolve(entry.getName()).normalize().startsWith(target)) {
+                            throw new IOException(String.format(
+                                    "Artifact %s would be downloaded outside of %s", entry.getPath(), target));
+                        }
+                        if (checksums[index] != null) {
+                            expected.put(entry.getPath(), checksums[index]);
+                        }
+                        scheduler.add(entry, sizes[index++]);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    scheduler.abort();
+                    throw e;
+                }
+                List<Path> fetched = scheduler.finish();
+                listener.getLogger()
+                        .printf(
+                                "Fetched %d file(s) from %s, %s%n",
+                                fetched.size(),
+                                base,
+                                Utils.formatTransfer(downloaded.get(), System.nanoTime() - start));
+            } catch (Exception e) {
+                LOGGER.error("Unable to fetch files from Artifactory", e);
+                throw new AbortException("Unable to fetch files from Artifactory. Details: " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Master to slave callable that copies files of the workspace to a staging folder
+     */
+    private static final class StageArtifacts extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+        private final String staging;
+        private final ArtifactoryUploadList files;
+
+        private StageArtifacts(String staging, ArtifactoryUploadList files) {
+            this.staging = staging;
+            this.files = files;
+        }
+
+        @Override
+        public Void invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+            Path target = Paths.get(staging);
+            try {
+                ArtifactoryUploadList.Reader reader = files.reader();
+                ArtifactoryUploadList.Entry entry;
+                while ((entry = reader.next()) != null) {
+                    Path copy = target.resolve(entry.getPath());
+                    Files.createDirectories(copy.getParent());
+                    Files.copy(
+                            new File(workspace, entry.getName()).toPath(),
+                            copy,
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            } catch (IOException | RuntimeException e) {
+                Util.deleteRecursive(target.toFile());
+                throw e;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Options of an archive call
+     */
+    static final class ArchiveOptions implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        static final ArchiveOptions DEFAULT = new ArchiveOptions(UPLOAD_THREADS, false, true, -1);
+
+        private final int uploadThreads;
+        private final boolean checksumDeploy;
+        private final boolean skipUnchanged;
+        private final long bandwidthLimit;
+
+        /**
+         * @param uploadThreads the number of parallel uploads
+         * @param checksumDeploy true to deploy files whose content is already in Artifactory without uploading it
+         * @param skipUnchanged true to skip the files already archived by the run with the same content
+         * @param bandwidthLimit the limit in bytes per second, 0 for none, negative for the limit of the node
+         */
+        ArchiveOptions(int uploadThreads, boolean checksumDeploy, boolean skipUnchanged, long bandwidthLimit) {
+            this.uploadThreads = Math.max(1, uploadThreads);
+            this.checksumDeploy = checksumDeploy;
+            this.skipUnchanged = skipUnchanged;
+            this.bandwidthLimit = bandwidthLimit;
+        }
+    }
+
     /**
      * Master to slave callable that uploads files to Artifactory storage.
      */
-    private static class UploadToArtifactoryStorage extends MasterToSlaveFileCallable<Void> {
+    private static class UploadToArtifactoryStorage
+            extends MasterToSlaveFileCallable<List<ArtifactoryClient.FileInfo>> {
 
-        private final List<UploadFile> files;
         private final ArtifactoryClient.ArtifactoryConfig config;
+        private final String base;
+        private final ArtifactoryUploadList files;
+        private final Pipe pipe;
+        private final HashMap<String, String> archived;
+        private final ArchiveOptions options;
+        private final TaskListener listener;
+        private final boolean deleteFolder;
 
-        public UploadToArtifactoryStorage(ArtifactoryClient.ArtifactoryConfig config, List<UploadFile> files) {
+        /**
+         * Upload files listed in the callable, then optionally delete the folder holding them
+         * @param archived the SHA-1 of the files already archived by artifact path, skipped when unchanged
+         */
+        public UploadToArtifactoryStorage(
+                ArtifactoryClient.ArtifactoryConfig config,
+                String base,
+                ArtifactoryUploadList files,
+                HashMap<String, String> archived,
+                ArchiveOptions options,
+                TaskListener listener,
+                boolean deleteFolder) {
             this.config = config;
+            this.base = base;
             this.files = files;
+            this.pipe = null;
+            this.archived = archived;
+            this.options = options;
+            this.listener = listener;
+            this.deleteFolder = deleteFolder;
+        }
+
+        /**
+         * Upload files streamed by the controller through a pipe
+         * @param archived the SHA-1 of the files already archived by artifact path, skipped when unchanged
+         */
+        public UploadToArtifactoryStorage(
+                ArtifactoryClient.ArtifactoryConfig config,
+                String base,
+                Pipe pipe,
+                HashMap<String, String> archived,
+                ArchiveOptions options,
+                TaskListener listener) {
+            this.config = config;
+            this.base = base;
+            this.files = null;
+            this.pipe = pipe;
+            this.archived = archived;
+            this.options = options;
+            this.listener = listener;
+            this.deleteFolder = false;
         }
 
         @Override
-        public Void invoke(File folder, VirtualChannel channel) throws IOException, InterruptedException {
-            try (ArtifactoryClient client = new ArtifactoryClient(this.config)) {
-                ExecutorService executor = Executors.newFixedThreadPool(UPLOAD_THREADS);
+        public List<ArtifactoryClient.FileInfo> invoke(File folder, VirtualChannel channel)
+                throws IOException, InterruptedException {
+            try (ArtifactoryClient client = new ArtifactoryClient(this.config);
+                    InputStream in = pipe != null ? new BufferedInputStream(pipe.getIn()) : null) {
+                ArtifactoryUploadList.Reader reader =
+                        in != null ? new ArtifactoryUploadList.Reader(in) : files.reader();
+                long start = System.nanoTime();
+                AtomicInteger skipped = new AtomicInteger();
+                AtomicInteger deployed = new AtomicInteger();
+                AtomicLong uploadedSize = new AtomicLong();
+                // Files are hashed on the upload threads, in parallel with the uploads
+                ArtifactoryUploadScheduler<ArtifactoryUploadList.Entry, ArtifactoryClient.FileInfo> scheduler =
+                        new ArtifactoryUploadScheduler<>(options.uploadThreads, file -> {
+                            File sourceFile = new File(folder, file.getName());
+                            String url = base + file.getPath();
+                            String remoteSha1 = archived.get(file.getPath());
+                            // All checksums are computed in one read, so skipped, deployed and uploaded files record
+                            // the same information
+                            ArtifactoryClient.FileInfo local = null;
+                            if (remoteSha1 != null) {
+                                local = Utils.checksums(sourceFile.toPath(), url);
+                                if (remoteSha1.equalsIgnoreCase(local.getSha1())) {
+                                    skipped.incrementAndGet();
+                                    return local;
+                                }
+                            }
+                            if (options.checksumDeploy) {
+                                local = local != null ? local : Utils.checksums(sourceFile.toPath(), url);
+                                if (client.deployByChecksum(url, local.getSha1(), local.getSha256())) {
+                                    deployed.incrementAndGet();
+                                    return local;
+                                }
+                            }
+                            ArtifactoryClient.FileInfo info = upload(client, sourceFile, url);
+                            uploadedSize.addAndGet(info.getSize());
+                            return info;
+                        });
                 try {
-                    CompletableFuture<Void> allUploads = CompletableFuture.allOf(files.stream()
-                            .map(file -> CompletableFuture.runAsync(() -> upload(client, folder, file), executor))
-                            .toArray(CompletableFuture[]::new));
-                    allUploads.get();
-                } finally {
-                    executor.shutdown();
+                    ArtifactoryUploadList.Entry entry;
+                    while ((entry = reader.next()) != null) {
+                        scheduler.add(entry, new File(folder, entry.getName()).length());
+                    }
+                } catch (IOException | RuntimeException e) {
+                    scheduler.abort();
+                    throw e;
+                }
+                List<ArtifactoryClient.FileInfo> uploaded = scheduler.finish();
+                listener.getLogger()
+                        .printf(
+                                "Archived %d file(s) to %s, %d uploaded and %d unchanged skipped, %s%n",
+                                uploaded.size(),
+                                base,
+                                uploaded.size() - skipped.get() - deployed.get(),
+                                skipped.get(),
+                                Utils.formatTransfer(uploadedSize.get(), System.nanoTime() - start));
+                if (options.checksumDeploy) {
+                    listener.getLogger().printf("Deployed %d file(s) by checksum%n", deployed.get());
                 }
+                return uploaded;
             } catch (Exception e) {
                 LOGGER.error("Unable to upload files to Artifactory", e);
                 throw new AbortException("Unable to upload files to Artifactory. Details: " + e.getMessage());
+            } finally {
+                if (deleteFolder) {
+                    Util.deleteRecursive(folder);
+                }
             }
-            return null;
         }
 
-        private void upload(ArtifactoryClient client, File folder, UploadFile uploadFile) {
+        private ArtifactoryClient.FileInfo upload(ArtifactoryClient client, File sourceFile, String url)
+                throws IOException {
+            LOGGER.debug(String.format("Uploading %s to %s", sourceFile.toPath(), url));
+            return client.uploadArtifact(sourceFile.toPath(), url);
+        }
+    }
+
+    /**
+     * Stream counting the bytes read, to report the throughput of downloads
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        private long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Flow listener that holds the end of Pipeline runs until their deferred uploads are done, while their result can
+     * still change, and fails them if an upload failed. The {@code artifactoryAwaitUploads} step waits earlier, before
+     * the agent is released
+     */
+    @Extension
+    public static final class DeferredUploadsListener extends FlowExecutionListener {
+
+        @Override
+        public void onCompleted(@NonNull FlowExecution execution) {
+            Run<?, ?> run;
+            TaskListener listener;
+            try {
+                Queue.Executable executable = execution.getOwner().getExecutable();
+                if (!(executable instanceof Run)) {
+                    return;
+                }
+                run = (Run<?, ?>) executable;
+                if (!(run.getArtifactManager() instanceof ArtifactoryArtifactManager)
+                        || !((ArtifactoryArtifactManager) run.getArtifactManager()).hasDeferredUploads()) {
+                    return;
+                }
+                listener = execution.getOwner().getListener();
+            } catch (IOException e) {
+                LOGGER.warn(String.format("Cannot wait for the deferred uploads of %s", execution), e);
+                return;
+            }
+            ArtifactoryArtifactManager manager = (ArtifactoryArtifactManager) run.getArtifactManager();
             try {
-                File sourceFile = new File(folder, uploadFile.getName());
-                LOGGER.debug(String.format("Uploading %s to %s", sourceFile.toPath(), uploadFile.getUrl()));
-                client.uploadArtifact(sourceFile.toPath(), uploadFile.getUrl());
+                manager.awaitDeferredUploads();
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                listener.error("Failed to upload artifacts to Artifactory: " + e.getMessage());
+                run.setResult(Result.FAILURE);
+            } catch (InterruptedException e) {
+                listener.error("Interrupted while uploading artifacts to Artifactory");
+                run.setResult(Result.ABORTED);
+                Thread.currentThread().interrupt();
             }
         }
     }
@@ -378,17 +1371,16 @@ public class ArtifactoryArtifactManager extends ArtifactManager implements Stash
 
         @Override
         public void onDeleted(Item item) {
-            ArtifactoryGenericArtifactConfig config = Utils.getArtifactConfig();
+            ArtifactoryConfigSnapshot snapshot = ArtifactoryConfigSnapshot.get();
 
             // Not configured
-            if (config == null) {
+            if (snapshot.getConfig() == null) {
                 return;
             }
 
             String path = Utils.stripTrailingSlash(Utils.getFilePath(item.getFullName(), ""));
             LOGGER.debug(String.format("Checking if %s must be deleted on Artifactory Storage", path));
-            try (ArtifactoryClient client =
-                    new ArtifactoryClient(config.getServerUrl(), config.getRepository(), Utils.getCredentials())) {
+            try (ArtifactoryClient client = new ArtifactoryClient(snapshot.getArtifactoryConfig())) {
                 if (client.isFolder(path)) {
                     LOGGER.debug(String.format("Deleting %s...", path));
                     client.deleteArtifact(path);
@@ -401,13 +1393,12 @@ public class ArtifactoryArtifactManager extends ArtifactManager implements Stash
 
         @Override
         public void onLocationChanged(Item item, String oldFullName, String newFullName) {
-            ArtifactoryGenericArtifactConfig config = Utils.getArtifactConfig();
+            ArtifactoryConfigSnapshot snapshot = ArtifactoryConfigSnapshot.get();
             String sourcePath = Utils.stripTrailingSlash(Utils.getFilePath(oldFullName, ""));
             String targetPath = Utils.stripTrailingSlash(Utils.getFilePath(newFullName, ""));
             LOGGER.debug(
                     String.format("Checking if %s must be moved to %s on Artifactory Storage", sourcePath, targetPath));
-            try (ArtifactoryClient client =
-                    new ArtifactoryClient(config.getServerUrl(), config.getRepository(), Utils.getCredentials())) {
+            try (ArtifactoryClient client = new ArtifactoryClient(snapshot.getArtifactoryConfig())) {
                 if (client.isFolder(sourcePath)) {
                     LOGGER.debug(String.format("Moving %s...", sourcePath));
                     client.move(sourcePath, targetPath);
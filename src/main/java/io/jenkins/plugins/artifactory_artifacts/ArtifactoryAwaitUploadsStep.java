@@ -0,0 +1,77 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.util.Set;
+import jenkins.model.ArtifactManager;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Wait for the artifacts archived in the background by the run, and fail if one failed to upload.
+ * <p>
+ * Meant for the end of a {@code node} block, so the uploads are done before the agent is released, for example with
+ * single-use agents. Without it, the run still waits for the uploads when its flow ends.
+ */
+public class ArtifactoryAwaitUploadsStep extends Step {
+
+    @DataBoundConstructor
+    public ArtifactoryAwaitUploadsStep() {}
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new Execution(context);
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        Execution(StepContext context) {
+            super(context);
+        }
+
+        @Override
+        protected Void run() throws Exception {
+            Run<?, ?> run = getContext().get(Run.class);
+            ArtifactManager manager = run.getArtifactManager();
+            if (!(manager instanceof ArtifactoryArtifactManager)) {
+                return null;
+            }
+            try {
+                ((ArtifactoryArtifactManager) manager).awaitDeferredUploads();
+            } catch (IOException e) {
+                throw new AbortException("Failed to upload artifacts to Artifactory: " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    @Extension(optional = true)
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Set.of(Run.class, TaskListener.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "artifactoryAwaitUploads";
+        }
+
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Wait for the artifacts uploaded to Artifactory in the background";
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.util.FormValidation;
+import java.io.Serializable;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Bandwidth limit of the transfers of the agents matching a label expression
+ */
+public class ArtifactoryBandwidthLimit extends AbstractDescribableImpl<ArtifactoryBandwidthLimit>
+        implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String label;
+    private final int limit;
+
+    @DataBoundConstructor
+    public ArtifactoryBandwidthLimit(String label, int limit) {
+        this.label = Util.fixEmptyAndTrim(label);
+        this.limit = limit;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return the limit in KiB/s, 0 for none
+     */
+    public int getLimit() {
+        return Math.max(limit, 0);
+    }
+
+    /**
+     * @param node the node
+     * @return true if the node matches the label expression
+     */
+    boolean matches(@CheckForNull Node node) {
+        if (node == null || label == null) {
+            return false;
+        }
+        Label parsed = Jenkins.get().getLabel(label);
+        return parsed != null && parsed.matches(node);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<ArtifactoryBandwidthLimit> {
+
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Bandwidth limit";
+        }
+
+        @SuppressWarnings("lgtm[jenkins/csrf]")
+        public FormValidation doCheckLabel(@QueryParameter String label) {
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            if (Util.fixEmptyAndTrim(label) == null) {
+                return FormValidation.error("Label expression cannot be blank");
+            }
+            try {
+                Label.parseExpression(label);
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error("Invalid label expression: " + e.getMessage());
+            }
+            return FormValidation.ok();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the bandwidth of transfers. One bucket is shared by all the transfers of the JVM with the same
+ * limit, so concurrent uploads and downloads of an agent together stay under it.
+ * <p>
+ * The bucket holds at most one second of transfer, which allows short bursts. A transfer takes tokens for the bytes
+ * it moves and sleeps while the bucket is in debt.
+ */
+final class ArtifactoryBandwidthLimiter {
+
+    private static final Map<Long, ArtifactoryBandwidthLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    /**
+     * Largest chunk accounted at once, so a transfer doesn't sleep for a long time after a big read
+     */
+    private static final int MAX_CHUNK = 64 * 1024;
+
+    private final long bytesPerSecond;
+    private long tokens;
+    private long refilledAt;
+
+    private ArtifactoryBandwidthLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = bytesPerSecond;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Return the limiter of the JVM for a limit
+     * @param bytesPerSecond the limit
+     * @return the limiter
+     */
+    static ArtifactoryBandwidthLimiter of(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("Bandwidth limit must be positive");
+        }
+        return LIMITERS.computeIfAbsent(bytesPerSecond, ArtifactoryBandwidthLimiter::new);
+    }
+
+    /**
+     * Limit the bandwidth of a stream, or return it unchanged without limit
+     * @param in the stream
+     * @param bytesPerSecond the limit, or 0 for none
+     * @return the limited stream
+     */
+    static InputStream limit(InputStream in, long bytesPerSecond) {
+        return bytesPerSecond > 0 ? of(bytesPerSecond).limit(in) : in;
+    }
+
+    long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Limit the bandwidth of a stream
+     * @param in the stream
+     * @return the limited stream
+     */
+    InputStream limit(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    acquire(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, Math.min(len, chunkSize()));
+                if (read > 0) {
+                    acquire(read);
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(Math.min(n, chunkSize()));
+                if (skipped > 0) {
+                    acquire(skipped);
+                }
+                return skipped;
+            }
+        };
+    }
+
+    /**
+     * Take tokens for transferred bytes, waiting until the bucket is out of debt
+     * @param bytes the number of bytes
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    void acquire(long bytes) throws InterruptedIOException {
+        long debt;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long refill = (long) ((now - refilledAt) / (double) TimeUnit.SECONDS.toNanos(1) * bytesPerSecond);
+            if (refill > 0) {
+                tokens = Math.min(bytesPerSecond, tokens + refill);
+                refilledAt = now;
+            }
+            tokens -= bytes;
+            debt = -tokens;
+        }
+        if (debt > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep((long) (debt / (double) bytesPerSecond * TimeUnit.SECONDS.toNanos(1)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling transfer");
+            }
+        }
+    }
+
+    private int chunkSize() {
+        // At most a tenth of a second of transfer
+        return (int) Math.max(1, Math.min(MAX_CHUNK, bytesPerSecond / 10));
+    }
+}
@@ -2,51 +2,141 @@ package io.jenkins.plugins.artifactory_artifacts;
 
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import jenkins.util.SystemProperties;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.sf.json.util.JSONUtils;
+import org.apache.http.Header;
 import org.jfrog.artifactory.client.*;
+import org.jfrog.artifactory.client.impl.ArtifactoryRequestImpl;
 import org.jfrog.artifactory.client.model.*;
-import org.jfrog.filespecs.FileSpec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 class ArtifactoryClient implements AutoCloseable {
 
     public static final Logger LOGGER = LoggerFactory.getLogger(ArtifactoryClient.class);
+    private static final long FOLDER_ARCHIVE_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final Map<String, Long> FOLDER_ARCHIVE_UNSUPPORTED = new ConcurrentHashMap<>();
+
+    /**
+     * Status of the Pro-only APIs on Artifactory OSS, also returned when folder download is disabled
+     */
+    private static final int UNSUPPORTED_API_STATUS = 400;
+    private static final long SERVER_COPY_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final Map<String, Long> SERVER_COPY_UNSUPPORTED = new ConcurrentHashMap<>();
+    /**
+     * Number of files parsed at once when listing a folder
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "For tests and tuning")
+    static int listingPageSize =
+            SystemProperties.getInteger(ArtifactoryClient.class.getName() + ".listingPageSize", 10_000);
+
+    private static final String AQL_FIELDS =
+            "\"repo\",\"path\",\"name\",\"type\",\"size\",\"modified\",\"actual_sha1\",\"sha256\",\"actual_md5\"";
+
+    /**
+     * Threads of the asynchronous calls. They mostly wait for Artifactory, so they are not bounded
+     */
+    private static final ExecutorService ASYNC_EXECUTOR =
+            Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), "ArtifactoryClient"));
 
     private final ArtifactoryConfig config;
     private final Artifactory artifactory;
+    private final Map<String, Artifactory> replicas = new ConcurrentHashMap<>();
 
     public ArtifactoryClient(
             @NonNull String serverUrl, @NonNull String repository, @NonNull UsernamePasswordCredentials credentials) {
-        this.config = new ArtifactoryConfig(serverUrl, repository, credentials);
-        this.artifactory = buildArtifactory();
+        this(new ArtifactoryConfig(serverUrl, repository, credentials));
     }
 
     public ArtifactoryClient(@NonNull ArtifactoryConfig config) {
-        this(config.getServerUrl(), config.getRepository(), config.getCredentials());
+        this.config = config;
+        this.artifactory = buildArtifactory(config.serverUrl);
     }
 
     /**
      * Upload an artifact to the repository
      * @param file the file to upload
      * @param targetPath the path to upload the file to
+     * @return the information of the uploaded artifact
      * @throws IOException if the file cannot be uploaded
      */
-    public void uploadArtifact(Path file, String targetPath) throws IOException {
-        UploadableArtifact artifact =
-                artifactory.repository(this.config.repository).upload(Utils.urlEncodeParts(targetPath), file.toFile());
-        artifact.withSize(Files.size(file));
-        artifact.withListener(
-                (bytesRead, totalBytes) -> LOGGER.trace(String.format("Uploaded %d/%d", bytesRead, totalBytes)));
-        artifact.doUpload();
+    public FileInfo uploadArtifact(Path file, String targetPath) throws IOException {
+        long size = Files.size(file);
+        File uploaded;
+        if (this.config.bandwidthLimit > 0) {
+            try (InputStream in = throttle(Files.newInputStream(file))) {
+                UploadableArtifact artifact =
+                        artifactory.repository(this.config.repository).upload(Utils.urlEncodeParts(targetPath), in);
+                artifact.withSize(size);
+                uploaded = artifact.doUpload();
+            }
+        } else {
+            UploadableArtifact artifact = artifactory
+                    .repository(this.config.repository)
+                    .upload(Utils.urlEncodeParts(targetPath), file.toFile());
+            artifact.withSize(size);
+            artifact.withListener(
+                    (bytesRead, totalBytes) -> LOGGER.trace(String.format("Uploaded %d/%d", bytesRead, totalBytes)));
+            uploaded = artifact.doUpload();
+        }
         LOGGER.trace(String.format("Uploaded %s to %s", file, targetPath));
+        Checksums checksums = uploaded == null ? null : uploaded.getChecksums();
+        return new FileInfo(
+                targetPath,
+                uploaded != null && uploaded.getLastModified() != null
+                        ? uploaded.getLastModified().getTime()
+                        : System.currentTimeMillis(),
+                size,
+                AqlItemType.FILE,
+                checksums == null ? null : checksums.getSha1(),
+                checksums == null ? null : checksums.getSha256(),
+                checksums == null ? null : checksums.getMd5());
+    }
+
+    /**
+     * Upload a small content held in memory to the repository
+     * @param content the content
+     * @param targetPath the path to upload the content to
+     * @throws IOException if the content cannot be uploaded
+     */
+    public void uploadContent(byte[] content, String targetPath) throws IOException {
+        UploadableArtifact artifact = artifactory
+                .repository(this.config.repository)
+                .upload(Utils.urlEncodeParts(targetPath), new ByteArrayInputStream(content));
+        artifact.withSize(content.length);
+        artifact.doUpload();
+        LOGGER.trace(String.format("Uploaded %d byte(s) to %s", content.length, targetPath));
     }
 
     /**
@@ -84,9 +174,236 @@ class ArtifactoryClient implements AutoCloseable {
      * @throws IOException if the artifact cannot be downloaded
      */
     public InputStream downloadArtifact(String targetPath) throws IOException {
+        return downloadArtifactFromReplicas(targetPath, null);
+    }
+
+    /**
+     * Download an artifact from the closest read replica serving the expected content, or from the server. Replicas
+     * may not be in sync yet with an artifact written again under the same path, so they are only used when they
+     * announce the SHA-1 of the artifact on the server
+     * @param targetPath the path of the artifact to download
+     * @param sha1 the SHA-1 of the artifact on the server, or null to download from the server
+     * @return the input stream of the artifact
+     * @throws IOException if the artifact cannot be downloaded
+     */
+    public InputStream downloadArtifactFromReplicas(String targetPath, @CheckForNull String sha1) throws IOException {
+        if (sha1 != null) {
+            for (String replica : ArtifactoryReplicaProbe.order(this.config.getReadReplicas())) {
+                InputStream in = downloadFromReplica(replica, targetPath, sha1);
+                if (in != null) {
+                    return throttle(in);
+                }
+            }
+        }
         DownloadableArtifact artifact =
                 artifactory.repository(this.config.repository).download(Utils.urlEncodeParts(targetPath));
-        return artifact.doDownload();
+        return throttle(artifact.doDownload());
+    }
+
+    /**
+     * Download an artifact from a read replica
+     * @param replica the replica URL
+     * @param targetPath the path of the artifact to download
+     * @param sha1 the expected SHA-1 of the artifact
+     * @return the artifact stream or null if the replica cannot serve it, for example because it was not replicated yet
+     */
+    private @CheckForNull InputStream downloadFromReplica(String replica, String targetPath, String sha1) {
+        ArtifactoryRequest request = new ArtifactoryRequestImpl()
+                .apiUrl(String.format("%s/%s", this.config.repository, Utils.urlEncodeParts(targetPath)))
+                .method(ArtifactoryRequest.Method.GET);
+        try {
+            ArtifactoryStreamingResponse response = replicas.computeIfAbsent(replica, this::buildArtifactory)
+                    .streamingRestCall(request);
+            if (response.isSuccessResponse()) {
+                if (sha1.equalsIgnoreCase(header(response, "X-Checksum-Sha1"))) {
+                    LOGGER.debug(String.format("Downloading %s from replica %s", targetPath, replica));
+                    return closingStream(response);
+                }
+                LOGGER.debug(String.format(
+                        "Replica %s serves another version of %s, falling back", replica, targetPath));
+            } else {
+                LOGGER.debug(String.format(
+                        "Replica %s cannot serve %s (status %d), falling back",
+                        replica, targetPath, response.getStatusLine().getStatusCode()));
+            }
+            closeQuietly(response);
+        } catch (IOException e) {
+            LOGGER.debug(String.format("Replica %s failed to serve %s, falling back", replica, targetPath), e);
+            ArtifactoryReplicaProbe.invalidate(replica);
+        }
+        return null;
+    }
+
+    /**
+     * Download an artifact unless it still matches the given ETag
+     * @param targetPath the path of the artifact to download
+     * @param etag the ETag of a previously downloaded copy or null
+     * @return the download, without content if the artifact still matches the ETag
+     * @throws IOException if the artifact cannot be downloaded
+     */
+    public ConditionalDownload downloadArtifact(String targetPath, @CheckForNull String etag) throws IOException {
+        ArtifactoryRequest request = new ArtifactoryRequestImpl()
+                .apiUrl(String.format("%s/%s", this.config.repository, Utils.urlEncodeParts(targetPath)))
+                .method(ArtifactoryRequest.Method.GET);
+        if (etag != null) {
+            request.addHeader("If-None-Match", String.format("\"%s\"", etag));
+        }
+        ArtifactoryStreamingResponse response = artifactory.streamingRestCall(request);
+        int status = response.getStatusLine().getStatusCode();
+        if (status == 304) {
+            closeQuietly(response);
+            return new ConditionalDownload(etag, -1, null);
+        }
+        if (!response.isSuccessResponse()) {
+            closeQuietly(response);
+            if (status == 404) {
+                throw new FileNotFoundException(String.format("Artifact %s not found", targetPath));
+            }
+            throw new IOException(String.format("Failed to download %s with status %d", targetPath, status));
+        }
+        String contentLength = header(response, "Content-Length");
+        String newEtag = header(response, "ETag");
+        return new ConditionalDownload(
+                newEtag == null ? null : newEtag.replace("\"", ""),
+                contentLength == null ? -1 : Long.parseLong(contentLength),
+                throttle(closingStream(response)));
+    }
+
+    /**
+     * Download a range of an artifact
+     * @param targetPath the path of the artifact to download
+     * @param offset the offset of the first byte
+     * @param length the maximum number of bytes
+     * @return the stream of the range, shorter if the artifact ends before
+     * @throws IOException if the artifact cannot be downloaded
+     */
+    public InputStream downloadRange(String targetPath, long offset, long length) throws IOException {
+        String range = String.format("bytes=%d-%d", offset, offset + length - 1);
+        return throttle(bounded(rangeStream(targetPath, offset, range, true), length));
+    }
+
+    /**
+     * Download an artifact from an offset with a single range request, open-ended up to the end of the artifact when
+     * no end is given. Closing the stream before its end drops the connection instead of reading the remaining bytes
+     * @param targetPath the path of the artifact to download
+     * @param offset the offset of the first byte
+     * @param end the offset after the last byte, or -1 for the end of the artifact
+     * @return the stream from the offset, shorter if the artifact ends before
+     * @throws IOException if the artifact cannot be downloaded
+     */
+    public InputStream downloadFrom(String targetPath, long offset, long end) throws IOException {
+        if (end < 0) {
+            return throttle(rangeStream(targetPath, offset, String.format("bytes=%d-", offset), false));
+        }
+        String range = String.format("bytes=%d-%d", offset, end - 1);
+        return throttle(bounded(rangeStream(targetPath, offset, range, false), end - offset));
+    }
+
+    private InputStream rangeStream(String targetPath, long offset, String range, boolean drain) throws IOException {
+        ArtifactoryRequest request = new ArtifactoryRequestImpl()
+                .apiUrl(String.format("%s/%s", this.config.repository, Utils.urlEncodeParts(targetPath)))
+                .method(ArtifactoryRequest.Method.GET)
+                .addHeader("Range", range);
+        ArtifactoryStreamingResponse response = artifactory.streamingRestCall(request);
+        int status = response.getStatusLine().getStatusCode();
+        if (status == 416) {
+            // Range after the end of the artifact
+            closeQuietly(response);
+            return InputStream.nullInputStream();
+        }
+        if (!response.isSuccessResponse()) {
+            closeQuietly(response);
+            if (status == 404) {
+                throw new FileNotFoundException(String.format("Artifact %s not found", targetPath));
+            }
+            throw new IOException(String.format("Failed to download %s with status %d", targetPath, status));
+        }
+        InputStream in = drain ? closingStream(response) : abortingStream(response);
+        if (status != 206) {
+            // The server ignored the range and sends the whole artifact
+            LOGGER.debug(String.format(
+                    "Range of %s not supported by the server, skipping %d byte(s)", targetPath, offset));
+            try {
+                in.skipNBytes(offset);
+            } catch (EOFException e) {
+                in.close();
+                return InputStream.nullInputStream();
+            }
+        }
+        return in;
+    }
+
+    /**
+     * Download a folder as a zip archive generated by Artifactory. Requires Artifactory PRO with folder download
+     * enabled. Once the server answered that the feature is missing, it is not asked again for a while. Other
+     * failures, like a missing permission or a server error, only skip the archive of this request
+     * @param targetPath the path of the folder to download
+     * @return the zip archive stream or null if the server cannot produce it
+     * @throws IOException if the request fails
+     */
+    public @CheckForNull InputStream downloadFolderArchive(String targetPath) throws IOException {
+        Long unsupportedUntil = FOLDER_ARCHIVE_UNSUPPORTED.get(this.config.serverUrl);
+        if (unsupportedUntil != null && unsupportedUntil > System.currentTimeMillis()) {
+            return null;
+        }
+        ArtifactoryRequest request = new ArtifactoryRequestImpl()
+                .apiUrl(String.format(
+                        "api/archive/download/%s/%s",
+                        this.config.repository, Utils.urlEncodeParts(Utils.stripTrailingSlash(targetPath))))
+                .method(ArtifactoryRequest.Method.GET)
+                .addQueryParam("archiveType", "zip");
+        ArtifactoryStreamingResponse response = artifactory.streamingRestCall(request);
+        if (!response.isSuccessResponse()) {
+            int status = response.getStatusLine().getStatusCode();
+            LOGGER.debug(String.format(
+                    "Artifactory cannot produce archive of %s (status %d), falling back to client side zip",
+                    targetPath, status));
+            closeQuietly(response);
+            if (status == UNSUPPORTED_API_STATUS) {
+                FOLDER_ARCHIVE_UNSUPPORTED.put(
+                        this.config.serverUrl, System.currentTimeMillis() + FOLDER_ARCHIVE_RETRY_MILLIS);
+            }
+            return null;
+        }
+        return throttle(closingStream(response));
+    }
+
+    /**
+     * Create a pre-signed download URL for an artifact. Requires Artifactory PRO
+     * @param targetPath the path of the artifact
+     * @param validForSeconds the validity of the URL in seconds
+     * @return the signed URL
+     * @throws IOException if the URL cannot be created
+     */
+    public String createSignedUrl(String targetPath, long validForSeconds) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("repo_path", String.format("%s/%s", this.config.repository, targetPath));
+        body.put("valid_for_secs", validForSeconds);
+        ArtifactoryRequest request = new ArtifactoryRequestImpl()
+                .apiUrl("api/signed/url")
+                .method(ArtifactoryRequest.Method.POST)
+                .requestType(ArtifactoryRequest.ContentType.JSON)
+                .responseType(ArtifactoryRequest.ContentType.TEXT)
+                .requestBody(body);
+        ArtifactoryResponse response = artifactory.restCall(request);
+        if (!response.isSuccessResponse()) {
+            throw new IOException(String.format(
+                    "Failed to create signed URL for %s (status %d)",
+                    targetPath, response.getStatusLine().getStatusCode()));
+        }
+        return response.getRawBody().trim();
+    }
+
+    /**
+     * Ping the server. Any answer counts, even without permission to ping
+     * @throws IOException if the server cannot be reached
+     */
+    public void ping() throws IOException {
+        ArtifactoryRequest request = new ArtifactoryRequestImpl()
+                .apiUrl("api/system/ping")
+                .method(ArtifactoryRequest.Method.GET)
+                .responseType(ArtifactoryRequest.ContentType.TEXT);
+        artifactory.restCall(request);
     }
 
     /**
@@ -97,7 +414,8 @@ class ArtifactoryClient implements AutoCloseable {
      */
     public boolean isFolder(String targetPath) throws IOException {
         try {
-            return artifactory.repository(this.config.repository).isFolder(Utils.urlEncodeParts(targetPath));
+            return metadata(() ->
+                    artifactory.repository(this.config.repository).isFolder(Utils.urlEncodeParts(targetPath)));
         } catch (Exception e) {
             LOGGER.debug(String.format("Failed to check if %s is a folder", targetPath));
             return false;
@@ -105,25 +423,204 @@ class ArtifactoryClient implements AutoCloseable {
     }
 
     /**
-     * List the files in a folder
-     * @param targetPath the path to list
-     * @return the list of files in the folder
+     * List the files in a folder into a compact listing, without keeping one object per file. The files are queried
+     * page by page, so only one page of parsed results is held at a time
+     * @param targetPath the path to list, ending with a slash
+     * @return the listing of the files in the folder
      * @throws IOException if the files cannot be listed
      */
-    public List<FileInfo> list(String targetPath) throws IOException {
-        if (!isFolder(targetPath)) {
+    public ArtifactoryListing listing(String targetPath) throws IOException {
+        ArtifactoryListing.Builder builder = ArtifactoryListing.builder(targetPath);
+        // The search doesn't depend on the folder check, both are sent at once
+        CompletableFuture<Boolean> folder = isFolderAsync(targetPath);
+        Page page = listFilesPage(targetPath, 0, listingPageSize);
+        if (!await(folder)) {
             LOGGER.debug(String.format("Target path %s is not a folder. Cannot list files", targetPath));
-            return List.of();
+            return builder.build();
+        }
+        while (true) {
+            page.getFiles().forEach(builder::add);
+            if (!page.hasMore()) {
+                return builder.build();
+            }
+            page = listFilesPage(targetPath, page.getNextOffset(), listingPageSize);
         }
-        FileSpec fileSpec = FileSpec.fromString(
-                String.format("{\"files\": [{\"pattern\": \"%s/%s*\"}]}", this.config.repository, targetPath));
-        return artifactory.searches().artifactsByFileSpec(fileSpec).stream()
-                .map((item -> new FileInfo(
-                        String.format("%s/%s", item.getPath(), item.getName()),
-                        item.getModified().getTime(),
-                        item.getSize(),
-                        item.getType())))
-                .collect(Collectors.toList());
+    }
+
+    /**
+     * List one page of the direct children of a folder, sorted by name on the server
+     * @param targetPath the path of the folder
+     * @param offset the index of the first child to return
+     * @param limit the maximum number of children to return
+     * @return the page of children
+     * @throws IOException if the children cannot be listed
+     */
+    public Page listPage(String targetPath, int offset, int limit) throws IOException {
+        String folder = Utils.stripTrailingSlash(targetPath);
+        String query = String.format(
+                "items.find({\"repo\":%s,\"path\":%s,\"type\":\"any\"})"
+                        + ".include(%s).sort({\"$asc\":[\"name\"]}).offset(%d).limit(%d)",
+                JSONUtils.quote(this.config.repository),
+                JSONUtils.quote(folder.isEmpty() ? "." : folder),
+                AQL_FIELDS,
+                offset,
+                limit + 1);
+        List<FileInfo> files = aql(query);
+        boolean hasMore = files.size() > limit;
+        return new Page(hasMore ? files.subList(0, limit) : files, offset, hasMore);
+    }
+
+    /**
+     * List one page of the files under a folder recursively, sorted by path on the server so pages are stable
+     * @param targetPath the path of the folder, or empty for the whole repository
+     * @param offset the index of the first file to return
+     * @param limit the maximum number of files to return
+     * @return the page of files
+     * @throws IOException if the files cannot be listed
+     */
+    public Page listFilesPage(String targetPath, int offset, int limit) throws IOException {
+        String folder = Utils.stripTrailingSlash(targetPath);
+        String criteria = folder.isEmpty()
+                ? String.format("{\"repo\":%s,\"type\":\"file\"}", JSONUtils.quote(this.config.repository))
+                : String.format(
+                        "{\"repo\":%s,\"$or\":[{\"path\":%s},{\"path\":{\"$match\":%s}}],\"type\":\"file\"}",
+                        JSONUtils.quote(this.config.repository),
+                        JSONUtils.quote(folder),
+                        JSONUtils.quote(folder + "/*"));
+        String query = String.format(
+                "items.find(%s).include(%s).sort({\"$asc\":[\"path\",\"name\"]}).offset(%d).limit(%d)",
+                criteria, AQL_FIELDS, offset, limit + 1);
+        List<FileInfo> files = aql(query);
+        boolean hasMore = files.size() > limit;
+        return new Page(hasMore ? files.subList(0, limit) : files, offset, hasMore);
+    }
+
+    /**
+     * List the files under a folder recursively, with their checksums
+     * @param targetPath the path of the folder
+     * @return the files under the folder
+     * @throws IOException if the files cannot be listed
+     */
+    public List<FileInfo> listFiles(String targetPath) throws IOException {
+        String folder = Utils.stripTrailingSlash(targetPath);
+        String query = String.format(
+                "items.find({\"repo\":%s,\"$or\":[{\"path\":%s},{\"path\":{\"$match\":%s}}],\"type\":\"file\"})"
+                        + ".include(%s)",
+                JSONUtils.quote(this.config.repository),
+                JSONUtils.quote(folder),
+                JSONUtils.quote(folder + "/*"),
+                AQL_FIELDS);
+        return aql(query);
+    }
+
+    /**
+     * Get the information of a file or folder with the storage API, including the checksums of a file
+     * @param targetPath the path of the file or folder
+     * @return the information or null if the path does not exist
+     * @throws IOException if the information cannot be retrieved
+     */
+    public @CheckForNull FileInfo info(String targetPath) throws IOException {
+        ArtifactoryRequest request = new ArtifactoryRequestImpl()
+                .apiUrl(String.format(
+                        "api/storage/%s/%s",
+                        this.config.repository, Utils.urlEncodeParts(Utils.stripTrailingSlash(targetPath))))
+                .method(ArtifactoryRequest.Method.GET)
+                .responseType(ArtifactoryRequest.ContentType.JSON);
+        ArtifactoryResponse response = metadata(() -> artifactory.restCall(request));
+        int status = response.getStatusLine().getStatusCode();
+        if (status == 404) {
+            return null;
+        }
+        if (!response.isSuccessResponse()) {
+            throw new IOException(String.format("Failed to get information of %s with status %d", targetPath, status));
+        }
+        JSONObject json = JSONObject.fromObject(response.getRawBody());
+        if (json.has("children")) {
+            return new FileInfo(
+                    targetPath, parseDate(json.optString("lastModified", null)), 0, AqlItemType.FOLDER);
+        }
+        JSONObject checksums = json.optJSONObject("checksums");
+        return new FileInfo(
+                targetPath,
+                parseDate(json.optString("lastModified", null)),
+                json.optLong("size"),
+                AqlItemType.FILE,
+                checksums == null ? null : checksums.optString("sha1", null),
+                checksums == null ? null : checksums.optString("sha256", null),
+                checksums == null ? null : checksums.optString("md5", null));
+    }
+
+    /**
+     * Copy a file without transferring its content through Jenkins. Uses a server-side copy, or a checksum deploy
+     * of the source content when the server cannot copy. Artifactory OSS is not asked to copy again for a while, other
+     * failures only fall back for this file
+     * @param source the file to copy, with its checksums
+     * @param targetPath the target path
+     * @throws IOException if the file cannot be copied
+     */
+    public void copyFile(FileInfo source, String targetPath) throws IOException {
+        Long unsupportedUntil = SERVER_COPY_UNSUPPORTED.get(this.config.serverUrl);
+        if (unsupportedUntil == null || unsupportedUntil <= System.currentTimeMillis()) {
+            ArtifactoryRequest request = new ArtifactoryRequestImpl()
+                    .apiUrl(String.format(
+                            "api/copy/%s/%s", this.config.repository, Utils.urlEncodeParts(source.getPath())))
+                    .method(ArtifactoryRequest.Method.POST)
+                    .responseType(ArtifactoryRequest.ContentType.JSON)
+                    .addQueryParam(
+                            "to", String.format("/%s/%s", this.config.repository, Utils.urlEncodeParts(targetPath)))
+                    .addQueryParam("suppressLayouts", "1");
+            ArtifactoryResponse response = artifactory.restCall(request);
+            if (response.isSuccessResponse()) {
+                LOGGER.trace(String.format("Copied %s to %s", source.getPath(), targetPath));
+                return;
+            }
+            int status = response.getStatusLine().getStatusCode();
+            LOGGER.debug(String.format(
+                    "Artifactory cannot copy %s (status %d), falling back to checksum deploy",
+                    source.getPath(), status));
+            if (status == UNSUPPORTED_API_STATUS) {
+                SERVER_COPY_UNSUPPORTED.put(
+                        this.config.serverUrl, System.currentTimeMillis() + SERVER_COPY_RETRY_MILLIS);
+            }
+        }
+        if (source.getSha1() == null) {
+            throw new IOException(String.format("Cannot copy %s without its checksum", source.getPath()));
+        }
+        if (!deployByChecksum(targetPath, source.getSha1(), source.getSha256())) {
+            throw new IOException(String.format(
+                    "Cannot copy %s to %s, Artifactory has no content with checksum %s",
+                    source.getPath(), targetPath, source.getSha1()));
+        }
+    }
+
+    /**
+     * Deploy an artifact from content already stored in Artifactory, identified by its checksum
+     * @param targetPath the path of the artifact
+     * @param sha1 the SHA-1 checksum of the content
+     * @param sha256 the SHA-256 checksum of the content or null
+     * @return true if deployed, false if Artifactory has no content with this checksum
+     * @throws IOException if the artifact cannot be deployed
+     */
+    public boolean deployByChecksum(String targetPath, String sha1, @CheckForNull String sha256) throws IOException {
+        ArtifactoryRequest request = new ArtifactoryRequestImpl()
+                .apiUrl(String.format("%s/%s", this.config.repository, Utils.urlEncodeParts(targetPath)))
+                .method(ArtifactoryRequest.Method.PUT)
+                .responseType(ArtifactoryRequest.ContentType.JSON)
+                .addHeader("X-Checksum-Deploy", "true")
+                .addHeader("X-Checksum-Sha1", sha1);
+        if (sha256 != null) {
+            request.addHeader("X-Checksum-Sha256", sha256);
+        }
+        ArtifactoryResponse response = artifactory.restCall(request);
+        int status = response.getStatusLine().getStatusCode();
+        if (status == 404) {
+            return false;
+        }
+        if (!response.isSuccessResponse()) {
+            throw new IOException(String.format("Failed to deploy %s by checksum with status %d", targetPath, status));
+        }
+        LOGGER.trace(String.format("Deployed %s by checksum %s", targetPath, sha1));
+        return true;
     }
 
     /**
@@ -182,21 +679,307 @@ class ArtifactoryClient implements AutoCloseable {
         return file.getSize();
     }
 
+    /**
+     * Asynchronous variant of {@link #isFolder(String)}
+     * @param targetPath the path to check
+     * @return the future result
+     */
+    public CompletableFuture<Boolean> isFolderAsync(String targetPath) {
+        return async(() -> isFolder(targetPath));
+    }
+
+    /**
+     * Asynchronous variant of {@link #info(String)}
+     * @param targetPath the path of the file or folder
+     * @return the future information, completed with null if the path does not exist
+     */
+    public CompletableFuture<FileInfo> infoAsync(String targetPath) {
+        return async(() -> info(targetPath));
+    }
+
+    /**
+     * Asynchronous variant of {@link #listFiles(String)}
+     * @param targetPath the path of the folder
+     * @return the future files
+     */
+    public CompletableFuture<List<FileInfo>> listFilesAsync(String targetPath) {
+        return async(() -> listFiles(targetPath));
+    }
+
+    /**
+     * Asynchronous variant of {@link #listPage(String, int, int)}
+     * @param targetPath the path of the folder
+     * @param offset the index of the first child to return
+     * @param limit the maximum number of children to return
+     * @return the future page
+     */
+    public CompletableFuture<Page> listPageAsync(String targetPath, int offset, int limit) {
+        return async(() -> listPage(targetPath, offset, limit));
+    }
+
+    /**
+     * Asynchronous variant of {@link #downloadRange(String, long, long)}. The stream must be closed even if not read
+     * @param targetPath the path of the artifact to download
+     * @param offset the offset of the first byte
+     * @param length the maximum number of bytes
+     * @return the future stream of the range
+     */
+    public CompletableFuture<InputStream> downloadRangeAsync(String targetPath, long offset, long length) {
+        return async(() -> downloadRange(targetPath, offset, length));
+    }
+
+    /**
+     * Asynchronous variant of {@link #copy(String, String)}
+     * @param sourcePath the source path
+     * @param targetPath the target path
+     * @return the future completed once copied
+     */
+    public CompletableFuture<Void> copyAsync(String sourcePath, String targetPath) {
+        return async(() -> {
+            copy(sourcePath, targetPath);
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #downloadArtifact(String)}. The stream must be closed even if not read
+     * @param targetPath the path of the artifact to download
+     * @return the future input stream of the artifact
+     */
+    public CompletableFuture<InputStream> downloadArtifactAsync(String targetPath) {
+        return async(() -> downloadArtifact(targetPath));
+    }
+
+    /**
+     * Wait for an asynchronous call of the client. The client must stay open until its calls are done
+     * @param future the future result of the call
+     * @param <T> the type of the result
+     * @return the result
+     * @throws IOException if the call failed
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for Artifactory");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Run a call of this client on the shared threads
+     */
+    private <T> CompletableFuture<T> async(ArtifactoryRequestHedger.Request<T> call) {
+        return CompletableFuture.supplyAsync(
+                () -> {
+                    try {
+                        return call.call();
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                },
+                ASYNC_EXECUTOR);
+    }
+
+    /**
+     * Run an AQL query
+     * @param query the query
+     * @return the items found
+     * @throws IOException if the query fails
+     */
+    private List<FileInfo> aql(String query) throws IOException {
+        LOGGER.trace(String.format("Running AQL query %s", query));
+        ArtifactoryRequest request = new ArtifactoryRequestImpl()
+                .apiUrl("api/search/aql")
+                .method(ArtifactoryRequest.Method.POST)
+                .requestType(ArtifactoryRequest.ContentType.TEXT)
+                .responseType(ArtifactoryRequest.ContentType.JSON)
+                .requestBody(query);
+        ArtifactoryResponse response = metadata(() -> artifactory.restCall(request));
+        if (!response.isSuccessResponse()) {
+            throw new IOException(String.format(
+                    "AQL query failed with status %d", response.getStatusLine().getStatusCode()));
+        }
+        JSONArray results = JSONObject.fromObject(response.getRawBody()).optJSONArray("results");
+        List<FileInfo> files = new ArrayList<>();
+        if (results == null) {
+            return files;
+        }
+        for (int i = 0; i < results.size(); i++) {
+            JSONObject item = results.getJSONObject(i);
+            String path = item.optString("path", ".");
+            String name = item.optString("name");
+            files.add(new FileInfo(
+                    path.equals(".") ? name : String.format("%s/%s", path, name),
+                    parseDate(item.optString("modified", null)),
+                    item.optLong("size"),
+                    "folder".equals(item.optString("type")) ? AqlItemType.FOLDER : AqlItemType.FILE,
+                    item.optString("actual_sha1", null),
+                    item.optString("sha256", null),
+                    item.optString("actual_md5", null)));
+        }
+        return files;
+    }
+
+    /**
+     * Run an idempotent metadata request, hedged when the configuration enables it
+     */
+    private <T> T metadata(ArtifactoryRequestHedger.Request<T> request) throws IOException {
+        return this.config.hedging ? ArtifactoryRequestHedger.get().call(request) : request.call();
+    }
+
+    /**
+     * Limit the bandwidth of a transfer when the configuration has a limit
+     */
+    private InputStream throttle(InputStream in) {
+        return ArtifactoryBandwidthLimiter.limit(in, this.config.bandwidthLimit);
+    }
+
+    private static InputStream closingStream(ArtifactoryStreamingResponse response) throws IOException {
+        return new FilterInputStream(response.getInputStream()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    closeQuietly(response);
+                }
+            }
+        };
+    }
+
+    /**
+     * Stream that drops the connection when closed before the end of the response, rather than reading the rest
+     */
+    private static InputStream abortingStream(ArtifactoryStreamingResponse response) throws IOException {
+        return new FilterInputStream(response.getInputStream()) {
+            @Override
+            public void close() throws IOException {
+                // A stream read up to its last byte ends here and keeps its connection
+                boolean ended = false;
+                try {
+                    ended = super.read() < 0;
+                } catch (IOException e) {
+                    LOGGER.trace("Failed to check the end of the Artifactory response", e);
+                }
+                if (ended) {
+                    try {
+                        super.close();
+                    } finally {
+                        closeQuietly(response);
+                    }
+                } else {
+                    closeQuietly(response);
+                }
+            }
+        };
+    }
+
+    private static InputStream bounded(InputStream in, long length) {
+        return new FilterInputStream(in) {
+            private long remaining = length;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int b = super.read();
+                if (b >= 0) {
+                    remaining--;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int read = super.read(b, off, (int) Math.min(len, remaining));
+                if (read > 0) {
+                    remaining -= read;
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(Math.min(n, remaining));
+                remaining -= skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (int) Math.min(super.available(), remaining);
+            }
+        };
+    }
+
+    private static @CheckForNull String header(ArtifactoryStreamingResponse response, String name) {
+        for (Header header : response.getAllHeaders()) {
+            if (header.getName().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static void closeQuietly(ArtifactoryStreamingResponse response) {
+        try {
+            response.close();
+        } catch (Exception e) {
+            LOGGER.trace("Failed to close Artifactory response", e);
+        }
+    }
+
+    /**
+     * Parse a date returned by the Artifactory REST API
+     * @param date the date in ISO 8601 format
+     * @return the epoch milliseconds or 0 if the date cannot be parsed
+     */
+    private static long parseDate(String date) {
+        if (date == null) {
+            return 0;
+        }
+        try {
+            return OffsetDateTime.parse(date).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            LOGGER.debug(String.format("Unable to parse date %s", date));
+            return 0;
+        }
+    }
+
     /**
      * Return a new ArtifactoryConfig object for this client
      * @return the ArtifactoryConfig object
      */
     public ArtifactoryConfig buildArtifactoryConfig() {
-        return new ArtifactoryConfig(this.config.serverUrl, this.config.repository, this.config.credentials);
+        return new ArtifactoryConfig(this.config.serverUrl, this.config.repository, this.config.credentials)
+                .withBandwidthLimit(this.config.bandwidthLimit)
+                .withReadReplicas(this.config.getReadReplicas())
+                .withHedging(this.config.hedging);
     }
 
     /**
      * Build the Artifactory client
+     * @param serverUrl the URL of the primary server or of a replica
      * @return the Artifactory client
      */
-    private Artifactory buildArtifactory() {
+    private Artifactory buildArtifactory(String serverUrl) {
         return ArtifactoryClientBuilder.create()
-                .setUrl(config.serverUrl)
+                .setUrl(serverUrl)
                 .setUsername(config.credentials.getUsername())
                 .setPassword(config.credentials.getPassword().getPlainText())
                 .addInterceptorLast((request, httpContext) -> {
@@ -207,6 +990,9 @@ class ArtifactoryClient implements AutoCloseable {
 
     @Override
     public void close() throws Exception {
+        for (Artifactory replica : replicas.values()) {
+            replica.close();
+        }
         artifactory.close();
     }
 
@@ -216,12 +1002,29 @@ class ArtifactoryClient implements AutoCloseable {
         private final long lastUpdated;
         private final long size;
         private final AqlItemType type;
+        private final String sha1;
+        private final String sha256;
+        private final String md5;
 
         public FileInfo(String path, long lastUpdated, long size, AqlItemType type) {
+            this(path, lastUpdated, size, type, null, null, null);
+        }
+
+        public FileInfo(
+                String path,
+                long lastUpdated,
+                long size,
+                AqlItemType type,
+                @CheckForNull String sha1,
+                @CheckForNull String sha256,
+                @CheckForNull String md5) {
             this.path = path;
             this.lastUpdated = lastUpdated;
             this.size = size;
             this.type = type;
+            this.sha1 = sha1;
+            this.sha256 = sha256;
+            this.md5 = md5;
         }
 
         public String getPath() {
@@ -243,6 +1046,88 @@ class ArtifactoryClient implements AutoCloseable {
         public boolean isFile() {
             return type.equals(AqlItemType.FILE);
         }
+
+        public @CheckForNull String getSha1() {
+            return sha1;
+        }
+
+        public @CheckForNull String getSha256() {
+            return sha256;
+        }
+
+        public @CheckForNull String getMd5() {
+            return md5;
+        }
+    }
+
+    /**
+     * Result of a conditional download. Holds no content when the artifact was not modified
+     */
+    public static final class ConditionalDownload implements AutoCloseable {
+        private final String etag;
+        private final long length;
+        private final InputStream inputStream;
+
+        public ConditionalDownload(@CheckForNull String etag, long length, @CheckForNull InputStream inputStream) {
+            this.etag = etag;
+            this.length = length;
+            this.inputStream = inputStream;
+        }
+
+        public boolean isNotModified() {
+            return inputStream == null;
+        }
+
+        public @CheckForNull String getETag() {
+            return etag;
+        }
+
+        /**
+         * @return the content length or -1 if unknown
+         */
+        public long getLength() {
+            return length;
+        }
+
+        public @CheckForNull InputStream getInputStream() {
+            return inputStream;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        }
+    }
+
+    public static final class Page implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final List<FileInfo> files;
+        private final int offset;
+        private final boolean hasMore;
+
+        public Page(List<FileInfo> files, int offset, boolean hasMore) {
+            this.files = new ArrayList<>(files);
+            this.offset = offset;
+            this.hasMore = hasMore;
+        }
+
+        public List<FileInfo> getFiles() {
+            return files;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getNextOffset() {
+            return offset + files.size();
+        }
+
+        public boolean hasMore() {
+            return hasMore;
+        }
     }
 
     public static final class ArtifactoryConfig implements Serializable {
@@ -250,11 +1135,60 @@ class ArtifactoryClient implements AutoCloseable {
         private final String serverUrl;
         private final String repository;
         private final UsernamePasswordCredentials credentials;
+        private final long bandwidthLimit;
+        private final ArrayList<String> readReplicas;
+        private final boolean hedging;
 
         public ArtifactoryConfig(String serverUrl, String repository, UsernamePasswordCredentials credentials) {
             this.serverUrl = serverUrl;
             this.repository = repository;
             this.credentials = CredentialsProvider.snapshot(UsernamePasswordCredentials.class, credentials);
+            this.bandwidthLimit = 0;
+            this.readReplicas = null;
+            this.hedging = false;
+        }
+
+        private ArtifactoryConfig(
+                ArtifactoryConfig config, long bandwidthLimit, List<String> readReplicas, boolean hedging) {
+            this.serverUrl = config.serverUrl;
+            this.repository = config.repository;
+            this.credentials = config.credentials;
+            this.bandwidthLimit = bandwidthLimit;
+            this.readReplicas = readReplicas.isEmpty() ? null : new ArrayList<>(readReplicas);
+            this.hedging = hedging;
+        }
+
+        /**
+         * Return the same configuration with a bandwidth limit
+         * @param bandwidthLimit the limit in bytes per second, 0 for none
+         * @return the configuration
+         */
+        public ArtifactoryConfig withBandwidthLimit(long bandwidthLimit) {
+            return bandwidthLimit == this.bandwidthLimit
+                    ? this
+                    : new ArtifactoryConfig(this, bandwidthLimit, getReadReplicas(), hedging);
+        }
+
+        /**
+         * Return the same configuration with read replicas. Downloads try them before the server
+         * @param readReplicas the replica URLs
+         * @return the configuration
+         */
+        public ArtifactoryConfig withReadReplicas(List<String> readReplicas) {
+            return readReplicas.equals(getReadReplicas())
+                    ? this
+                    : new ArtifactoryConfig(this, this.bandwidthLimit, readReplicas, hedging);
+        }
+
+        /**
+         * Return the same configuration with hedging of metadata requests enabled or not
+         * @param hedging true to hedge slow metadata requests
+         * @return the configuration
+         */
+        public ArtifactoryConfig withHedging(boolean hedging) {
+            return hedging == this.hedging
+                    ? this
+                    : new ArtifactoryConfig(this, this.bandwidthLimit, getReadReplicas(), hedging);
         }
 
         public String getServerUrl() {
@@ -268,5 +1202,23 @@ class ArtifactoryClient implements AutoCloseable {
         public UsernamePasswordCredentials getCredentials() {
             return credentials;
         }
+
+        /**
+         * @return the bandwidth limit in bytes per second, 0 for none
+         */
+        public long getBandwidthLimit() {
+            return bandwidthLimit;
+        }
+
+        public boolean isHedging() {
+            return hedging;
+        }
+
+        /**
+         * @return the URLs of the replicas to read from, in configuration order
+         */
+        public List<String> getReadReplicas() {
+            return readReplicas == null ? Collections.emptyList() : Collections.unmodifiableList(readReplicas);
+        }
     }
 }
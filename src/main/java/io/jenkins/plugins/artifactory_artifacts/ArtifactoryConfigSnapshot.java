@@ -0,0 +1,162 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import jenkins.model.ArtifactManagerConfiguration;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable and versioned view of the global Artifactory configuration with its resolved credentials.
+ * It is computed once and invalidated when the artifact manager configuration or the system credentials are saved,
+ * so hot paths like artifact browsing don't walk the factories and the credential store on each call.
+ */
+@Restricted(NoExternalUse.class)
+public final class ArtifactoryConfigSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactoryConfigSnapshot.class);
+
+    /**
+     * Maximum age of a snapshot, as a safety net for credentials providers that don't save through Jenkins
+     */
+    private static final long MAX_AGE_MILLIS =
+            SystemProperties.getLong(ArtifactoryConfigSnapshot.class.getName() + ".maxAgeMillis", 300_000L);
+
+    private static final AtomicLong VERSION = new AtomicLong();
+    private static volatile ArtifactoryConfigSnapshot current;
+
+    private final long version;
+    private final long createdAt;
+    private final ArtifactoryGenericArtifactConfig config;
+    private final String serverUrl;
+    private final String repository;
+    private final String prefix;
+    private final StandardUsernamePasswordCredentials credentials;
+    private final ArtifactoryClient.ArtifactoryConfig artifactoryConfig;
+
+    private ArtifactoryConfigSnapshot(long version, @CheckForNull ArtifactoryGenericArtifactConfig config) {
+        this.version = version;
+        this.createdAt = System.currentTimeMillis();
+        this.config = config;
+        this.serverUrl = config == null ? null : config.getServerUrl();
+        this.repository = config == null ? null : config.getRepository();
+        this.prefix = config == null ? null : config.getPrefix();
+        this.credentials = config == null ? null : Utils.getCredentials(config);
+        this.artifactoryConfig = this.credentials == null
+                ? null
+                : new ArtifactoryClient.ArtifactoryConfig(this.serverUrl, this.repository, this.credentials)
+                        .withHedging(config.isHedgedRequests());
+    }
+
+    /**
+     * Return the current snapshot, computing it if the configuration changed since the last call
+     * @return the current snapshot
+     */
+    public static @NonNull ArtifactoryConfigSnapshot get() {
+        ArtifactoryConfigSnapshot snapshot = current;
+        if (snapshot == null || snapshot.isStale()) {
+            long version = VERSION.get();
+            snapshot = new ArtifactoryConfigSnapshot(version, Utils.lookupArtifactConfig());
+            current = snapshot;
+            LOGGER.debug(String.format("Loaded Artifactory configuration snapshot version %d", version));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Invalidate the current snapshot. The next call to {@link #get()} will compute a new one
+     */
+    public static void invalidate() {
+        VERSION.incrementAndGet();
+        current = null;
+    }
+
+    private boolean isStale() {
+        return version != VERSION.get() || System.currentTimeMillis() - createdAt > MAX_AGE_MILLIS;
+    }
+
+    /**
+     * Version of the snapshot. Changes each time the configuration or the credentials change
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public @CheckForNull ArtifactoryGenericArtifactConfig getConfig() {
+        return config;
+    }
+
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    public String getRepository() {
+        return repository;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public @CheckForNull StandardUsernamePasswordCredentials getCredentials() {
+        return credentials;
+    }
+
+    /**
+     * Return the client configuration for the given server and repository, reusing the snapshot one when they match
+     * @param serverUrl the server URL
+     * @param repository the repository
+     * @return the client configuration
+     */
+    public ArtifactoryClient.ArtifactoryConfig getArtifactoryConfig(String serverUrl, String repository) {
+        if (artifactoryConfig != null
+                && Objects.equals(serverUrl, this.serverUrl)
+                && Objects.equals(repository, this.repository)) {
+            return artifactoryConfig;
+        }
+        return new ArtifactoryClient.ArtifactoryConfig(serverUrl, repository, credentials)
+                .withHedging(config != null && config.isHedgedRequests());
+    }
+
+    /**
+     * Return the client configuration of the global configuration
+     * @return the client configuration
+     */
+    public ArtifactoryClient.ArtifactoryConfig getArtifactoryConfig() {
+        return getArtifactoryConfig(serverUrl, repository);
+    }
+
+    @Initializer(after = InitMilestone.SYSTEM_CONFIG_LOADED)
+    public static void onStartup() {
+        invalidate();
+    }
+
+    /**
+     * Invalidate the snapshot when the artifact manager configuration or the system credentials are saved
+     */
+    @Extension
+    public static final class InvalidationListener extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof ArtifactManagerConfiguration || o instanceof SystemCredentialsProvider) {
+                LOGGER.debug(String.format("Invalidating Artifactory configuration snapshot after %s change", o));
+                invalidate();
+            }
+        }
+    }
+}
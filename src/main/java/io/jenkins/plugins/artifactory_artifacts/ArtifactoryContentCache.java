@@ -0,0 +1,239 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Util;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk cache of small artifacts on the controller, for artifacts read again and again by downstream jobs and
+ * dashboards.
+ * <p>
+ * Entries are keyed by server, repository and path, and stored in a file named after that key and the ETag
+ * (checksum) of the content. A cached artifact is revalidated with {@code If-None-Match}, so an unchanged artifact
+ * costs a conditional request, or no request at all when it was validated recently. Least recently used entries are
+ * evicted when the cache exceeds its size. The index is kept in memory and the directory is emptied at startup.
+ */
+final class ArtifactoryContentCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactoryContentCache.class);
+
+    /**
+     * Time during which a validated entry is served without asking Artifactory
+     */
+    private static final long FRESHNESS_MILLIS =
+            SystemProperties.getLong(ArtifactoryContentCache.class.getName() + ".freshnessMillis", 30_000L);
+
+    private static ArtifactoryContentCache instance;
+
+    private final Path directory;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+    private volatile long maxFileSize;
+    private volatile long maxSize;
+
+    private ArtifactoryContentCache(Path directory) throws IOException {
+        this.directory = directory;
+        if (Files.isDirectory(directory)) {
+            Util.deleteContentsRecursive(directory.toFile());
+        }
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Return the content cache if enabled by the configuration
+     * @param snapshot the configuration snapshot
+     * @return the cache or null if disabled
+     * @throws IOException if the cache directory cannot be created
+     */
+    static synchronized @CheckForNull ArtifactoryContentCache get(ArtifactoryConfigSnapshot snapshot)
+            throws IOException {
+        ArtifactoryGenericArtifactConfig config = snapshot.getConfig();
+        if (config == null || !config.isContentCache()) {
+            return null;
+        }
+        if (instance == null) {
+            instance = new ArtifactoryContentCache(
+                    new File(Jenkins.get().getRootDir(), "caches/artifactory-artifacts").toPath());
+        }
+        instance.resize(config.getContentCacheMaxFileSize() * 1024L, config.getContentCacheSize() * 1024L * 1024L);
+        return instance;
+    }
+
+    /**
+     * Open an artifact validated recently enough to be served without asking Artifactory
+     * @param snapshot the configuration snapshot
+     * @param targetPath the path of the artifact
+     * @return the content or null if the artifact must be validated
+     */
+    @CheckForNull
+    InputStream openFresh(ArtifactoryConfigSnapshot snapshot, String targetPath) {
+        String key = key(snapshot, targetPath);
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null || System.currentTimeMillis() - entry.validatedAt > FRESHNESS_MILLIS) {
+            return null;
+        }
+        return openEntry(key, entry);
+    }
+
+    /**
+     * Open an artifact, from the cache if Artifactory confirms it did not change, or downloading and caching it
+     * @param snapshot the configuration snapshot
+     * @param client the client
+     * @param targetPath the path of the artifact
+     * @return the content
+     * @throws IOException if the artifact cannot be downloaded
+     */
+    InputStream open(ArtifactoryConfigSnapshot snapshot, ArtifactoryClient client, String targetPath)
+            throws IOException {
+        String key = key(snapshot, targetPath);
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        ArtifactoryClient.ConditionalDownload download =
+                client.downloadArtifact(targetPath, entry == null ? null : entry.etag);
+        if (download.isNotModified()) {
+            InputStream cached = null;
+            if (entry != null) {
+                entry.validatedAt = System.currentTimeMillis();
+                cached = openEntry(key, entry);
+            }
+            if (cached != null) {
+                LOGGER.trace(String.format("Serving %s from the content cache", targetPath));
+                return cached;
+            }
+            download = client.downloadArtifact(targetPath, null);
+        }
+        return store(key, download);
+    }
+
+    private InputStream store(String key, ArtifactoryClient.ConditionalDownload download) throws IOException {
+        InputStream is = download.getInputStream();
+        long length = download.getLength();
+        String etag = download.getETag();
+        if (is == null || etag == null || length < 0 || length > maxFileSize || length > maxSize) {
+            return is;
+        }
+        Path file = directory.resolve(String.format("%s-%s", Util.getDigestOf(key), etag.replaceAll("\\W", "_")));
+        Path tmp = Files.createTempFile(directory, "download", ".tmp");
+        try (download) {
+            Files.copy(is, tmp, StandardCopyOption.REPLACE_EXISTING);
+            move(tmp, file);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Entry entry = new Entry(file, etag, Files.size(file));
+        InputStream cached = Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ));
+        List<Entry> removed = new ArrayList<>();
+        synchronized (this) {
+            Entry previous = entries.put(key, entry);
+            totalSize += entry.size;
+            if (previous != null) {
+                totalSize -= previous.size;
+                if (!previous.file.equals(file)) {
+                    removed.add(previous);
+                }
+            }
+            evict(removed);
+        }
+        delete(removed);
+        return cached;
+    }
+
+    private synchronized void resize(long maxFileSize, long maxSize) {
+        this.maxFileSize = maxFileSize;
+        if (this.maxSize != maxSize) {
+            this.maxSize = maxSize;
+            List<Entry> removed = new ArrayList<>();
+            evict(removed);
+            delete(removed);
+        }
+    }
+
+    /**
+     * Remove least recently used entries until the cache fits its size. Must hold the lock
+     */
+    private void evict(List<Entry> removed) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (totalSize > maxSize && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            totalSize -= eldest.size;
+            removed.add(eldest);
+        }
+    }
+
+    @CheckForNull
+    private InputStream openEntry(String key, Entry entry) {
+        try {
+            return Channels.newInputStream(FileChannel.open(entry.file, StandardOpenOption.READ));
+        } catch (IOException e) {
+            LOGGER.debug(String.format("Cached file %s is not readable, dropping it", entry.file), e);
+            synchronized (this) {
+                if (entries.remove(key, entry)) {
+                    totalSize -= entry.size;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void delete(List<Entry> removed) {
+        for (Entry entry : removed) {
+            try {
+                Files.deleteIfExists(entry.file);
+            } catch (IOException e) {
+                // Still open on some platforms, the directory is emptied at next startup
+                LOGGER.debug(String.format("Failed to delete cached file %s", entry.file), e);
+            }
+        }
+    }
+
+    private static String key(ArtifactoryConfigSnapshot snapshot, String targetPath) {
+        return String.format("%s/%s/%s", snapshot.getServerUrl(), snapshot.getRepository(), targetPath);
+    }
+
+    private static final class Entry {
+        private final Path file;
+        private final String etag;
+        private final long size;
+        private volatile long validatedAt;
+
+        private Entry(Path file, String etag, long size) {
+            this.file = file;
+            this.etag = etag;
+            this.size = size;
+            this.validatedAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Job;
+import hudson.model.PermalinkProjectAction;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.ArtifactManager;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Download artifacts of another run to the workspace, directly from Artifactory to the agent.
+ * <p>
+ * The controller only resolves the run and selects its files. The result is a map with the number of {@code files},
+ * the {@code bytes}, the {@code durationMillis} and the {@code bytesPerSecond} of the call, like
+ * {@link ArtifactoryArchiveStep}.
+ */
+public class ArtifactoryFetchStep extends Step {
+
+    private final String job;
+    private String build = PermalinkProjectAction.Permalink.LAST_SUCCESSFUL_BUILD.getId();
+    private String artifacts = "**";
+    private String excludes;
+    private String target;
+    private boolean flatten;
+    private boolean allowEmpty;
+    private int concurrency = ArtifactoryArtifactManager.UPLOAD_THREADS;
+
+    @DataBoundConstructor
+    public ArtifactoryFetchStep(String job) {
+        this.job = job;
+    }
+
+    public String getJob() {
+        return job;
+    }
+
+    /**
+     * @return the number of the run, or a permalink like {@code lastSuccessfulBuild}
+     */
+    public String getBuild() {
+        return build;
+    }
+
+    @DataBoundSetter
+    public void setBuild(String build) {
+        String value = Util.fixEmptyAndTrim(build);
+        this.build = value == null ? PermalinkProjectAction.Permalink.LAST_SUCCESSFUL_BUILD.getId() : value;
+    }
+
+    public String getArtifacts() {
+        return artifacts;
+    }
+
+    @DataBoundSetter
+    public void setArtifacts(String artifacts) {
+        String value = Util.fixEmptyAndTrim(artifacts);
+        this.artifacts = value == null ? "**" : value;
+    }
+
+    public String getExcludes() {
+        return excludes;
+    }
+
+    @DataBoundSetter
+    public void setExcludes(String excludes) {
+        this.excludes = Util.fixEmptyAndTrim(excludes);
+    }
+
+    /**
+     * @return the folder of the workspace receiving the files, or null for the workspace itself
+     */
+    @CheckForNull
+    public String getTarget() {
+        return target;
+    }
+
+    @DataBoundSetter
+    public void setTarget(String target) {
+        this.target = Util.fixEmptyAndTrim(target);
+    }
+
+    public boolean isFlatten() {
+        return flatten;
+    }
+
+    @DataBoundSetter
+    public void setFlatten(boolean flatten) {
+        this.flatten = flatten;
+    }
+
+    public boolean isAllowEmpty() {
+        return allowEmpty;
+    }
+
+    @DataBoundSetter
+    public void setAllowEmpty(boolean allowEmpty) {
+        this.allowEmpty = allowEmpty;
+    }
+
+    /**
+     * @return the number of parallel downloads
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    @DataBoundSetter
+    public void setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new Execution(this, context);
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<Map<String, Object>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient ArtifactoryFetchStep step;
+
+        Execution(ArtifactoryFetchStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        protected Map<String, Object> run() throws Exception {
+            Run<?, ?> run = getContext().get(Run.class);
+            FilePath workspace = getContext().get(FilePath.class);
+            TaskListener listener = getContext().get(TaskListener.class);
+            Run<?, ?> upstream = resolve(run);
+            ArtifactManager manager = upstream.getArtifactManager();
+            if (!(manager instanceof ArtifactoryArtifactManager)) {
+                throw new AbortException(String.format("Artifacts of %s are not stored on Artifactory", upstream));
+            }
+            FilePath folder = step.target == null ? workspace : workspace.child(step.target);
+            long start = System.nanoTime();
+            List<ArtifactoryClient.FileInfo> fetched = ((ArtifactoryArtifactManager) manager)
+                    .fetch(folder, listener, step.artifacts, step.excludes, step.flatten, step.concurrency);
+            long nanos = System.nanoTime() - start;
+            if (fetched.isEmpty()) {
+                String message =
+                        String.format("No artifacts of %s match the file pattern \"%s\"", upstream, step.artifacts);
+                if (!step.allowEmpty) {
+                    throw new AbortException(message);
+                }
+                listener.getLogger().println(message);
+            }
+            long bytes = fetched.stream()
+                    .mapToLong(ArtifactoryClient.FileInfo::getSize)
+                    .sum();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("files", fetched.size());
+            result.put("bytes", bytes);
+            result.put("durationMillis", TimeUnit.NANOSECONDS.toMillis(nanos));
+            result.put("bytesPerSecond", (long) (bytes / (Math.max(nanos, 1) / 1e9)));
+            return result;
+        }
+
+        /**
+         * Find the run to fetch from, with the permissions of the build
+         */
+        private Run<?, ?> resolve(Run<?, ?> run) throws AbortException {
+            Job<?, ?> upstream = Jenkins.get().getItem(step.job, run.getParent(), Job.class);
+            if (upstream == null) {
+                throw new AbortException(String.format("No job named %s found", step.job));
+            }
+            Run<?, ?> from;
+            if (step.build.matches("[0-9]+")) {
+                from = upstream.getBuildByNumber(Integer.parseInt(step.build));
+            } else {
+                PermalinkProjectAction.Permalink permalink = upstream.getPermalinks().get(step.build);
+                if (permalink == null) {
+                    throw new AbortException(String.format("Unknown build %s of %s", step.build, step.job));
+                }
+                from = permalink.resolve(upstream);
+            }
+            if (from == null) {
+                throw new AbortException(String.format("No build %s of %s found", step.build, step.job));
+            }
+            if (!from.hasPermission(Run.ARTIFACTS)) {
+                throw new AbortException(String.format("Not allowed to read the artifacts of %s", from));
+            }
+            return from;
+        }
+    }
+
+    @Extension(optional = true)
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Set.of(Run.class, FilePath.class, TaskListener.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "artifactoryFetch";
+        }
+
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Fetch artifacts of another build from Artifactory";
+        }
+    }
+}
@@ -4,20 +4,27 @@ import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import hudson.ExtensionList;
+import hudson.Util;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
 import hudson.model.Item;
+import hudson.model.Node;
 import hudson.security.ACL;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 import org.apache.commons.lang3.StringUtils;
@@ -38,10 +45,29 @@ public class ArtifactoryGenericArtifactConfig extends AbstractDescribableImpl<Ar
 
     public static final Logger LOGGER = LoggerFactory.getLogger(ArtifactoryGenericArtifactConfig.class);
 
+    public static final int DEFAULT_BROWSING_PAGE_SIZE = 1000;
+    public static final int DEFAULT_SIGNED_URL_EXPIRY = 300;
+    public static final int DEFAULT_CONTENT_CACHE_MAX_FILE_SIZE = 1024;
+    public static final int DEFAULT_CONTENT_CACHE_SIZE = 512;
+
     private String storageCredentialId;
     private String serverUrl;
     private String repository;
     private String prefix;
+    private boolean pagedBrowsing;
+    private int browsingPageSize = DEFAULT_BROWSING_PAGE_SIZE;
+    private boolean signedUrls;
+    private int signedUrlExpiry = DEFAULT_SIGNED_URL_EXPIRY;
+    private boolean contentCache;
+    private int contentCacheMaxFileSize = DEFAULT_CONTENT_CACHE_MAX_FILE_SIZE;
+    private int contentCacheSize = DEFAULT_CONTENT_CACHE_SIZE;
+    private int bandwidthLimit;
+    private ArrayList<ArtifactoryBandwidthLimit> bandwidthLimits;
+    private ArrayList<ArtifactoryReadReplica> readReplicas;
+    private boolean hedgedRequests;
+    private boolean deferredArchiving;
+    private boolean shardedLayout;
+    private boolean orphanCollection;
 
     @DataBoundConstructor
     public ArtifactoryGenericArtifactConfig() {}
@@ -61,6 +87,7 @@ public class ArtifactoryGenericArtifactConfig extends AbstractDescribableImpl<Ar
     @DataBoundSetter
     public void setStorageCredentialId(String storageCredentialId) {
         this.storageCredentialId = storageCredentialId;
+        ArtifactoryConfigSnapshot.invalidate();
     }
 
     public String getServerUrl() {
@@ -70,6 +97,7 @@ public class ArtifactoryGenericArtifactConfig extends AbstractDescribableImpl<Ar
     @DataBoundSetter
     public void setServerUrl(String serverUrl) {
         this.serverUrl = serverUrl;
+        ArtifactoryConfigSnapshot.invalidate();
     }
 
     public String getRepository() {
@@ -79,6 +107,7 @@ public class ArtifactoryGenericArtifactConfig extends AbstractDescribableImpl<Ar
     @DataBoundSetter
     public void setRepository(String repository) {
         this.repository = repository;
+        ArtifactoryConfigSnapshot.invalidate();
     }
 
     public String getPrefix() {
@@ -88,6 +117,200 @@ public class ArtifactoryGenericArtifactConfig extends AbstractDescribableImpl<Ar
     @DataBoundSetter
     public void setPrefix(String prefix) {
         this.prefix = prefix;
+        ArtifactoryConfigSnapshot.invalidate();
+    }
+
+    public boolean isPagedBrowsing() {
+        return pagedBrowsing;
+    }
+
+    @DataBoundSetter
+    public void setPagedBrowsing(boolean pagedBrowsing) {
+        this.pagedBrowsing = pagedBrowsing;
+        ArtifactoryConfigSnapshot.invalidate();
+    }
+
+    public int getBrowsingPageSize() {
+        return browsingPageSize > 0 ? browsingPageSize : DEFAULT_BROWSING_PAGE_SIZE;
+    }
+
+    @DataBoundSetter
+    public void setBrowsingPageSize(int browsingPageSize) {
+        this.browsingPageSize = browsingPageSize;
+        ArtifactoryConfigSnapshot.invalidate();
+    }
+
+    public boolean isSignedUrls() {
+        return signedUrls;
+    }
+
+    @DataBoundSetter
+    public void setSignedUrls(boolean signedUrls) {
+        this.signedUrls = signedUrls;
+        ArtifactoryConfigSnapshot.invalidate();
+    }
+
+    public int getSignedUrlExpiry() {
+        return signedUrlExpiry > 0 ? signedUrlExpiry : DEFAULT_SIGNED_URL_EXPIRY;
+    }
+
+    @DataBoundSetter
+    public void setSignedUrlExpiry(int signedUrlExpiry) {
+        this.signedUrlExpiry = signedUrlExpiry;
+        ArtifactoryConfigSnapshot.invalidate();
+    }
+
+    public boolean isContentCache() {
+        return contentCache;
+    }
+
+    @DataBoundSetter
+    public void setContentCache(boolean contentCache) {
+        this.contentCache = contentCache;
+        ArtifactoryConfigSnapshot.invalidate();
+    }
+
+    /**
+     * @return the maximum size in KiB of an artifact kept in the content cache
+     */
+    public int getContentCacheMaxFileSize() {
+        return contentCacheMaxFileSize > 0 ? contentCacheMaxFileSize : DEFAULT_CONTENT_CACHE_MAX_FILE_SIZE;
+    }
+
+    @DataBoundSetter
+    public void setContentCacheMaxFileSize(int contentCacheMaxFileSize) {
+        this.contentCacheMaxFileSize = contentCacheMaxFileSize;
+        ArtifactoryConfigSnapshot.invalidate();
+    }
+
+    /**
+     * @return the total size in MiB of the content cache
+     */
+    public int getContentCacheSize() {
+        return contentCacheSize > 0 ? contentCacheSize : DEFAULT_CONTENT_CACHE_SIZE;
+    }
+
+    @DataBoundSetter
+    public void setContentCacheSize(int contentCacheSize) {
+        this.contentCacheSize = contentCacheSize;
+        ArtifactoryConfigSnapshot.invalidate();
+    }
+
+    public boolean isHedgedRequests() {
+        return hedgedRequests;
+    }
+
+    @DataBoundSetter
+    public void setHedgedRequests(boolean hedgedRequests) {
+        this.hedgedRequests = hedgedRequests;
+        ArtifactoryConfigSnapshot.invalidate();
+    }
+
+    /**
+     * @return true if Pipeline builds upload their artifacts in the background and only wait for them at the end
+     */
+    public boolean isDeferredArchiving() {
+        return deferredArchiving;
+    }
+
+    @DataBoundSetter
+    public void setDeferredArchiving(boolean deferredArchiving) {
+        this.deferredArchiving = deferredArchiving;
+        ArtifactoryConfigSnapshot.invalidate();
+    }
+
+    /**
+     * @return true if new runs store their files under {@code <job>/@shard-<bucket>/<number>}
+     */
+    public boolean isShardedLayout() {
+        return shardedLayout;
+    }
+
+    @DataBoundSetter
+    public void setShardedLayout(boolean shardedLayout) {
+        this.shardedLayout = shardedLayout;
+        ArtifactoryConfigSnapshot.invalidate();
+    }
+
+    /**
+     * @return true if the build folders left by deleted runs are deleted periodically
+     */
+    public boolean isOrphanCollection() {
+        return orphanCollection;
+    }
+
+    @DataBoundSetter
+    public void setOrphanCollection(boolean orphanCollection) {
+        this.orphanCollection = orphanCollection;
+        ArtifactoryConfigSnapshot.invalidate();
+    }
+
+    /**
+     * @return the default bandwidth limit in KiB/s of agent transfers, 0 for none
+     */
+    public int getBandwidthLimit() {
+        return Math.max(bandwidthLimit, 0);
+    }
+
+    @DataBoundSetter
+    public void setBandwidthLimit(int bandwidthLimit) {
+        this.bandwidthLimit = bandwidthLimit;
+        ArtifactoryConfigSnapshot.invalidate();
+    }
+
+    /**
+     * @return the bandwidth limits of the agents matching a label expression
+     */
+    public List<ArtifactoryBandwidthLimit> getBandwidthLimits() {
+        return bandwidthLimits == null ? Collections.emptyList() : Collections.unmodifiableList(bandwidthLimits);
+    }
+
+    @DataBoundSetter
+    public void setBandwidthLimits(List<ArtifactoryBandwidthLimit> bandwidthLimits) {
+        this.bandwidthLimits = bandwidthLimits == null ? null : new ArrayList<>(bandwidthLimits);
+        ArtifactoryConfigSnapshot.invalidate();
+    }
+
+    /**
+     * Return the bandwidth limit of the transfers of a node: the first limit matching its labels, or the default one
+     * @param node the node, or null if unknown
+     * @return the limit in bytes per second, 0 for none
+     */
+    long getBandwidthLimit(@CheckForNull Node node) {
+        for (ArtifactoryBandwidthLimit limit : getBandwidthLimits()) {
+            if (limit.matches(node)) {
+                return limit.getLimit() * 1024L;
+            }
+        }
+        return getBandwidthLimit() * 1024L;
+    }
+
+    /**
+     * @return the replicas serving the reads of the agents matching a label expression
+     */
+    public List<ArtifactoryReadReplica> getReadReplicas() {
+        return readReplicas == null ? Collections.emptyList() : Collections.unmodifiableList(readReplicas);
+    }
+
+    @DataBoundSetter
+    public void setReadReplicas(List<ArtifactoryReadReplica> readReplicas) {
+        this.readReplicas = readReplicas == null ? null : new ArrayList<>(readReplicas);
+        ArtifactoryConfigSnapshot.invalidate();
+    }
+
+    /**
+     * Return the URLs of the replicas matching the labels of a node, in configuration order
+     * @param node the node, or null if unknown
+     * @return the replica URLs
+     */
+    List<String> getReadReplicaUrls(@CheckForNull Node node) {
+        List<String> urls = new ArrayList<>();
+        for (ArtifactoryReadReplica replica : getReadReplicas()) {
+            if (replica.matches(node) && !urls.contains(replica.getServerUrl())) {
+                urls.add(replica.getServerUrl());
+            }
+        }
+        return urls;
     }
 
     public static ArtifactoryGenericArtifactConfig get() {
@@ -207,5 +430,36 @@ public class ArtifactoryGenericArtifactConfig extends AbstractDescribableImpl<Ar
 
             return FormValidation.ok("Success");
         }
+
+        @RequirePOST
+        public FormValidation doPerformanceProbe(
+                @QueryParameter("serverUrl") final String serverUrl,
+                @QueryParameter("storageCredentialId") final String storageCredentialId,
+                @QueryParameter("repository") final String repository,
+                @QueryParameter("prefix") final String prefix) {
+
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+            if (StringUtils.isBlank(serverUrl)
+                    || StringUtils.isBlank(storageCredentialId)
+                    || StringUtils.isBlank(repository)) {
+                return FormValidation.error("Fields required");
+            }
+
+            String folder = Utils.getPath(prefix, Path.of("performance-probe-" + UUID.randomUUID()));
+            try (ArtifactoryClient client =
+                    new ArtifactoryClient(serverUrl, repository, Utils.getCredentials(storageCredentialId))) {
+                ArtifactoryPerformanceProbe.Result result = new ArtifactoryPerformanceProbe(client, folder).run();
+                List<String> lines = new ArrayList<>(result.getMeasures());
+                lines.add("");
+                lines.addAll(result.getRecommendations());
+                LOGGER.info(String.format("Artifactory performance probe of %s: %s", serverUrl, lines));
+                return FormValidation.okWithMarkup(
+                        lines.stream().map(Util::escape).collect(Collectors.joining("<br/>")));
+            } catch (Exception e) {
+                LOGGER.error("Unable to probe Artifactory performance", e);
+                return FormValidation.error("Unable to probe Artifactory performance : " + e.getMessage());
+            }
+        }
     }
 }
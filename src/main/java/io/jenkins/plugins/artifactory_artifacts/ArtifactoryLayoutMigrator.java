@@ -0,0 +1,184 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.ArtifactManager;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Move the completed runs of the original {@code <job>/<number>} layout to the sharded layout, while it is enabled.
+ * <p>
+ * Runs are moved one at a time with a server-side move, at most {@link #maxRunsPerExecution} per execution and with a
+ * pause after each batch, so the migration of large instances is spread over several executions. Moving requires
+ * Artifactory Pro: on the first failure the execution stops and the runs stay readable in their original layout.
+ * <p>
+ * Jobs whose runs are all moved are recorded, so later executions only look at new jobs. The record is dropped when
+ * the sharded layout is disabled.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public final class ArtifactoryLayoutMigrator extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactoryLayoutMigrator.class);
+
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "For tests and tuning")
+    static long recurrencePeriodMinutes =
+            SystemProperties.getLong(ArtifactoryLayoutMigrator.class.getName() + ".recurrencePeriodMinutes", 60L);
+
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "For tests and tuning")
+    static int maxRunsPerExecution =
+            SystemProperties.getInteger(ArtifactoryLayoutMigrator.class.getName() + ".maxRunsPerExecution", 1000);
+
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "For tests and tuning")
+    static int batchSize = SystemProperties.getInteger(ArtifactoryLayoutMigrator.class.getName() + ".batchSize", 20);
+
+    /**
+     * Pause between two batches of moves
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "For tests and tuning")
+    static long batchPauseMillis =
+            SystemProperties.getLong(ArtifactoryLayoutMigrator.class.getName() + ".batchPauseMillis", 1000L);
+
+    public ArtifactoryLayoutMigrator() {
+        super("Artifactory layout migrator");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(recurrencePeriodMinutes);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        if (Jenkins.get().getInitLevel() != InitMilestone.COMPLETED) {
+            return;
+        }
+        ArtifactoryConfigSnapshot snapshot = ArtifactoryConfigSnapshot.get();
+        ArtifactoryGenericArtifactConfig config = snapshot.getConfig();
+        if (config == null || !config.isShardedLayout() || snapshot.getArtifactoryConfig() == null) {
+            XmlFile record = getRecord();
+            if (record.exists()) {
+                record.delete();
+            }
+            return;
+        }
+        try (ArtifactoryClient client = new ArtifactoryClient(snapshot.getArtifactoryConfig())) {
+            migrate(client, listener);
+        } catch (IOException | InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Move runs to the sharded layout
+     * @param client the client
+     * @param listener the listener receiving the report
+     * @return the number of migrated runs
+     * @throws InterruptedException if interrupted between two batches
+     */
+    int migrate(ArtifactoryClient client, TaskListener listener) throws InterruptedException {
+        Set<String> done = load();
+        int migrated = 0;
+        long start = System.nanoTime();
+        try {
+            for (Job<?, ?> job : Jenkins.get().allItems(Job.class)) {
+                if (done.contains(job.getFullName())) {
+                    continue;
+                }
+                boolean complete = true;
+                for (Run<?, ?> run : job.getBuilds()) {
+                    if (migrated >= maxRunsPerExecution) {
+                        report(listener, migrated, start, "more runs are left for the next execution");
+                        return migrated;
+                    }
+                    ArtifactManager manager = run.getArtifactManager();
+                    if (!(manager instanceof ArtifactoryArtifactManager)) {
+                        continue;
+                    }
+                    ArtifactoryArtifactManager artifactoryManager = (ArtifactoryArtifactManager) manager;
+                    try {
+                        if (!artifactoryManager.migrateToShardedLayout(client)) {
+                            // A running build keeps its layout until it completes, look at the job again later
+                            complete &= artifactoryManager.isShardedLayout();
+                            continue;
+                        }
+                    } catch (Exception e) {
+                        LOGGER.warn(String.format("Failed to move %s to the sharded layout", run), e);
+                        report(listener, migrated, start, "stopped on failure, moving requires Artifactory Pro");
+                        return migrated;
+                    }
+                    migrated++;
+                    if (migrated % batchSize == 0) {
+                        Thread.sleep(batchPauseMillis);
+                    }
+                }
+                if (complete) {
+                    done.add(job.getFullName());
+                }
+            }
+            report(listener, migrated, start, "all runs use the sharded layout");
+            return migrated;
+        } finally {
+            save(done);
+        }
+    }
+
+    /**
+     * @return the file recording the full names of the jobs whose runs all use the sharded layout
+     */
+    private static XmlFile getRecord() {
+        return new XmlFile(
+                Jenkins.XSTREAM2,
+                new File(Jenkins.get().getRootDir(), ArtifactoryLayoutMigrator.class.getName() + ".xml"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<String> load() {
+        XmlFile record = getRecord();
+        if (record.exists()) {
+            try {
+                return new TreeSet<>((Set<String>) record.read());
+            } catch (IOException | ClassCastException e) {
+                LOGGER.warn(String.format("Failed to read %s, looking at all jobs again", record), e);
+            }
+        }
+        return new TreeSet<>();
+    }
+
+    private static void save(Set<String> done) {
+        XmlFile record = getRecord();
+        try {
+            record.write(done);
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Failed to write %s", record), e);
+        }
+    }
+
+    private static void report(TaskListener listener, int migrated, long start, String status) {
+        String report = String.format(
+                "Moved %d run(s) to the sharded layout in %d s, %s",
+                migrated, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), status);
+        listener.getLogger().println(report);
+        if (migrated > 0) {
+            LOGGER.info(report);
+        }
+    }
+}
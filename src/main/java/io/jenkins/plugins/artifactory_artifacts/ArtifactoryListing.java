@@ -0,0 +1,368 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import org.jfrog.artifactory.client.model.AqlItemType;
+
+/**
+ * Compact, immutable listing of artifacts, so huge listings don't hold one {@link ArtifactoryClient.FileInfo} and
+ * one absolute path per entry on the controller.
+ * <p>
+ * Paths are stored relative to a common base, sorted and front-coded: in each block of {@value #BLOCK_SIZE} entries
+ * the first path is stored in full and the others as the length of the prefix shared with the previous path followed
+ * by the remaining bytes. Sizes, timestamps, types and checksums, when known, are kept in primitive arrays. Entries
+ * are decoded on demand.
+ */
+final class ArtifactoryListing {
+
+    static final int BLOCK_SIZE = 16;
+    private static final int SHA1_LENGTH = 20;
+    private static final int SHA256_LENGTH = 32;
+    private static final int MD5_LENGTH = 16;
+
+    private final String base;
+    private final int size;
+    private final byte[] data;
+    private final int[] blockOffsets;
+    private final int maxPathLength;
+    private final long[] sizes;
+    private final long[] lastModified;
+    private final BitSet directories;
+    private final Checksums sha1;
+    private final Checksums sha256;
+    private final Checksums md5;
+
+    private ArtifactoryListing(
+            String base,
+            int size,
+            byte[] data,
+            int[] blockOffsets,
+            int maxPathLength,
+            long[] sizes,
+            long[] lastModified,
+            BitSet directories,
+            Checksums sha1,
+            Checksums sha256,
+            Checksums md5) {
+        this.base = base;
+        this.size = size;
+        this.data = data;
+        this.blockOffsets = blockOffsets;
+        this.maxPathLength = maxPathLength;
+        this.sizes = sizes;
+        this.lastModified = lastModified;
+        this.directories = directories;
+        this.sha1 = sha1;
+        this.sha256 = sha256;
+        this.md5 = md5;
+    }
+
+    static Builder builder(String base) {
+        return new Builder(base);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the base of all the paths of the listing
+     */
+    String getBase() {
+        return base;
+    }
+
+    /**
+     * @param index the index of the entry
+     * @return the full path of the entry
+     */
+    String getPath(int index) {
+        checkIndex(index);
+        byte[] path = new byte[maxPathLength];
+        int pos = blockOffsets[index / BLOCK_SIZE];
+        int length = 0;
+        for (int i = index - index % BLOCK_SIZE; i <= index; i++) {
+            int shared = 0;
+            if (i % BLOCK_SIZE != 0) {
+                shared = readVarInt(pos);
+                pos += varIntSize(shared);
+            }
+            int suffix = readVarInt(pos);
+            pos += varIntSize(suffix);
+            System.arraycopy(data, pos, path, shared, suffix);
+            pos += suffix;
+            length = shared + suffix;
+        }
+        return base + new String(path, 0, length, StandardCharsets.UTF_8);
+    }
+
+    long getSize(int index) {
+        checkIndex(index);
+        return sizes[index];
+    }
+
+    long getLastModified(int index) {
+        checkIndex(index);
+        return lastModified[index];
+    }
+
+    boolean isDirectory(int index) {
+        checkIndex(index);
+        return directories.get(index);
+    }
+
+    /**
+     * Create the file information of an entry. Not retained by the listing
+     * @param index the index of the entry
+     * @return the file information
+     */
+    ArtifactoryClient.FileInfo getFileInfo(int index) {
+        return new ArtifactoryClient.FileInfo(
+                getPath(index),
+                getLastModified(index),
+                getSize(index),
+                isDirectory(index) ? AqlItemType.FOLDER : AqlItemType.FILE,
+                sha1.get(index),
+                sha256.get(index),
+                md5.get(index));
+    }
+
+    /**
+     * Find the index of the first entry whose path is greater than or equal to the given one
+     * @param path the full path
+     * @return the index, or the size of the listing if all paths are lower
+     */
+    int lowerBound(String path) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getPath(middle).compareTo(path) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Find an entry by path
+     * @param path the full path
+     * @return the index of the entry or -1 if not found
+     */
+    int indexOf(String path) {
+        int index = lowerBound(path);
+        return index < size && getPath(index).equals(path) ? index : -1;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.format("Index %d out of listing of size %d", index, size));
+        }
+    }
+
+    private int readVarInt(int pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Checksums of one algorithm stored as raw bytes, or nothing if no entry has one
+     */
+    private static final class Checksums {
+        private final int length;
+        private final byte[] bytes;
+        private final BitSet present;
+
+        private Checksums(int length, byte[] bytes, BitSet present) {
+            this.length = length;
+            this.bytes = bytes;
+            this.present = present;
+        }
+
+        private static Checksums of(List<Entry> entries, int length, Function<Entry, String> checksum) {
+            byte[] bytes = null;
+            BitSet present = new BitSet();
+            for (int i = 0; i < entries.size(); i++) {
+                String hex = checksum.apply(entries.get(i));
+                if (hex == null || hex.length() != length * 2) {
+                    continue;
+                }
+                if (bytes == null) {
+                    bytes = new byte[entries.size() * length];
+                }
+                try {
+                    for (int j = 0; j < length; j++) {
+                        bytes[i * length + j] = (byte) Integer.parseInt(hex.substring(j * 2, j * 2 + 2), 16);
+                    }
+                    present.set(i);
+                } catch (NumberFormatException e) {
+                    // Not a checksum
+                }
+            }
+            return new Checksums(length, bytes, present);
+        }
+
+        @CheckForNull
+        private String get(int index) {
+            if (!present.get(index)) {
+                return null;
+            }
+            StringBuilder hex = new StringBuilder(length * 2);
+            for (int j = 0; j < length; j++) {
+                hex.append(String.format("%02x", bytes[index * length + j] & 0xFF));
+            }
+            return hex.toString();
+        }
+    }
+
+    /**
+     * Collect entries, then sort and encode them. Paths outside the base are ignored
+     */
+    static final class Builder {
+        private final String base;
+        private final List<Entry> entries = new ArrayList<>();
+
+        private Builder(String base) {
+            this.base = base;
+        }
+
+        Builder add(String path, long lastModified, long size, boolean directory) {
+            return add(path, lastModified, size, directory, null, null, null);
+        }
+
+        Builder add(
+                String path,
+                long lastModified,
+                long size,
+                boolean directory,
+                @CheckForNull String sha1,
+                @CheckForNull String sha256,
+                @CheckForNull String md5) {
+            if (path.startsWith(base) && path.length() > base.length()) {
+                entries.add(new Entry(
+                        path.substring(base.length()), lastModified, size, directory, sha1, sha256, md5));
+            }
+            return this;
+        }
+
+        Builder add(ArtifactoryClient.FileInfo file) {
+            return add(
+                    file.getPath(),
+                    file.getLastUpdated(),
+                    file.getSize(),
+                    file.isDirectory(),
+                    file.getSha1(),
+                    file.getSha256(),
+                    file.getMd5());
+        }
+
+        ArtifactoryListing build() {
+            entries.sort(Comparator.comparing(entry -> entry.path));
+            int size = entries.size();
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            int[] blockOffsets = new int[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+            long[] sizes = new long[size];
+            long[] lastModified = new long[size];
+            BitSet directories = new BitSet(size);
+            int maxPathLength = 0;
+            byte[] previous = new byte[0];
+            for (int i = 0; i < size; i++) {
+                Entry entry = entries.get(i);
+                byte[] path = entry.path.getBytes(StandardCharsets.UTF_8);
+                if (i % BLOCK_SIZE == 0) {
+                    blockOffsets[i / BLOCK_SIZE] = data.size();
+                    writeVarInt(data, path.length);
+                    data.write(path, 0, path.length);
+                } else {
+                    int shared = Arrays.mismatch(previous, path);
+                    if (shared < 0) {
+                        shared = path.length;
+                    }
+                    writeVarInt(data, shared);
+                    writeVarInt(data, path.length - shared);
+                    data.write(path, shared, path.length - shared);
+                }
+                previous = path;
+                maxPathLength = Math.max(maxPathLength, path.length);
+                sizes[i] = entry.size;
+                lastModified[i] = entry.lastModified;
+                directories.set(i, entry.directory);
+            }
+            Checksums sha1 = Checksums.of(entries, SHA1_LENGTH, entry -> entry.sha1);
+            Checksums sha256 = Checksums.of(entries, SHA256_LENGTH, entry -> entry.sha256);
+            Checksums md5 = Checksums.of(entries, MD5_LENGTH, entry -> entry.md5);
+            entries.clear();
+            return new ArtifactoryListing(
+                    base,
+                    size,
+                    data.toByteArray(),
+                    blockOffsets,
+                    maxPathLength,
+                    sizes,
+                    lastModified,
+                    directories,
+                    sha1,
+                    sha256,
+                    md5);
+        }
+
+        private static void writeVarInt(ByteArrayOutputStream out, int value) {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+
+    private static final class Entry {
+        private final String path;
+        private final long lastModified;
+        private final long size;
+        private final boolean directory;
+        private final String sha1;
+        private final String sha256;
+        private final String md5;
+
+        private Entry(
+                String path,
+                long lastModified,
+                long size,
+                boolean directory,
+                String sha1,
+                String sha256,
+                String md5) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.directory = directory;
+            this.sha1 = sha1;
+            this.sha256 = sha256;
+            this.md5 = md5;
+        }
+    }
+}
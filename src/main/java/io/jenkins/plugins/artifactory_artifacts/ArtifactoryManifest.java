@@ -0,0 +1,195 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Util;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import org.jfrog.artifactory.client.model.AqlItemType;
+
+/**
+ * Manifest of the artifacts archived by a run: paths, sizes, modification times and checksums. It lets artifact
+ * browsing and stat queries be answered without asking Artifactory.
+ * <p>
+ * Persisted as one line per file, {@code path size lastModified sha1 sha256 md5} separated by tabs, with paths relative
+ * to the artifacts folder of the run.
+ */
+final class ArtifactoryManifest {
+
+    static final String FILE_NAME = "artifactory-manifest.txt.gz";
+
+    private final ArtifactoryListing listing;
+
+    private ArtifactoryManifest(ArtifactoryListing listing) {
+        this.listing = listing;
+    }
+
+    /**
+     * Create a manifest from files
+     * @param base the artifacts folder of the run, ending with a slash
+     * @param files the files, with full paths
+     * @return the manifest
+     */
+    static ArtifactoryManifest of(String base, Collection<ArtifactoryClient.FileInfo> files) {
+        ArtifactoryListing.Builder builder = ArtifactoryListing.builder(base);
+        files.forEach(builder::add);
+        return new ArtifactoryManifest(builder.build());
+    }
+
+    /**
+     * Read a persisted manifest
+     * @param base the artifacts folder of the run, ending with a slash
+     * @param reader the reader
+     * @return the manifest
+     * @throws IOException if the manifest cannot be read or is corrupted
+     */
+    static ArtifactoryManifest read(String base, BufferedReader reader) throws IOException {
+        ArtifactoryListing.Builder builder = ArtifactoryListing.builder(base);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 6) {
+                throw new IOException(String.format("Corrupted manifest line '%s'", line));
+            }
+            try {
+                builder.add(
+                        base + unescape(fields[0]),
+                        Long.parseLong(fields[2]),
+                        Long.parseLong(fields[1]),
+                        false,
+                        Util.fixEmpty(fields[3]),
+                        Util.fixEmpty(fields[4]),
+                        Util.fixEmpty(fields[5]));
+            } catch (NumberFormatException e) {
+                throw new IOException(String.format("Corrupted manifest line '%s'", line), e);
+            }
+        }
+        return new ArtifactoryManifest(builder.build());
+    }
+
+    /**
+     * Write the manifest
+     * @param writer the writer
+     * @throws IOException if the manifest cannot be written
+     */
+    void write(Writer writer) throws IOException {
+        String base = listing.getBase();
+        for (int i = 0; i < listing.size(); i++) {
+            ArtifactoryClient.FileInfo file = listing.getFileInfo(i);
+            writer.write(String.format(
+                    "%s\t%d\t%d\t%s\t%s\t%s%n",
+                    escape(file.getPath().substring(base.length())),
+                    file.getSize(),
+                    file.getLastUpdated(),
+                    Util.fixNull(file.getSha1()),
+                    Util.fixNull(file.getSha256()),
+                    Util.fixNull(file.getMd5())));
+        }
+    }
+
+    /**
+     * Add or replace files. Files with the same SHA-1 as their recorded version keep the recorded information
+     * @param files the files, with full paths
+     * @return a new manifest with the files
+     */
+    ArtifactoryManifest merge(Collection<ArtifactoryClient.FileInfo> files) {
+        ArtifactoryListing.Builder builder = ArtifactoryListing.builder(listing.getBase());
+        Set<String> replaced = new HashSet<>();
+        for (ArtifactoryClient.FileInfo file : files) {
+            ArtifactoryClient.FileInfo recorded = file(file.getPath());
+            if (recorded == null
+                    || recorded.getSha1() == null
+                    || !recorded.getSha1().equalsIgnoreCase(file.getSha1())) {
+                builder.add(file);
+                replaced.add(file.getPath());
+            }
+        }
+        for (int i = 0; i < listing.size(); i++) {
+            ArtifactoryClient.FileInfo file = listing.getFileInfo(i);
+            if (!replaced.contains(file.getPath())) {
+                builder.add(file);
+            }
+        }
+        return new ArtifactoryManifest(builder.build());
+    }
+
+    ArtifactoryListing getListing() {
+        return listing;
+    }
+
+    int size() {
+        return listing.size();
+    }
+
+    /**
+     * @param key the path of a file or folder
+     * @return true if the path is the artifacts folder of the run or inside it
+     */
+    boolean covers(String key) {
+        String base = listing.getBase();
+        return key.startsWith(base) || Utils.stripTrailingSlash(key).equals(Utils.stripTrailingSlash(base));
+    }
+
+    /**
+     * @param key the path of a file
+     * @return the file information or null if the path is not a file of the manifest
+     */
+    @CheckForNull
+    ArtifactoryClient.FileInfo file(String key) {
+        int index = listing.indexOf(key);
+        return index < 0 ? null : listing.getFileInfo(index);
+    }
+
+    /**
+     * @param key the path of a folder
+     * @return true if the path is the artifacts folder of the run or contains files of the manifest
+     */
+    boolean isDirectory(String key) {
+        int[] range = range(key);
+        return Utils.stripTrailingSlash(key).equals(Utils.stripTrailingSlash(listing.getBase())) || range[0] < range[1];
+    }
+
+    /**
+     * @param key the path of a folder
+     * @return the range of indexes of the files under the folder, recursively
+     */
+    int[] range(String key) {
+        String prefix = Utils.stripTrailingSlash(key) + "/";
+        // '0' is the character after '/'
+        String upper = Utils.stripTrailingSlash(key) + "0";
+        return new int[] {listing.lowerBound(prefix), listing.lowerBound(upper)};
+    }
+
+    /**
+     * Create the information of a folder of the manifest
+     * @param key the path of the folder
+     * @return the folder information
+     */
+    static ArtifactoryClient.FileInfo folder(String key) {
+        return new ArtifactoryClient.FileInfo(Utils.stripTrailingSlash(key), 0, 0, AqlItemType.FOLDER);
+    }
+
+    private static String escape(String path) {
+        return path.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String path) {
+        StringBuilder result = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '\\' && i + 1 < path.length()) {
+                char next = path.charAt(++i);
+                result.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,313 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.Extension;
+import hudson.Util;
+import hudson.init.InitMilestone;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Job;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delete the build folders left on Artifactory by runs that no longer exist, for example when deleting a run or a job
+ * failed to reach the server. Enabled by {@link ArtifactoryGenericArtifactConfig#isOrphanCollection()}, and only with
+ * a prefix, as the repository root is likely shared.
+ * <p>
+ * The files under the prefix are paged with AQL and grouped by build folder, {@code <job>/<number>/}. A folder is an
+ * orphan when it was not modified during the grace period and either its job exists without the run, or its job is
+ * gone and the job folder carries the ownership marker of this controller. Folders of other controllers sharing the
+ * prefix are never deleted. Orphans are deleted in small batches with a pause between them, so the collection doesn't
+ * compete with builds.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public final class ArtifactoryOrphanCollector extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactoryOrphanCollector.class);
+
+    private static final Pattern BUILD_NUMBER = Pattern.compile("[1-9][0-9]*");
+
+    /**
+     * Name of the ownership marker written in the job folders, followed by the instance id of the controller
+     */
+    static final String OWNER_MARKER_PREFIX = ".jenkins-owner-";
+
+    /**
+     * Markers written since startup, so a job costs one upload per controller start
+     */
+    private static final Set<String> MARKED = ConcurrentHashMap.newKeySet();
+
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "For tests and tuning")
+    static long recurrencePeriodHours =
+            SystemProperties.getLong(ArtifactoryOrphanCollector.class.getName() + ".recurrencePeriodHours", 24L);
+
+    /**
+     * Build folders modified more recently are kept, so runs being created, renamed or copied are never collected
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "For tests and tuning")
+    static long gracePeriodHours =
+            SystemProperties.getLong(ArtifactoryOrphanCollector.class.getName() + ".gracePeriodHours", 24L);
+
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "For tests and tuning")
+    static int pageSize = SystemProperties.getInteger(ArtifactoryOrphanCollector.class.getName() + ".pageSize", 1000);
+
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "For tests and tuning")
+    static int batchSize = SystemProperties.getInteger(ArtifactoryOrphanCollector.class.getName() + ".batchSize", 20);
+
+    /**
+     * Pause between two batches of deletions
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "For tests and tuning")
+    static long batchPauseMillis =
+            SystemProperties.getLong(ArtifactoryOrphanCollector.class.getName() + ".batchPauseMillis", 1000L);
+
+    public ArtifactoryOrphanCollector() {
+        super("Artifactory orphaned builds collector");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.HOURS.toMillis(recurrencePeriodHours);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        // Before all the jobs are loaded, every build folder would look orphaned
+        if (Jenkins.get().getInitLevel() != InitMilestone.COMPLETED) {
+            return;
+        }
+        ArtifactoryConfigSnapshot snapshot = ArtifactoryConfigSnapshot.get();
+        ArtifactoryGenericArtifactConfig config = snapshot.getConfig();
+        if (config == null || !config.isOrphanCollection() || snapshot.getArtifactoryConfig() == null) {
+            return;
+        }
+        try (ArtifactoryClient client = new ArtifactoryClient(snapshot.getArtifactoryConfig())) {
+            collect(client, snapshot.getPrefix(), listener);
+        } catch (IOException | InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Write the ownership marker in the folder of a job if orphan collection is enabled, so its build folders can be
+     * collected after the job is deleted. Never fails, a missing marker only keeps the folders
+     * @param job the job
+     */
+    static void markOwned(Job<?, ?> job) {
+        ArtifactoryConfigSnapshot snapshot = ArtifactoryConfigSnapshot.get();
+        ArtifactoryGenericArtifactConfig config = snapshot.getConfig();
+        if (config == null
+                || !config.isOrphanCollection()
+                || Util.fixEmpty(snapshot.getPrefix()) == null
+                || snapshot.getArtifactoryConfig() == null) {
+            return;
+        }
+        String path = Utils.getFilePath(job.getFullName().replace("%2F", "/"), ownerMarker());
+        String key = String.format("%s/%s/%s", snapshot.getServerUrl(), snapshot.getRepository(), path);
+        if (!MARKED.add(key)) {
+            return;
+        }
+        try (ArtifactoryClient client = new ArtifactoryClient(snapshot.getArtifactoryConfig())) {
+            client.uploadContent(new byte[0], path);
+        } catch (Exception e) {
+            MARKED.remove(key);
+            LOGGER.warn(String.format("Failed to write the ownership marker %s", path), e);
+        }
+    }
+
+    /**
+     * @return the name of the ownership marker of this controller
+     */
+    static String ownerMarker() {
+        return OWNER_MARKER_PREFIX + Jenkins.get().getLegacyInstanceId();
+    }
+
+    /**
+     * Find and delete the orphaned build folders
+     * @param client the client
+     * @param prefix the prefix of the build folders, ending with a slash
+     * @param listener the listener receiving the report
+     * @return the deleted build folders, none without a prefix
+     * @throws IOException if the build folders cannot be listed
+     * @throws InterruptedException if interrupted between two batches
+     */
+    List<BuildFolder> collect(ArtifactoryClient client, String prefix, TaskListener listener)
+            throws IOException, InterruptedException {
+        String root = Util.fixEmpty(prefix);
+        if (root == null) {
+            listener.getLogger().println("Not collecting orphaned build folders without a prefix");
+            return Collections.emptyList();
+        }
+        long start = System.nanoTime();
+        Set<String> owned = new HashSet<>();
+        Map<String, BuildFolder> folders = scan(client, root, owned);
+        Map<String, Job<?, ?>> jobs = new HashMap<>();
+        for (Job<?, ?> job : Jenkins.get().allItems(Job.class)) {
+            // Same key as the artifact manager
+            jobs.put(job.getFullName().replace("%2F", "/"), job);
+        }
+        long keptAfter = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(gracePeriodHours);
+        List<BuildFolder> orphans = new ArrayList<>();
+        for (BuildFolder folder : folders.values()) {
+            if (folder.lastUpdated >= keptAfter) {
+                continue;
+            }
+            Job<?, ?> job = jobs.get(folder.job);
+            if (job != null ? job.getBuildByNumber(folder.number) == null : owned.contains(folder.job)) {
+                orphans.add(folder);
+            }
+        }
+        listener.getLogger()
+                .println(String.format(
+                        "Found %d orphaned build folder(s) out of %d under %s", orphans.size(), folders.size(), root));
+
+        List<BuildFolder> deleted = new ArrayList<>();
+        long reclaimed = 0;
+        for (int i = 0; i < orphans.size(); i++) {
+            if (i > 0 && i % batchSize == 0) {
+                Thread.sleep(batchPauseMillis);
+            }
+            BuildFolder orphan = orphans.get(i);
+            String path = root + orphan.key;
+            try {
+                client.deleteArtifact(path);
+                deleted.add(orphan);
+                reclaimed += orphan.size;
+                listener.getLogger()
+                        .println(String.format(
+                                "Deleted %s, %d file(s) of %s", path, orphan.files, Utils.formatSize(orphan.size)));
+            } catch (Exception e) {
+                LOGGER.warn(String.format("Failed to delete orphaned build folder %s", path), e);
+            }
+        }
+        String report = String.format(
+                "Deleted %d orphaned build folder(s) of Artifactory in %d s, reclaiming %s",
+                deleted.size(),
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start),
+                Utils.formatSize(reclaimed));
+        listener.getLogger().println(report);
+        if (!deleted.isEmpty()) {
+            LOGGER.info(report);
+        }
+        return deleted;
+    }
+
+    /**
+     * Page through the files under the prefix and group them by build folder, collecting the jobs marked as owned by
+     * this controller on the way
+     */
+    private static Map<String, BuildFolder> scan(ArtifactoryClient client, String root, Set<String> owned)
+            throws IOException {
+        String marker = "/" + ownerMarker();
+        Map<String, BuildFolder> folders = new LinkedHashMap<>();
+        int offset = 0;
+        ArtifactoryClient.Page page;
+        do {
+            page = client.listFilesPage(root, offset, pageSize);
+            for (ArtifactoryClient.FileInfo file : page.getFiles()) {
+                if (!file.getPath().startsWith(root)) {
+                    continue;
+                }
+                String path = file.getPath().substring(root.length());
+                if (path.endsWith(marker)) {
+                    owned.add(path.substring(0, path.length() - marker.length()));
+                    continue;
+                }
+                BuildFolder folder = buildFolder(path);
+                if (folder == null) {
+                    continue;
+                }
+                folders.computeIfAbsent(folder.key, key -> folder).add(file);
+            }
+            offset = page.getNextOffset();
+        } while (page.hasMore());
+        return folders;
+    }
+
+    /**
+     * Find the build folder of a file, the outermost {@code <job>/<number>/artifacts} or {@code <job>/<number>/stashes}
+     * of its path, so folders named like a build inside the artifacts are not mistaken for builds. The shard folder of
+     * the sharded layout is not part of the job name
+     * @param path the path of the file, relative to the prefix
+     * @return the build folder or null if the file is not in a build folder
+     */
+    static BuildFolder buildFolder(String path) {
+        String[] segments = path.split("/");
+        for (int i = 1; i < segments.length - 2; i++) {
+            if (BUILD_NUMBER.matcher(segments[i]).matches()
+                    && (segments[i + 1].equals("artifacts") || segments[i + 1].equals("stashes"))) {
+                String key = String.join("/", Arrays.asList(segments).subList(0, i + 1));
+                int jobEnd = i > 1 && segments[i - 1].startsWith(Utils.SHARD_PREFIX) ? i - 1 : i;
+                String job = String.join("/", Arrays.asList(segments).subList(0, jobEnd));
+                try {
+                    return new BuildFolder(key, job, Integer.parseInt(segments[i]));
+                } catch (NumberFormatException e) {
+                    // Too large to be a build number
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Files of a build folder on Artifactory
+     */
+    static final class BuildFolder {
+        private final String key;
+        private final String job;
+        private final int number;
+        private long files;
+        private long size;
+        private long lastUpdated;
+
+        BuildFolder(String key, String job, int number) {
+            this.key = key;
+            this.job = job;
+            this.number = number;
+        }
+
+        private void add(ArtifactoryClient.FileInfo file) {
+            files++;
+            size += file.getSize();
+            lastUpdated = Math.max(lastUpdated, file.getLastUpdated());
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        String getJob() {
+            return job;
+        }
+
+        int getNumber() {
+            return number;
+        }
+
+        long getSize() {
+            return size;
+        }
+    }
+}
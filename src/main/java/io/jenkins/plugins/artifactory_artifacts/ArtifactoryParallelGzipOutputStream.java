@@ -0,0 +1,180 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip stream compressing blocks in parallel, like pigz.
+ * <p>
+ * The input is cut into blocks compressed on several threads. Each block is primed with the last 32 KiB of the
+ * previous one, so the ratio stays close to a single stream, and ends with a sync flush, so the compressed blocks
+ * concatenate into one deflate stream. The output is a standard gzip stream that any gzip reader can decompress.
+ * <p>
+ * At most two blocks per thread are in flight, which bounds the memory whatever the size of the input.
+ */
+final class ArtifactoryParallelGzipOutputStream extends OutputStream {
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final OutputStream out;
+    private final int blockSize;
+    private final int maxPending;
+    private final ExecutorService executor;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private long length;
+    private byte[] block;
+    private int blockLength;
+    private byte[] dictionary;
+    private boolean closed;
+
+    /**
+     * @param out the stream receiving the gzip data, closed with this stream
+     * @param threads the number of compression threads
+     * @param blockSize the size of the compressed blocks
+     * @throws IOException if the header cannot be written
+     */
+    ArtifactoryParallelGzipOutputStream(OutputStream out, int threads, int blockSize) throws IOException {
+        if (threads < 1 || blockSize < 1) {
+            throw new IllegalArgumentException("Threads and block size must be positive");
+        }
+        this.out = out;
+        this.blockSize = blockSize;
+        this.maxPending = threads * 2;
+        this.executor = Executors.newFixedThreadPool(
+                threads, new NamingThreadFactory(new DaemonThreadFactory(), "ArtifactoryParallelGzip"));
+        this.block = new byte[blockSize];
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            int copied = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, copied);
+            blockLength += copied;
+            off += copied;
+            len -= copied;
+            if (blockLength == blockSize) {
+                submit(false);
+            }
+        }
+    }
+
+    /**
+     * Compress the remaining data and write the gzip trailer, without closing the underlying stream
+     * @throws IOException if the data cannot be compressed or written
+     */
+    public void finish() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submit(true);
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+            writeInt((int) crc.getValue());
+            writeInt((int) length);
+            out.flush();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void submit(boolean last) throws IOException {
+        byte[] data = block;
+        int dataLength = blockLength;
+        byte[] primer = dictionary;
+        crc.update(data, 0, dataLength);
+        length += dataLength;
+        if (!last) {
+            dictionary = Arrays.copyOfRange(data, Math.max(0, dataLength - DICTIONARY_SIZE), dataLength);
+            block = new byte[blockSize];
+            blockLength = 0;
+        }
+        pending.add(executor.submit(() -> deflate(data, dataLength, primer, last)));
+        while (pending.size() > maxPending) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Future<byte[]> next = pending.poll();
+        try {
+            out.write(next.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress block", e.getCause());
+        }
+    }
+
+    private static byte[] deflate(byte[] data, int dataLength, byte[] primer, boolean last) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (primer != null) {
+                deflater.setDictionary(primer);
+            }
+            deflater.setInput(data, 0, dataLength);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(dataLength / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                // The sync flush ends the block on a byte boundary so the next block can follow it
+                int written;
+                do {
+                    written = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, written);
+                } while (written == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >> 8) & 0xFF);
+        out.write((value >> 16) & 0xFF);
+        out.write((value >> 24) & 0xFF);
+    }
+}
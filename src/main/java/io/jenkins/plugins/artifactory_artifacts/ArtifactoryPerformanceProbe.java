@@ -0,0 +1,261 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import hudson.Util;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measure the performance of an Artifactory site from the controller, and recommend settings for it.
+ * <p>
+ * The probe measures the round trip time, the single-stream and multi-stream upload and download throughput, the
+ * rate of small file uploads and the latency of AQL queries. It works in a temporary folder of the repository,
+ * deleted at the end, and transfers about {@value #STREAMS} times {@value #LARGE_FILE_SIZE} bytes each way.
+ */
+final class ArtifactoryPerformanceProbe {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactoryPerformanceProbe.class);
+
+    static final int PINGS = 5;
+    static final int LARGE_FILE_SIZE = 4 * 1024 * 1024;
+    static final int STREAMS = 4;
+    static final int SMALL_FILES = 20;
+    static final int SMALL_FILE_SIZE = 1024;
+    static final int AQL_QUERIES = 3;
+
+    /**
+     * Duration of transfer above which a file is worth splitting in parallel parts
+     */
+    private static final double MULTIPART_SECONDS = 2;
+
+    /**
+     * Duration of requests above which small files are worth batching in one archive
+     */
+    private static final double BATCHING_SECONDS = 5;
+
+    private final ArtifactoryClient client;
+    private final String folder;
+
+    /**
+     * @param client the client of the probed repository
+     * @param folder the temporary folder of the probe, deleted at the end
+     */
+    ArtifactoryPerformanceProbe(ArtifactoryClient client, String folder) {
+        this.client = client;
+        this.folder = Utils.stripTrailingSlash(folder);
+    }
+
+    /**
+     * Run the probe
+     * @return the measures
+     * @throws IOException if a request failed
+     * @throws InterruptedException if interrupted
+     */
+    Result run() throws IOException, InterruptedException {
+        Path tmp = Files.createTempDirectory("artifactory-probe");
+        try {
+            Result result = new Result();
+            result.rttNanos = median(PINGS, client::ping);
+
+            Path large = randomFile(tmp.resolve("large.bin"), LARGE_FILE_SIZE);
+            long start = System.nanoTime();
+            client.uploadArtifact(large, folder + "/single.bin");
+            result.singleUpload = rate(LARGE_FILE_SIZE, System.nanoTime() - start);
+            start = System.nanoTime();
+            drain(client.downloadArtifact(folder + "/single.bin"));
+            result.singleDownload = rate(LARGE_FILE_SIZE, System.nanoTime() - start);
+
+            result.multiUpload = parallel(stream -> client.uploadArtifact(large, multiPath(stream)));
+            result.multiDownload = parallel(stream -> drain(client.downloadArtifact(multiPath(stream))));
+
+            Path small = randomFile(tmp.resolve("small.bin"), SMALL_FILE_SIZE);
+            start = System.nanoTime();
+            for (int i = 0; i < SMALL_FILES; i++) {
+                client.uploadArtifact(small, folder + "/small/" + i + ".bin");
+            }
+            result.smallFileRate = rate(SMALL_FILES, System.nanoTime() - start);
+
+            result.aqlNanos = median(AQL_QUERIES, () -> client.listFiles(folder));
+            return result;
+        } finally {
+            Util.deleteRecursive(tmp.toFile());
+            try {
+                client.deleteArtifact(folder);
+            } catch (Exception e) {
+                LOGGER.warn(String.format("Failed to delete performance probe folder %s", folder), e);
+            }
+        }
+    }
+
+    private String multiPath(int stream) {
+        return String.format("%s/multi-%d.bin", folder, stream);
+    }
+
+    /**
+     * A measured request
+     */
+    @FunctionalInterface
+    private interface Measure {
+        Object run() throws IOException;
+    }
+
+    /**
+     * A measured transfer, one of the parallel streams
+     */
+    @FunctionalInterface
+    private interface Transfer {
+        Object run(int stream) throws IOException;
+    }
+
+    private static long median(int count, Measure measure) throws IOException {
+        long[] durations = new long[count];
+        for (int i = 0; i < count; i++) {
+            long start = System.nanoTime();
+            measure.run();
+            durations[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(durations);
+        return durations[count / 2];
+    }
+
+    /**
+     * Run the same transfer of {@value #LARGE_FILE_SIZE} bytes on parallel streams
+     * @return the aggregated throughput in bytes per second
+     */
+    private static double parallel(Transfer transfer) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(STREAMS);
+        try {
+            long start = System.nanoTime();
+            List<Future<Object>> streams = new ArrayList<>();
+            for (int i = 0; i < STREAMS; i++) {
+                int stream = i;
+                streams.add(executor.submit(() -> transfer.run(stream)));
+            }
+            for (Future<Object> stream : streams) {
+                stream.get();
+            }
+            return rate((long) STREAMS * LARGE_FILE_SIZE, System.nanoTime() - start);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Path randomFile(Path file, int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random().nextBytes(content);
+        return Files.write(file, content);
+    }
+
+    private static long drain(InputStream in) throws IOException {
+        try (in) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    private static double rate(long count, long nanos) {
+        return count / (Math.max(nanos, 1) / 1e9);
+    }
+
+    /**
+     * Measures of a probe
+     */
+    static final class Result {
+        private long rttNanos;
+        private double singleUpload;
+        private double singleDownload;
+        private double multiUpload;
+        private double multiDownload;
+        private double smallFileRate;
+        private long aqlNanos;
+
+        long getRttNanos() {
+            return rttNanos;
+        }
+
+        double getSingleUpload() {
+            return singleUpload;
+        }
+
+        double getMultiUpload() {
+            return multiUpload;
+        }
+
+        double getSmallFileRate() {
+            return smallFileRate;
+        }
+
+        long getAqlNanos() {
+            return aqlNanos;
+        }
+
+        /**
+         * @return the measures, one per line
+         */
+        List<String> getMeasures() {
+            List<String> lines = new ArrayList<>();
+            lines.add(String.format(Locale.ROOT, "Round trip time: %.1f ms", rttNanos / 1e6));
+            lines.add(String.format(
+                    "Single stream: upload %s/s, download %s/s",
+                    Utils.formatSize((long) singleUpload), Utils.formatSize((long) singleDownload)));
+            lines.add(String.format(
+                    "%d streams: upload %s/s, download %s/s",
+                    STREAMS, Utils.formatSize((long) multiUpload), Utils.formatSize((long) multiDownload)));
+            lines.add(String.format(
+                    Locale.ROOT, "Small files: %.1f upload(s)/s of %d bytes", smallFileRate, SMALL_FILE_SIZE));
+            lines.add(String.format(Locale.ROOT, "AQL query: %.1f ms", aqlNanos / 1e6));
+            return lines;
+        }
+
+        /**
+         * @return the recommended settings, one per line
+         */
+        List<String> getRecommendations() {
+            List<String> lines = new ArrayList<>();
+            double scaling = Math.min(multiUpload / singleUpload, multiDownload / singleDownload);
+            int streams = scaling >= STREAMS * 0.75 ? STREAMS * 2 : scaling >= 2 ? STREAMS : scaling >= 1.3 ? 2 : 1;
+            lines.add(String.format(
+                    Locale.ROOT,
+                    "Concurrency: %d parallel transfer(s), %d streams gave %.1fx the single stream throughput",
+                    streams,
+                    STREAMS,
+                    scaling));
+            if (streams > 1) {
+                lines.add(String.format(
+                        "Multipart threshold: %s, files taking more than %.0f s on a single stream",
+                        Utils.formatSize((long) (Math.min(singleUpload, singleDownload) * MULTIPART_SECONDS)),
+                        MULTIPART_SECONDS));
+            } else {
+                lines.add("Multipart threshold: none, parallel streams don't add throughput");
+            }
+            // Under this size, the cost of the request is higher than the transfer itself
+            double requestSeconds = 1 / smallFileRate;
+            lines.add(String.format(
+                    Locale.ROOT,
+                    "Small file batching: files under %s cost more in requests than in transfer, "
+                            + "batch them in one archive beyond %d files (%.0f s of requests)",
+                    Utils.formatSize((long) (requestSeconds * singleUpload)),
+                    Math.max(1, (long) (smallFileRate * BATCHING_SECONDS)),
+                    BATCHING_SECONDS));
+            if (aqlNanos > 10 * rttNanos && aqlNanos > TimeUnit.MILLISECONDS.toNanos(100)) {
+                lines.add("Metadata: AQL queries are slow compared to the round trip time, enable hedged requests");
+            }
+            return lines;
+        }
+    }
+}
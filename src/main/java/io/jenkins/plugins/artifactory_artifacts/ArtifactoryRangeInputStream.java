@@ -0,0 +1,216 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Seekable stream over an artifact, read with HTTP range requests.
+ * <p>
+ * While the stream is read sequentially, the rest of it is requested with a single range, open-ended when the stream
+ * ends with the artifact, so a full read needs one request after the first block. Seeking or skipping out of the
+ * current block drops it, which drops its connection instead of downloading its remaining bytes. From then on the
+ * artifact is read ahead lazily, one bounded block at a time. Blocks start small and double while the reads stay
+ * sequential, so random reads cost little more than the requested bytes.
+ * <p>
+ * The stream owns its client and closes it when closed.
+ */
+public final class ArtifactoryRangeInputStream extends InputStream {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactoryRangeInputStream.class);
+
+    static final int MIN_BLOCK_SIZE = 64 * 1024;
+    static final int MAX_BLOCK_SIZE = 8 * 1024 * 1024;
+
+    private final ArtifactoryClient client;
+    private final String path;
+    private final long end;
+    private final long size;
+    private long position;
+    private InputStream block;
+    private long blockEnd;
+    private int blockSize = MIN_BLOCK_SIZE;
+    private boolean sequential = true;
+    private CompletableFuture<InputStream> first;
+    private boolean closed;
+
+    /**
+     * @param client the client, closed with the stream
+     * @param path the path of the artifact
+     * @param start the offset of the first byte to read
+     * @param end the offset after the last byte to read, at most the length of the artifact
+     * @param size the length of the artifact
+     * @param first the first block of {@link #MIN_BLOCK_SIZE} bytes from the start, already requested, or null
+     */
+    ArtifactoryRangeInputStream(
+            ArtifactoryClient client,
+            String path,
+            long start,
+            long end,
+            long size,
+            @CheckForNull CompletableFuture<InputStream> first) {
+        this.client = client;
+        this.path = path;
+        this.position = start;
+        this.end = end;
+        this.size = size;
+        this.first = first;
+    }
+
+    /**
+     * @return the offset of the next byte to read
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the offset after the last byte of the stream
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Move to an offset. Moving forward inside the current block skips bytes already requested, otherwise the next
+     * read sends a new bounded range request
+     * @param offset the offset of the next byte to read, capped at the end of the stream
+     * @throws IOException if the stream is closed
+     */
+    public void seek(long offset) throws IOException {
+        ensureOpen();
+        if (offset < 0) {
+            throw new IOException("Negative offset " + offset);
+        }
+        long target = Math.min(offset, end);
+        if (target == position) {
+            return;
+        }
+        if (block != null && target > position && target < blockEnd && target - position <= MIN_BLOCK_SIZE) {
+            block.skipNBytes(target - position);
+            position = target;
+            return;
+        }
+        dropBlocks();
+        sequential = false;
+        blockSize = MIN_BLOCK_SIZE;
+        position = target;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int read = read(b, 0, 1);
+        return read < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= end) {
+            return -1;
+        }
+        if (block == null) {
+            openBlock();
+        }
+        int read = block.read(b, off, (int) Math.min(len, blockEnd - position));
+        if (read < 0) {
+            throw new EOFException(String.format("Unexpected end of %s at offset %d", path, position));
+        }
+        position += read;
+        if (position >= blockEnd) {
+            block.close();
+            block = null;
+            if (!sequential) {
+                blockSize = Math.min(blockSize * 2, MAX_BLOCK_SIZE);
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long from = position;
+        seek(Math.min(end, from + n));
+        return position - from;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return block == null ? 0 : (int) Math.min(block.available(), blockEnd - position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            dropBlocks();
+        } finally {
+            try {
+                client.close();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private void openBlock() throws IOException {
+        if (first != null && position == 0) {
+            block = ArtifactoryClient.await(first);
+            first = null;
+            blockEnd = Math.min(MIN_BLOCK_SIZE, end);
+            return;
+        }
+        if (sequential) {
+            LOGGER.trace(String.format("Reading %s from offset %d", path, position));
+            block = client.downloadFrom(path, position, end == size ? -1 : end);
+            blockEnd = end;
+            return;
+        }
+        long length = Math.min(blockSize, end - position);
+        LOGGER.trace(String.format("Reading %d byte(s) of %s at offset %d", length, path, position));
+        block = client.downloadRange(path, position, length);
+        blockEnd = position + length;
+    }
+
+    private void dropBlocks() throws IOException {
+        if (first != null) {
+            first.thenAccept(ArtifactoryRangeInputStream::closeQuietly);
+            first = null;
+        }
+        if (block != null) {
+            InputStream current = block;
+            block = null;
+            current.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            LOGGER.debug("Failed to close unused block", e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.util.FormValidation;
+import java.io.Serializable;
+import java.util.regex.Pattern;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Artifactory replica or edge serving the reads of the agents matching a label expression. It must expose the
+ * repository under the same name and accept the same credentials as the primary server
+ */
+public class ArtifactoryReadReplica extends AbstractDescribableImpl<ArtifactoryReadReplica> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Pattern SERVER_URL_PATTERN = Pattern.compile(
+            "^(http://|https://)[a-z0-9][a-z0-9-.]{0,}(?::[0-9]{1,5})?(/[0-9a-zA-Z_]*)*$", Pattern.CASE_INSENSITIVE);
+
+    private final String label;
+    private final String serverUrl;
+
+    @DataBoundConstructor
+    public ArtifactoryReadReplica(String label, String serverUrl) {
+        this.label = Util.fixEmptyAndTrim(label);
+        this.serverUrl = Util.fixEmptyAndTrim(serverUrl);
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    /**
+     * @param node the node
+     * @return true if the node matches the label expression
+     */
+    boolean matches(@CheckForNull Node node) {
+        if (node == null || label == null || serverUrl == null) {
+            return false;
+        }
+        Label parsed = Jenkins.get().getLabel(label);
+        return parsed != null && parsed.matches(node);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<ArtifactoryReadReplica> {
+
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Read replica";
+        }
+
+        @SuppressWarnings("lgtm[jenkins/csrf]")
+        public FormValidation doCheckLabel(@QueryParameter String label) {
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            if (Util.fixEmptyAndTrim(label) == null) {
+                return FormValidation.error("Label expression cannot be blank");
+            }
+            try {
+                Label.parseExpression(label);
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error("Invalid label expression: " + e.getMessage());
+            }
+            return FormValidation.ok();
+        }
+
+        @SuppressWarnings("lgtm[jenkins/csrf]")
+        public FormValidation doCheckServerUrl(@QueryParameter String serverUrl) {
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            if (Util.fixEmptyAndTrim(serverUrl) == null) {
+                return FormValidation.error("Server url cannot be blank");
+            }
+            if (!SERVER_URL_PATTERN.matcher(serverUrl.trim()).matches()) {
+                return FormValidation.error("Server url doesn't seem valid. Should start with http:// or https://");
+            }
+            return FormValidation.ok();
+        }
+    }
+}
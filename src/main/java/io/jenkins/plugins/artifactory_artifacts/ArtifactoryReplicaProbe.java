@@ -0,0 +1,127 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Latency of the read replicas as seen from this JVM, measured with the ping API and remembered for a while, so each
+ * agent reads from the closest replica it can reach.
+ * <p>
+ * Replicas are pinged in the background: downloads use the last known latencies and never wait for a probe. Replicas
+ * not probed yet are tried after the measured ones, in configuration order.
+ */
+final class ArtifactoryReplicaProbe {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactoryReplicaProbe.class);
+
+    private static final long PROBE_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final int PROBE_TIMEOUT_MILLIS = 2000;
+    private static final long UNREACHABLE = Long.MAX_VALUE;
+    private static final long UNKNOWN = Long.MAX_VALUE - 1;
+
+    private static final Map<String, Probe> PROBES = new ConcurrentHashMap<>();
+    private static final Set<String> PROBING = ConcurrentHashMap.newKeySet();
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), "ArtifactoryReplicaProbe"));
+
+    private ArtifactoryReplicaProbe() {}
+
+    /**
+     * Order replicas by their last known latency, closest first, and probe the stale ones in the background.
+     * Replicas found unreachable are left out
+     * @param urls the replica URLs, in configuration order
+     * @return the replica URLs to try
+     */
+    static List<String> order(List<String> urls) {
+        Map<String, Long> latencies = new HashMap<>();
+        List<String> reachable = new ArrayList<>();
+        for (String url : urls) {
+            long latency = latency(url);
+            if (latency != UNREACHABLE) {
+                latencies.put(url, latency);
+                reachable.add(url);
+            }
+        }
+        // Stable sort keeps the configuration order between replicas with the same latency
+        reachable.sort(Comparator.comparingLong(latencies::get));
+        return reachable;
+    }
+
+    /**
+     * Forget a replica latency, for example after it failed to serve a request
+     * @param url the replica URL
+     */
+    static void invalidate(String url) {
+        PROBES.put(url, new Probe(UNREACHABLE, System.nanoTime()));
+    }
+
+    /**
+     * @return the last known latency of a replica, or {@link #UNKNOWN} until its first probe is done
+     */
+    private static long latency(String url) {
+        Probe probe = PROBES.get(url);
+        if ((probe == null || System.nanoTime() - probe.probedAt > PROBE_INTERVAL_NANOS) && PROBING.add(url)) {
+            try {
+                EXECUTOR.execute(() -> {
+                    try {
+                        PROBES.put(url, new Probe(ping(url), System.nanoTime()));
+                    } finally {
+                        PROBING.remove(url);
+                    }
+                });
+            } catch (RuntimeException e) {
+                PROBING.remove(url);
+                LOGGER.debug(String.format("Failed to probe replica %s", url), e);
+            }
+        }
+        return probe == null ? UNKNOWN : probe.latencyNanos;
+    }
+
+    private static long ping(String url) {
+        long start = System.nanoTime();
+        try {
+            HttpURLConnection connection = (HttpURLConnection)
+                    new URL(Utils.stripTrailingSlash(url) + "/api/system/ping").openConnection();
+            connection.setConnectTimeout(PROBE_TIMEOUT_MILLIS);
+            connection.setReadTimeout(PROBE_TIMEOUT_MILLIS);
+            try {
+                // Any answer tells the round trip time, even without permission to ping
+                connection.getResponseCode();
+            } finally {
+                connection.disconnect();
+            }
+            long latency = System.nanoTime() - start;
+            LOGGER.debug(String.format(
+                    "Replica %s answered in %d ms", url, TimeUnit.NANOSECONDS.toMillis(latency)));
+            return latency;
+        } catch (IOException e) {
+            LOGGER.debug(String.format("Replica %s is unreachable", url), e);
+            return UNREACHABLE;
+        }
+    }
+
+    private static final class Probe {
+        private final long latencyNanos;
+        private final long probedAt;
+
+        private Probe(long latencyNanos, long probedAt) {
+            this.latencyNanos = latencyNanos;
+            this.probedAt = probedAt;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import jenkins.util.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hedge idempotent metadata requests to cut their tail latency: when a request has not answered after the
+ * {@value #PERCENTILE}th percentile of the recent latencies, the same request is sent again and the first answer wins.
+ * <p>
+ * Hedges are bounded by a budget: each request earns a twentieth of a hedge, so hedges stay under about 5% of the
+ * requests even when the server is slow for everybody.
+ */
+final class ArtifactoryRequestHedger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactoryRequestHedger.class);
+
+    private static final int PERCENTILE = 95;
+    private static final double BUDGET_RATIO = 0.05;
+    private static final double MAX_BUDGET = 10;
+    private static final int SAMPLES = 256;
+    private static final int MIN_SAMPLES = 20;
+
+    /**
+     * Delay before hedging, until enough latencies are known
+     */
+    private static final long DEFAULT_DELAY_MILLIS =
+            SystemProperties.getLong(ArtifactoryRequestHedger.class.getName() + ".defaultDelayMillis", 200L);
+
+    /**
+     * Lower bound of the delay before hedging, so fast servers are not hit twice by jitter alone
+     */
+    private static final long MIN_DELAY_MILLIS =
+            SystemProperties.getLong(ArtifactoryRequestHedger.class.getName() + ".minDelayMillis", 10L);
+
+    private static final ArtifactoryRequestHedger INSTANCE = new ArtifactoryRequestHedger();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), "ArtifactoryRequestHedger"));
+    private final long[] latencies = new long[SAMPLES];
+    private int sampleCount;
+    private int nextSample;
+    private double budget = MAX_BUDGET;
+    private long hedges;
+
+    private ArtifactoryRequestHedger() {}
+
+    static ArtifactoryRequestHedger get() {
+        return INSTANCE;
+    }
+
+    /**
+     * An idempotent request
+     */
+    @FunctionalInterface
+    interface Request<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * Run an idempotent request, hedging it if it is slow
+     * @param request the request
+     * @param <T> the type of the response
+     * @return the first response
+     * @throws IOException if all the sent requests failed
+     */
+    <T> T call(Request<T> request) throws IOException {
+        CompletionService<Timed<T>> completion = new ExecutorCompletionService<>(executor);
+        Future<Timed<T>> primary = completion.submit(() -> Timed.call(request));
+        Future<Timed<T>> hedge = null;
+        try {
+            Future<Timed<T>> done = completion.poll(hedgeDelayNanos(), TimeUnit.NANOSECONDS);
+            if (done == null && takeHedge()) {
+                LOGGER.debug("Hedging slow Artifactory request");
+                hedge = completion.submit(() -> Timed.call(request));
+            }
+            int pending = hedge == null ? 1 : 2;
+            ExecutionException failure = null;
+            while (pending > 0) {
+                if (done == null) {
+                    done = completion.take();
+                }
+                pending--;
+                try {
+                    Timed<T> result = done.get();
+                    // Latency of the winning attempt alone, a hedge must not count the delay before it was sent
+                    record(result.nanos);
+                    return result.value;
+                } catch (ExecutionException e) {
+                    failure = e;
+                    done = null;
+                }
+            }
+            Throwable cause = failure.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for Artifactory");
+        } finally {
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Response of one attempt with its own duration
+     */
+    private static final class Timed<T> {
+        private final T value;
+        private final long nanos;
+
+        private Timed(T value, long nanos) {
+            this.value = value;
+            this.nanos = nanos;
+        }
+
+        private static <T> Timed<T> call(Request<T> request) throws IOException {
+            long start = System.nanoTime();
+            T value = request.call();
+            return new Timed<>(value, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return the number of hedges sent since startup
+     */
+    synchronized long getHedgeCount() {
+        return hedges;
+    }
+
+    private synchronized long hedgeDelayNanos() {
+        budget = Math.min(MAX_BUDGET, budget + BUDGET_RATIO);
+        if (sampleCount < MIN_SAMPLES) {
+            return TimeUnit.MILLISECONDS.toNanos(DEFAULT_DELAY_MILLIS);
+        }
+        long[] sorted = Arrays.copyOf(latencies, sampleCount);
+        Arrays.sort(sorted);
+        long percentile = sorted[Math.min(sampleCount - 1, sampleCount * PERCENTILE / 100)];
+        return Math.max(percentile, TimeUnit.MILLISECONDS.toNanos(MIN_DELAY_MILLIS));
+    }
+
+    private synchronized boolean takeHedge() {
+        if (budget < 1) {
+            return false;
+        }
+        budget--;
+        hedges++;
+        return true;
+    }
+
+    private synchronized void record(long latencyNanos) {
+        latencies[nextSample] = latencyNanos;
+        nextSample = (nextSample + 1) % SAMPLES;
+        sampleCount = Math.min(sampleCount + 1, SAMPLES);
+    }
+}
@@ -0,0 +1,129 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of pre-signed download URLs, so redirecting many downloads of the same artifact costs a single request to
+ * Artifactory. A URL is reused while at least half of its validity remains, and entries are keyed by the
+ * configuration snapshot version so a configuration change never serves URLs of the previous server.
+ * <p>
+ * A failure to sign is remembered for the snapshot version too, so a server without signed URLs is not asked again
+ * on each download, and the failure is logged once.
+ */
+final class ArtifactorySignedUrlCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactorySignedUrlCache.class);
+    private static final int MAX_ENTRIES = 10_000;
+    private static final Map<String, Entry> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Delay before asking again a server that failed to sign a URL, unless the configuration changes
+     */
+    private static final long FAILURE_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static volatile Failure failure;
+
+    private ArtifactorySignedUrlCache() {}
+
+    /**
+     * Return a cached signed URL that is still valid for at least half of its validity
+     * @param snapshot the configuration snapshot
+     * @param targetPath the path of the artifact
+     * @return the signed URL or null if none is cached
+     */
+    static @CheckForNull String lookup(ArtifactoryConfigSnapshot snapshot, String targetPath) {
+        Entry entry = CACHE.get(key(snapshot, targetPath));
+        return entry != null && entry.refreshAt > System.currentTimeMillis() ? entry.url : null;
+    }
+
+    /**
+     * Check if signing failed recently with this configuration
+     * @param snapshot the configuration snapshot
+     * @return true if URLs must not be signed for now
+     */
+    static boolean isUnavailable(ArtifactoryConfigSnapshot snapshot) {
+        Failure last = failure;
+        return last != null
+                && last.version == snapshot.getVersion()
+                && last.retryAt > System.currentTimeMillis();
+    }
+
+    /**
+     * Remember that signing failed with this configuration. Only the first failure of a version is logged as warning
+     * @param snapshot the configuration snapshot
+     * @param targetPath the path of the artifact
+     * @param e the failure
+     */
+    static void failed(ArtifactoryConfigSnapshot snapshot, String targetPath, Exception e) {
+        Failure last = failure;
+        failure = new Failure(snapshot.getVersion(), System.currentTimeMillis() + FAILURE_RETRY_MILLIS);
+        String message = String.format(
+                "Failed to create signed URL for %s, serving artifacts through Jenkins for %d minutes",
+                targetPath, TimeUnit.MILLISECONDS.toMinutes(FAILURE_RETRY_MILLIS));
+        if (last == null || last.version != snapshot.getVersion()) {
+            LOGGER.warn(message, e);
+        } else {
+            LOGGER.debug(message, e);
+        }
+    }
+
+    /**
+     * Create a signed URL and cache it
+     * @param snapshot the configuration snapshot
+     * @param client the client used to create the URL
+     * @param targetPath the path of the artifact
+     * @param validForSeconds the validity of the URL in seconds
+     * @return the signed URL
+     * @throws IOException if the URL cannot be created
+     */
+    static String create(
+            ArtifactoryConfigSnapshot snapshot, ArtifactoryClient client, String targetPath, long validForSeconds)
+            throws IOException {
+        long now = System.currentTimeMillis();
+        String url = client.createSignedUrl(targetPath, validForSeconds);
+        if (CACHE.size() >= MAX_ENTRIES) {
+            evict(now);
+        }
+        CACHE.put(key(snapshot, targetPath), new Entry(url, now + TimeUnit.SECONDS.toMillis(validForSeconds) / 2));
+        LOGGER.trace(String.format("Created signed URL for %s valid for %d seconds", targetPath, validForSeconds));
+        return url;
+    }
+
+    private static String key(ArtifactoryConfigSnapshot snapshot, String targetPath) {
+        return String.format("%d:%s", snapshot.getVersion(), targetPath);
+    }
+
+    private static void evict(long now) {
+        CACHE.values().removeIf(entry -> entry.refreshAt <= now);
+        if (CACHE.size() >= MAX_ENTRIES) {
+            LOGGER.debug("Signed URL cache is full, clearing it");
+            CACHE.clear();
+        }
+    }
+
+    private static final class Failure {
+        private final long version;
+        private final long retryAt;
+
+        private Failure(long version, long retryAt) {
+            this.version = version;
+            this.retryAt = retryAt;
+        }
+    }
+
+    private static final class Entry {
+        private final String url;
+        private final long refreshAt;
+
+        private Entry(String url, long refreshAt) {
+            this.url = url;
+            this.refreshAt = refreshAt;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+/**
+ * Extract a stash with a pipeline instead of a single thread.
+ * <p>
+ * The download, the decompression and the tar parsing run on their own threads, connected by bounded queues of
+ * chunks, so the network is read while the previous chunks are decompressed and parsed. Small files are read from
+ * the tar in memory and written by a pool of writers with a single NIO write each; at most
+ * {@value #MAX_BUFFERED_KIB} KiB are waiting to be written. Larger files are streamed from the tar to a file sized up
+ * front. Directories are created once. An entry replacing a path, like a link, waits for the queued write of that
+ * path first, and small files are opened without following links.
+ * <p>
+ * Entries that would be written outside the target directory, directly or through a link of the stash, are refused.
+ */
+final class ArtifactoryUnstashPipeline {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int QUEUE_CHUNKS = 16;
+    private static final int MAX_BUFFERED_FILE = 1024 * 1024;
+    private static final int MAX_BUFFERED_KIB = 64 * 1024;
+    private static final int MIN_PRUNE_WRITES = 1024;
+
+    private final Path target;
+    private final int writers;
+    private final Set<Path> directories = new HashSet<>();
+    private final Set<Path> links = new HashSet<>();
+    private final Map<Path, Future<?>> pendingWrites = new HashMap<>();
+    private final Semaphore buffered = new Semaphore(MAX_BUFFERED_KIB);
+    private final AtomicReference<Throwable> writeFailure = new AtomicReference<>();
+
+    /**
+     * @param target the directory to extract to
+     * @param writers the number of threads writing files
+     */
+    ArtifactoryUnstashPipeline(Path target, int writers) {
+        this.target = target.toAbsolutePath().normalize();
+        this.writers = writers;
+    }
+
+    /**
+     * Extract a gzipped tar archive
+     * @param in the archive, closed when extracted
+     * @return the number of extracted files
+     * @throws IOException if the archive cannot be read or a file cannot be written
+     * @throws InterruptedException if interrupted
+     */
+    int extract(InputStream in) throws IOException, InterruptedException {
+        ExecutorService stages = Executors.newFixedThreadPool(
+                2, new NamingThreadFactory(new DaemonThreadFactory(), "ArtifactoryUnstash"));
+        ExecutorService writerPool = Executors.newFixedThreadPool(
+                writers, new NamingThreadFactory(new DaemonThreadFactory(), "ArtifactoryUnstash writer"));
+        ChunkPipe downloaded = new ChunkPipe();
+        ChunkPipe decompressed = new ChunkPipe();
+        try {
+            stages.execute(() -> pump(in, downloaded));
+            stages.execute(() -> {
+                try {
+                    pump(new GZIPInputStream(downloaded.input(), CHUNK_SIZE), decompressed);
+                } catch (Throwable e) {
+                    downloaded.close();
+                    decompressed.fail(e);
+                }
+            });
+            int files = 0;
+            int pruneAt = MIN_PRUNE_WRITES;
+            try (TarArchiveInputStream tar = new TarArchiveInputStream(decompressed.input())) {
+                TarArchiveEntry entry;
+                while ((entry = tar.getNextEntry()) != null) {
+                    checkWrites();
+                    Path file = resolve(entry.getName());
+                    if (entry.isDirectory()) {
+                        directory(file);
+                        continue;
+                    }
+                    directory(file.getParent());
+                    awaitWrite(file);
+                    if (links.contains(file)) {
+                        Files.delete(file);
+                        links.remove(file);
+                    }
+                    if (entry.isSymbolicLink()) {
+                        Files.deleteIfExists(file);
+                        Files.createSymbolicLink(file, Paths.get(entry.getLinkName()));
+                        links.add(file);
+                        continue;
+                    }
+                    files++;
+                    int mode = entry.getMode() & 0777;
+                    FileTime modified = entry.getLastModifiedTime();
+                    long size = entry.getSize();
+                    if (size > MAX_BUFFERED_FILE) {
+                        writeLarge(file, tar, size);
+                        finish(file, mode, modified);
+                        continue;
+                    }
+                    byte[] data = tar.readNBytes((int) size);
+                    if (data.length < size) {
+                        throw new EOFException(String.format("Truncated stash entry %s", entry.getName()));
+                    }
+                    int permits = (int) Math.max(1, (size + 1023) / 1024);
+                    buffered.acquire(permits);
+                    pendingWrites.put(file, writerPool.submit(() -> {
+                        try {
+                            writeSmall(file, data);
+                            finish(file, mode, modified);
+                        } catch (Throwable e) {
+                            writeFailure.compareAndSet(null, e);
+                        } finally {
+                            buffered.release(permits);
+                        }
+                    }));
+                    if (pendingWrites.size() >= pruneAt) {
+                        pendingWrites.values().removeIf(Future::isDone);
+                        pruneAt = Math.max(MIN_PRUNE_WRITES, pendingWrites.size() * 2);
+                    }
+                }
+            }
+            // Wait for the pending writes
+            buffered.acquire(MAX_BUFFERED_KIB);
+            buffered.release(MAX_BUFFERED_KIB);
+            checkWrites();
+            return files;
+        } finally {
+            downloaded.close();
+            decompressed.close();
+            stages.shutdownNow();
+            writerPool.shutdownNow();
+        }
+    }
+
+    private Path resolve(String name) throws IOException {
+        Path file = target.resolve(name).normalize();
+        if (!file.startsWith(target)) {
+            throw new IOException(
+                    String.format("Tar %s contains illegal file name that breaks out of the target directory", name));
+        }
+        if (!links.isEmpty()) {
+            for (Path parent = file.getParent();
+                    parent != null && !parent.equals(target);
+                    parent = parent.getParent()) {
+                if (links.contains(parent)) {
+                    throw new IOException(String.format(
+                            "Tar %s contains illegal file name that goes through the link %s", name, parent));
+                }
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Wait for the queued write of a path, so it doesn't follow a link or overwrite a later entry of the same path
+     */
+    private void awaitWrite(Path file) throws IOException, InterruptedException {
+        Future<?> write = pendingWrites.remove(file);
+        if (write == null) {
+            return;
+        }
+        try {
+            write.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to write unstashed file", e.getCause());
+        }
+    }
+
+    private void directory(Path directory) throws IOException {
+        if (directory == null || directory.equals(target) || directories.contains(directory)) {
+            return;
+        }
+        Files.createDirectories(directory);
+        for (Path parent = directory; parent != null && parent.startsWith(target); parent = parent.getParent()) {
+            if (!directories.add(parent)) {
+                break;
+            }
+        }
+    }
+
+    private static void writeSmall(Path file, byte[] data) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                LinkOption.NOFOLLOW_LINKS)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static void writeLarge(Path file, InputStream tar, long size) throws IOException {
+        try (RandomAccessFile output = new RandomAccessFile(file.toFile(), "rw")) {
+            output.setLength(size);
+            FileChannel channel = output.getChannel();
+            // Not closed, it would close the tar
+            ReadableByteChannel source = Channels.newChannel(tar);
+            long written = 0;
+            while (written < size) {
+                long transferred = channel.transferFrom(source, written, size - written);
+                if (transferred <= 0) {
+                    throw new EOFException(String.format("Truncated stash entry %s", file));
+                }
+                written += transferred;
+            }
+        }
+    }
+
+    private static void finish(Path file, int mode, FileTime modified) throws IOException, InterruptedException {
+        Files.setLastModifiedTime(file, modified);
+        if (mode != 0 && !Functions.isWindows()) {
+            new FilePath(file.toFile()).chmod(mode);
+        }
+    }
+
+    private void checkWrites() throws IOException {
+        Throwable failure = writeFailure.get();
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure != null) {
+            throw new IOException("Failed to write unstashed file", failure);
+        }
+    }
+
+    /**
+     * Copy a stream to a pipe, then close both
+     */
+    private static void pump(InputStream in, ChunkPipe out) {
+        try (in) {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int length = 0;
+            int read;
+            while ((read = in.read(chunk, length, CHUNK_SIZE - length)) >= 0) {
+                length += read;
+                if (length == CHUNK_SIZE) {
+                    out.put(chunk);
+                    chunk = new byte[CHUNK_SIZE];
+                    length = 0;
+                }
+            }
+            if (length > 0) {
+                byte[] last = new byte[length];
+                System.arraycopy(chunk, 0, last, 0, length);
+                out.put(last);
+            }
+            out.put(ChunkPipe.END);
+        } catch (Throwable e) {
+            // Errors too, the consumer would wait forever otherwise
+            out.fail(e);
+        }
+    }
+
+    /**
+     * Bounded queue of chunks between two stages. The producer fails the pipe to pass its error to the consumer, and
+     * the consumer closes it to stop the producer
+     */
+    private static final class ChunkPipe {
+        private static final byte[] END = new byte[0];
+
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private volatile boolean closed;
+        private final InputStream input = new InputStream() {
+            private byte[] chunk;
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                while (chunk == null || position == chunk.length) {
+                    if (chunk == END) {
+                        return -1;
+                    }
+                    chunk = take();
+                    position = 0;
+                }
+                int read = Math.min(len, chunk.length - position);
+                System.arraycopy(chunk, position, b, off, read);
+                position += read;
+                return read;
+            }
+
+            @Override
+            public void close() {
+                ChunkPipe.this.close();
+            }
+        };
+
+        InputStream input() {
+            return input;
+        }
+
+        /**
+         * Stop the producer, as the rest of the stream is not needed
+         */
+        void close() {
+            closed = true;
+            chunks.clear();
+        }
+
+        void put(byte[] chunk) throws IOException {
+            try {
+                while (!chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                    if (closed) {
+                        throw new IOException("Unstash pipeline closed");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while unstashing");
+            }
+        }
+
+        void fail(Throwable e) {
+            failure.compareAndSet(null, e);
+        }
+
+        private byte[] take() throws IOException {
+            try {
+                while (true) {
+                    byte[] next = chunks.poll(100, TimeUnit.MILLISECONDS);
+                    if (next != null) {
+                        return next;
+                    }
+                    // The chunks queued before the failure are still valid
+                    Throwable e = failure.get();
+                    if (e != null) {
+                        throw e instanceof IOException ? (IOException) e : new IOException(e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while unstashing");
+            }
+        }
+    }
+}
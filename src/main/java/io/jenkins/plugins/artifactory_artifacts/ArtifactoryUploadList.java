@@ -0,0 +1,192 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compact list of the files to upload, sent to the agent instead of one object with a full target path per file.
+ * <p>
+ * Target paths are relative to the artifacts folder of the run and sorted. Each entry is front-coded against the
+ * previous one: the length of the shared prefix, then the remaining bytes. The workspace name follows, as a single
+ * zero byte when it is the same as the artifact path, which is the usual case. The same encoding is used inline in
+ * the callable and when the list is streamed to the agent through a pipe.
+ */
+final class ArtifactoryUploadList implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int END = 0;
+    private static final int ENTRY = 1;
+
+    private final int size;
+    private final byte[] data;
+
+    private ArtifactoryUploadList(int size, byte[] data) {
+        this.size = size;
+        this.data = data;
+    }
+
+    /**
+     * Encode the artifacts to archive
+     * @param artifacts the artifact paths mapped to their workspace names
+     * @return the list
+     */
+    static ArtifactoryUploadList of(Map<String, String> artifacts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            write(artifacts, out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unexpected I/O error in memory", e);
+        }
+        return new ArtifactoryUploadList(artifacts.size(), out.toByteArray());
+    }
+
+    /**
+     * Encode the artifacts to archive to a stream, followed by an end marker
+     * @param artifacts the artifact paths mapped to their workspace names
+     * @param out the stream
+     * @throws IOException if the stream cannot be written
+     */
+    static void write(Map<String, String> artifacts, OutputStream out) throws IOException {
+        byte[] previous = new byte[0];
+        for (Map.Entry<String, String> artifact : new TreeMap<>(artifacts).entrySet()) {
+            byte[] path = artifact.getKey().getBytes(StandardCharsets.UTF_8);
+            int shared = Arrays.mismatch(previous, path);
+            if (shared < 0) {
+                shared = path.length;
+            }
+            out.write(ENTRY);
+            writeVarInt(out, shared);
+            writeVarInt(out, path.length - shared);
+            out.write(path, shared, path.length - shared);
+            if (artifact.getKey().equals(artifact.getValue())) {
+                writeVarInt(out, 0);
+            } else {
+                byte[] name = artifact.getValue().getBytes(StandardCharsets.UTF_8);
+                writeVarInt(out, name.length + 1);
+                out.write(name);
+            }
+            previous = path;
+        }
+        out.write(END);
+    }
+
+    int size() {
+        return size;
+    }
+
+    Reader reader() {
+        return new Reader(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Decode entries one at a time, as they arrive
+     */
+    static final class Reader {
+        private final InputStream in;
+        private byte[] previous = new byte[0];
+
+        Reader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @return the next entry or null at the end of the list
+         * @throws IOException if the list cannot be read or is truncated
+         */
+        @CheckForNull
+        Entry next() throws IOException {
+            int marker = in.read();
+            if (marker == END) {
+                return null;
+            }
+            if (marker != ENTRY) {
+                throw new EOFException("Truncated upload list");
+            }
+            int shared = readVarInt();
+            int suffix = readVarInt();
+            byte[] path = Arrays.copyOf(previous, shared + suffix);
+            readFully(path, shared, suffix);
+            previous = path;
+            String artifact = new String(path, StandardCharsets.UTF_8);
+            int nameLength = readVarInt();
+            if (nameLength == 0) {
+                return new Entry(artifact, artifact);
+            }
+            byte[] name = new byte[nameLength - 1];
+            readFully(name, 0, name.length);
+            return new Entry(artifact, new String(name, StandardCharsets.UTF_8));
+        }
+
+        private void readFully(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                int read = in.read(bytes, offset, length);
+                if (read < 0) {
+                    throw new EOFException("Truncated upload list");
+                }
+                offset += read;
+                length -= read;
+            }
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in.read();
+                if (b < 0) {
+                    throw new EOFException("Truncated upload list");
+                }
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+
+    /**
+     * A file to upload
+     */
+    static final class Entry {
+        private final String path;
+        private final String name;
+
+        private Entry(String path, String name) {
+            this.path = path;
+            this.name = name;
+        }
+
+        /**
+         * @return the artifact path, relative to the artifacts folder
+         */
+        String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the file name, relative to the workspace
+         */
+        String getName() {
+            return name;
+        }
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
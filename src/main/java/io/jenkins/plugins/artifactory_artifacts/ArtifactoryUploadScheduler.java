@@ -0,0 +1,153 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Run transfers on a fixed number of lanes so they all finish close to each other.
+ * <p>
+ * Transfers are scheduled largest first, so a huge file queued last doesn't leave one connection busy while the
+ * others are idle. When there is more than one lane, the first lane takes the smallest transfers instead and works
+ * through the flood of tiny files while the other lanes are busy with the large ones. Transfers can be added while
+ * the lanes are running, for example as their list is streamed from the controller.
+ *
+ * @param <T> the type of the transferred items
+ * @param <R> the type of the transfer results
+ */
+final class ArtifactoryUploadScheduler<T, R> {
+
+    /**
+     * A transfer
+     */
+    @FunctionalInterface
+    interface Transfer<T, R> {
+        R run(T item) throws IOException;
+    }
+
+    private final Transfer<T, R> transfer;
+    private final ExecutorService executor;
+    private final List<Future<?>> lanes = new ArrayList<>();
+    private final TreeSet<Task<T>> queue = new TreeSet<>(
+            Comparator.<Task<T>>comparingLong(task -> task.size).thenComparingLong(task -> task.sequence));
+    private final List<R> results = Collections.synchronizedList(new ArrayList<>());
+    private long sequence;
+    private boolean closed;
+    private IOException failure;
+
+    ArtifactoryUploadScheduler(int lanes, Transfer<T, R> transfer) {
+        this.transfer = transfer;
+        this.executor = Executors.newFixedThreadPool(lanes);
+        for (int lane = 0; lane < lanes; lane++) {
+            boolean smallest = lanes > 1 && lane == 0;
+            this.lanes.add(executor.submit(() -> {
+                runLane(smallest);
+                return null;
+            }));
+        }
+    }
+
+    /**
+     * Queue a transfer
+     * @param item the item to transfer
+     * @param size the size of the item, used to schedule the transfer
+     */
+    synchronized void add(T item, long size) {
+        if (closed) {
+            throw new IllegalStateException("Scheduler is closed");
+        }
+        if (failure == null) {
+            queue.add(new Task<>(item, size, sequence++));
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait for all queued transfers. No transfer can be added afterwards
+     * @return the results of the transfers, in completion order
+     * @throws IOException if a transfer failed. The remaining queued transfers are skipped
+     * @throws InterruptedException if interrupted while waiting. The running transfers are interrupted
+     */
+    List<R> finish() throws IOException, InterruptedException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            for (Future<?> lane : lanes) {
+                lane.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * Stop the lanes without waiting for the queued transfers
+     */
+    void abort() {
+        synchronized (this) {
+            closed = true;
+            queue.clear();
+            notifyAll();
+        }
+        executor.shutdownNow();
+    }
+
+    private void runLane(boolean smallest) throws InterruptedException {
+        Task<T> task;
+        while ((task = next(smallest)) != null) {
+            try {
+                results.add(transfer.run(task.item));
+            } catch (IOException | RuntimeException e) {
+                fail(e instanceof IOException ? (IOException) e : new IOException(e));
+                return;
+            }
+        }
+    }
+
+    private synchronized Task<T> next(boolean smallest) throws InterruptedException {
+        while (queue.isEmpty() && !closed && failure == null) {
+            wait();
+        }
+        if (failure != null || queue.isEmpty()) {
+            return null;
+        }
+        return smallest ? queue.pollFirst() : queue.pollLast();
+    }
+
+    private synchronized void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+        queue.clear();
+        notifyAll();
+    }
+
+    private static final class Task<T> {
+        private final T item;
+        private final long size;
+        private final long sequence;
+
+        private Task(T item, long size, long sequence) {
+            this.item = item;
+            this.size = size;
+            this.sequence = sequence;
+        }
+    }
+}
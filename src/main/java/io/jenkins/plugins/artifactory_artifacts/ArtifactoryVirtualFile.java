@@ -2,17 +2,24 @@ package io.jenkins.plugins.artifactory_artifacts;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
 import hudson.model.Run;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.Collections;
+import java.nio.file.OpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import jenkins.model.ArtifactManager;
 import jenkins.util.VirtualFile;
+import org.apache.tools.ant.DirectoryScanner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,33 +27,144 @@ public class ArtifactoryVirtualFile extends ArtifactoryAbstractVirtualFile {
 
     private static final long serialVersionUID = 1L;
     private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactoryVirtualFile.class);
+    private static final int ZIP_THREADS = 4;
+    private static final int ZIP_READ_AHEAD = 16;
+    private static final long ZIP_MAX_PREFETCH_SIZE = 4 * 1024 * 1024;
 
     @SuppressWarnings("lgtm[jenkins/plaintext-storage]")
     private final String key;
 
     private final transient Run<?, ?> build;
     private final ArtifactoryClient.FileInfo fileInfo;
+    private final transient ArtifactoryListing listing;
+    private final transient int index;
+    private final transient boolean browsed;
+    private transient volatile ArtifactoryClient.FileInfo resolved;
 
     public ArtifactoryVirtualFile(String key, Run<?, ?> build) {
         this.key = key;
         this.build = build;
         this.fileInfo = null;
+        this.listing = null;
+        this.index = -1;
+        this.browsed = false;
     }
 
     public ArtifactoryVirtualFile(ArtifactoryClient.FileInfo fileInfo, Run<?, ?> build) {
+        this(fileInfo, build, false);
+    }
+
+    /**
+     * @param browsed true for a child listed one level at a time, named relative to its folder
+     */
+    private ArtifactoryVirtualFile(ArtifactoryClient.FileInfo fileInfo, Run<?, ?> build, boolean browsed) {
         this.key = fileInfo.getPath();
         this.build = build;
         this.fileInfo = fileInfo;
+        this.listing = null;
+        this.index = -1;
+        this.browsed = browsed;
+    }
+
+    /**
+     * Lightweight view of a listing entry. The path and metadata are decoded from the listing when needed
+     * @param browsed true for a child listed one level at a time, named relative to its folder
+     */
+    private ArtifactoryVirtualFile(ArtifactoryListing listing, int index, Run<?, ?> build, boolean browsed) {
+        this.key = null;
+        this.build = build;
+        this.fileInfo = null;
+        this.listing = listing;
+        this.index = index;
+        this.browsed = browsed;
     }
 
     public String getKey() {
-        return key;
+        return listing != null ? listing.getPath(index) : key;
     }
 
+    /**
+     * Return the known information of this file, from the listing it comes from or the manifest of the run
+     */
+    @CheckForNull
+    private ArtifactoryClient.FileInfo fileInfo() {
+        if (listing != null) {
+            return listing.getFileInfo(index);
+        }
+        if (fileInfo != null) {
+            return fileInfo;
+        }
+        ArtifactoryManifest manifest = manifest();
+        if (manifest != null) {
+            ArtifactoryClient.FileInfo file = manifest.file(getKey());
+            if (file != null) {
+                return file;
+            }
+            if (manifest.isDirectory(getKey())) {
+                return ArtifactoryManifest.folder(getKey());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the manifest of the run when it describes this path, so queries are answered without asking Artifactory.
+     * Runs archived without manifest return null
+     */
+    @CheckForNull
+    private ArtifactoryManifest manifest() {
+        if (build == null) {
+            return null;
+        }
+        ArtifactManager artifactManager = build.getArtifactManager();
+        if (!(artifactManager instanceof ArtifactoryArtifactManager)) {
+            return null;
+        }
+        ArtifactoryManifest manifest = ((ArtifactoryArtifactManager) artifactManager).getManifest();
+        return manifest != null && manifest.covers(getKey()) ? manifest : null;
+    }
+
+    /**
+     * Wait for the artifacts the run still uploads in the background, so reads during the build see all of them.
+     * Views come from a listing made after the wait and don't wait again
+     * @throws IOException if an artifact failed to upload
+     */
+    private void awaitUploads() throws IOException {
+        if (build == null || listing != null) {
+            return;
+        }
+        ArtifactManager artifactManager = build.getArtifactManager();
+        if (!(artifactManager instanceof ArtifactoryArtifactManager)) {
+            return;
+        }
+        try {
+            ((ArtifactoryArtifactManager) artifactManager).awaitDeferredUploads();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    String.format("Interrupted while waiting for the artifacts of %s to upload", build));
+        }
+    }
+
+    /**
+     * Views are serialized as plain virtual files, as the listing is not. The directory browser never serializes them
+     */
+    private Object writeReplace() {
+        return listing != null ? new ArtifactoryVirtualFile(listing.getFileInfo(index), build) : this;
+    }
+
+    /**
+     * Return the path relative to the artifacts folder of the run, as listings are flat. Only the one-level children
+     * listed with paged browsing are named relative to their folder, which callers walking the tree resolve them
+     * against
+     */
     @NonNull
     @Override
     public String getName() {
-        String localKey = Utils.stripTrailingSlash(key);
+        String localKey = Utils.stripTrailingSlash(getKey());
+        if (browsed) {
+            return localKey.replaceFirst(".*/", "");
+        }
         return localKey.replaceFirst(".*/artifacts/", "");
     }
 
@@ -54,7 +172,7 @@ public class ArtifactoryVirtualFile extends ArtifactoryAbstractVirtualFile {
     @Override
     public URI toURI() {
         try {
-            return new URI(Utils.getUrl(this.key));
+            return new URI(Utils.getUrl(getKey()));
         } catch (URISyntaxException e) {
             throw new RuntimeException(e);
         }
@@ -63,44 +181,77 @@ public class ArtifactoryVirtualFile extends ArtifactoryAbstractVirtualFile {
     @CheckForNull
     @Override
     public URL toExternalURL() throws IOException {
-        return new URL(Utils.getUrl(this.key));
+        ArtifactoryConfigSnapshot snapshot = ArtifactoryConfigSnapshot.get();
+        ArtifactoryGenericArtifactConfig config = snapshot.getConfig();
+        if (config != null && config.isSignedUrls()) {
+            ArtifactoryClient.FileInfo info = fileInfo();
+            if (info != null && info.isDirectory()) {
+                return null;
+            }
+            String signedUrl = ArtifactorySignedUrlCache.lookup(snapshot, getKey());
+            if (signedUrl != null) {
+                return new URL(signedUrl);
+            }
+            if (ArtifactorySignedUrlCache.isUnavailable(snapshot)) {
+                return null;
+            }
+            try (ArtifactoryClient client = buildArtifactoryClient()) {
+                return new URL(
+                        ArtifactorySignedUrlCache.create(snapshot, client, getKey(), config.getSignedUrlExpiry()));
+            } catch (Exception e) {
+                // Let Jenkins serve the artifact through open()
+                ArtifactorySignedUrlCache.failed(snapshot, getKey(), e);
+                return null;
+            }
+        }
+        return new URL(Utils.getUrl(getKey()));
     }
 
     @Override
     public VirtualFile getParent() {
-        return new ArtifactoryVirtualFile(this.key.replaceFirst("/[^/]+$", ""), this.build);
+        return new ArtifactoryVirtualFile(getKey().replaceFirst("/[^/]+$", ""), this.build);
     }
 
     @Override
     public boolean isDirectory() throws IOException {
-        if (this.fileInfo != null) {
-            return this.fileInfo.isDirectory();
+        awaitUploads();
+        ArtifactoryClient.FileInfo info = fileInfo();
+        if (info != null) {
+            return info.isDirectory();
         }
-        String keyWithNoSlash = Utils.stripTrailingSlash(this.key);
-        if (keyWithNoSlash.endsWith("/*view*")) {
+        if (manifest() != null) {
             return false;
         }
-        try (ArtifactoryClient client = buildArtifactoryClient()) {
-            return client.isFolder(this.key);
+        if (isView()) {
+            return false;
+        }
+        try {
+            info = resolve();
+            return info != null && info.isDirectory();
         } catch (Exception e) {
-            LOGGER.warn(String.format("Failed to check if %s is a directory", this.key), e);
+            LOGGER.warn(String.format("Failed to check if %s is a directory", getKey()), e);
             return false;
         }
     }
 
     @Override
     public boolean isFile() throws IOException {
-        if (this.fileInfo != null) {
-            return this.fileInfo.isFile();
+        awaitUploads();
+        ArtifactoryClient.FileInfo info = fileInfo();
+        if (info != null) {
+            return info.isFile();
         }
-        String keyS = this.key + "/";
-        if (keyS.endsWith("/*view*/")) {
+        if (manifest() != null) {
             return false;
         }
-        try (ArtifactoryClient client = buildArtifactoryClient()) {
-            return client.isFile(this.key);
+        if (isView()) {
+            return false;
+        }
+        try {
+            info = resolve();
+            return info != null && info.isFile();
         } catch (Exception e) {
-            LOGGER.warn(String.format("Failed to check if %s is a file", this.key), e);
+            LOGGER.warn(String.format("Failed to check if %s is a file", getKey()), e);
             return false;
         }
     }
@@ -110,50 +261,192 @@ public class ArtifactoryVirtualFile extends ArtifactoryAbstractVirtualFile {
         return isDirectory() || isFile();
     }
 
+    /**
+     * List all the files under this folder, named relative to the artifacts folder. With paged browsing, list the
+     * direct children instead, named relative to this folder, so each directory level costs bounded queries
+     */
     @NonNull
     @Override
     public VirtualFile[] list() throws IOException {
-        String prefix = Utils.stripTrailingSlash(this.key) + "/";
-        List<VirtualFile> files = listFilesFromPrefix(prefix);
-        if (files.isEmpty()) {
-            return new VirtualFile[0];
+        awaitUploads();
+        if (isPagedBrowsing()) {
+            return browse();
+        }
+        ArtifactoryManifest manifest = manifest();
+        if (manifest != null) {
+            int[] range = manifest.range(getKey());
+            return toVirtualFiles(manifest.getListing(), range[0], range[1]);
+        }
+        String prefix = Utils.stripTrailingSlash(getKey()) + "/";
+        return toVirtualFiles(listFilesFromPrefix(prefix), false);
+    }
+
+    /**
+     * List all the direct children of this folder, from the manifest of the run or page by page on Artifactory
+     * @return the children, named relative to this folder
+     * @throws IOException if the children cannot be listed
+     */
+    @NonNull
+    VirtualFile[] browse() throws IOException {
+        ArtifactoryManifest manifest = manifest();
+        if (manifest != null) {
+            return manifestChildren(manifest, true);
+        }
+        int pageSize = getBrowsingPageSize();
+        ArtifactoryListing.Builder builder = ArtifactoryListing.builder(childrenBase());
+        try (ArtifactoryClient client = buildArtifactoryClient()) {
+            ArtifactoryClient.Page page = client.listPage(getKey(), 0, pageSize);
+            page.getFiles().forEach(builder::add);
+            while (page.hasMore()) {
+                page = client.listPage(getKey(), page.getNextOffset(), pageSize);
+                page.getFiles().forEach(builder::add);
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        return toVirtualFiles(builder.build(), true);
+    }
+
+    /**
+     * List one page of the direct children of this folder, sorted by name on Artifactory
+     * @param offset the index of the first child to return
+     * @param limit the maximum number of children to return
+     * @return the children
+     * @throws IOException if the children cannot be listed
+     */
+    @NonNull
+    public VirtualFile[] list(int offset, int limit) throws IOException {
+        awaitUploads();
+        ArtifactoryManifest manifest = manifest();
+        if (manifest != null) {
+            VirtualFile[] children = manifestChildren(manifest, false);
+            int from = Math.min(Math.max(offset, 0), children.length);
+            return Arrays.copyOfRange(children, from, (int) Math.min((long) from + limit, children.length));
+        }
+        try (ArtifactoryClient client = buildArtifactoryClient()) {
+            return toVirtualFiles(toListing(client.listPage(getKey(), offset, limit).getFiles()), false);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
         }
-        return files.toArray(new VirtualFile[0]);
     }
 
     @NonNull
     @Override
     public VirtualFile child(@NonNull String name) {
-        String joinedKey = Utils.stripTrailingSlash(this.key) + "/" + name;
+        String joinedKey = Utils.stripTrailingSlash(getKey()) + "/" + name;
         return new ArtifactoryVirtualFile(joinedKey, build);
     }
 
     @Override
     public long length() throws IOException {
-        if (this.fileInfo != null) {
-            return this.fileInfo.getSize();
+        awaitUploads();
+        ArtifactoryClient.FileInfo info = fileInfo();
+        if (info != null) {
+            return info.getSize();
         }
-        try (ArtifactoryClient client = buildArtifactoryClient()) {
-            return client.size(this.key);
+        if (manifest() != null) {
+            return 0;
+        }
+        try {
+            info = resolve();
+            return info != null && info.isFile() ? info.getSize() : 0;
         } catch (Exception e) {
-            LOGGER.warn(String.format("Failed to get size of %s", this.key), e);
+            LOGGER.warn(String.format("Failed to get size of %s", getKey()), e);
             return 0;
         }
     }
 
     @Override
     public long lastModified() throws IOException {
-        if (this.fileInfo != null) {
-            return this.fileInfo.getLastUpdated();
+        awaitUploads();
+        ArtifactoryClient.FileInfo info = fileInfo();
+        if (info != null) {
+            return info.getLastUpdated();
         }
-        try (ArtifactoryClient client = buildArtifactoryClient()) {
-            return client.lastUpdated(this.key);
+        if (manifest() != null) {
+            return 0;
+        }
+        try {
+            info = resolve();
+            return info != null ? info.getLastUpdated() : 0;
         } catch (Exception e) {
-            LOGGER.warn(String.format("Failed to get last updated time of %s", this.key), e);
+            LOGGER.warn(String.format("Failed to get last updated time of %s", getKey()), e);
             return 0;
         }
     }
 
+    /**
+     * @return the SHA-1 checksum of the artifact or null if it is not a file
+     * @throws IOException if the checksum cannot be retrieved
+     */
+    public @CheckForNull String getSha1() throws IOException {
+        ArtifactoryClient.FileInfo info = checksums();
+        return info == null ? null : info.getSha1();
+    }
+
+    /**
+     * @return the SHA-256 checksum of the artifact or null if it is not a file or not computed by Artifactory
+     * @throws IOException if the checksum cannot be retrieved
+     */
+    public @CheckForNull String getSha256() throws IOException {
+        ArtifactoryClient.FileInfo info = checksums();
+        return info == null ? null : info.getSha256();
+    }
+
+    /**
+     * @return the MD5 checksum of the artifact or null if it is not a file
+     * @throws IOException if the checksum cannot be retrieved
+     */
+    public @CheckForNull String getMd5() throws IOException {
+        ArtifactoryClient.FileInfo info = checksums();
+        return info == null ? null : info.getMd5();
+    }
+
+    /**
+     * Return the file information with checksums, from the listing when it has them or from the storage API
+     */
+    @CheckForNull
+    private ArtifactoryClient.FileInfo checksums() throws IOException {
+        ArtifactoryClient.FileInfo listed = fileInfo();
+        if (listed != null && (listed.isDirectory() || listed.getSha1() != null)) {
+            return listed.isFile() ? listed : null;
+        }
+        ArtifactoryClient.FileInfo info = resolve();
+        return info != null && info.isFile() ? info : null;
+    }
+
+    /**
+     * Look up this path with the storage API. A single request tells the type, size, date and checksums, so the
+     * metadata of a file that doesn't come from a listing is fetched once and kept
+     * @return the information or null if the path does not exist
+     */
+    @CheckForNull
+    private ArtifactoryClient.FileInfo resolve() throws IOException {
+        ArtifactoryClient.FileInfo info = this.resolved;
+        if (info == null) {
+            try (ArtifactoryClient client = buildArtifactoryClient()) {
+                info = client.info(getKey());
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            this.resolved = info;
+        }
+        return info;
+    }
+
+    /**
+     * @return true if this is the {@code *view*} pseudo file of the directory browser
+     */
+    private boolean isView() {
+        return Utils.stripTrailingSlash(getKey()).endsWith("/*view*");
+    }
+
     @Override
     public boolean canRead() throws IOException {
         return true;
@@ -161,40 +454,260 @@ public class ArtifactoryVirtualFile extends ArtifactoryAbstractVirtualFile {
 
     @Override
     public InputStream open() throws IOException {
-        LOGGER.debug(String.format("Opening %s...", this.key));
-        if (isDirectory()) {
-            throw new FileNotFoundException("Cannot open it because it is a directory.");
+        awaitUploads();
+        LOGGER.debug(String.format("Opening %s...", getKey()));
+        ArtifactoryConfigSnapshot snapshot = ArtifactoryConfigSnapshot.get();
+        ArtifactoryContentCache cache = ArtifactoryContentCache.get(snapshot);
+        if (cache != null) {
+            InputStream cached = cache.openFresh(snapshot, getKey());
+            if (cached != null) {
+                return cached;
+            }
+        }
+        ArtifactoryClient.FileInfo known = fileInfo();
+        if (known == null) {
+            known = this.resolved;
         }
-        if (!isFile()) {
+        if (known != null) {
+            checkFile(known);
+        } else if (manifest() != null || isView()) {
             throw new FileNotFoundException("Cannot open it because it is not a file.");
         }
+        if (cache != null) {
+            try (ArtifactoryClient client = buildArtifactoryClient()) {
+                checkFile(known != null ? known : client.info(getKey()));
+                return cache.open(snapshot, client, getKey());
+            } catch (FileNotFoundException e) {
+                throw e;
+            } catch (Exception e) {
+                LOGGER.warn(String.format("Failed to open %s", getKey()), e);
+                throw new IOException(e);
+            }
+        }
+        ArtifactoryClient client = buildArtifactoryClient();
+        try {
+            CompletableFuture<ArtifactoryClient.FileInfo> lookup =
+                    known != null ? CompletableFuture.completedFuture(known) : client.infoAsync(getKey());
+            // The first block doesn't wait for the lookup, it is dropped if the path is not a file
+            CompletableFuture<InputStream> first =
+                    client.downloadRangeAsync(getKey(), 0, ArtifactoryRangeInputStream.MIN_BLOCK_SIZE);
+            ArtifactoryClient.FileInfo info;
+            try {
+                info = checkFile(ArtifactoryClient.await(lookup));
+            } catch (IOException | RuntimeException e) {
+                first.thenAccept(ArtifactoryVirtualFile::closeQuietly);
+                throw e;
+            }
+            return new ArtifactoryRangeInputStream(client, getKey(), 0, info.getSize(), info.getSize(), first);
+        } catch (Exception e) {
+            closeQuietly(client);
+            if (e instanceof FileNotFoundException) {
+                throw (FileNotFoundException) e;
+            }
+            LOGGER.warn(String.format("Failed to open %s", getKey()), e);
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Open a range of this file. Only the requested bytes are downloaded, lazily as they are read
+     * @param offset the offset of the first byte
+     * @param length the maximum number of bytes to read
+     * @return the stream of the range, which is seekable inside the range
+     * @throws IOException if this is not a file or it cannot be opened
+     */
+    public ArtifactoryRangeInputStream openRange(long offset, long length) throws IOException {
+        awaitUploads();
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Negative range");
+        }
+        ArtifactoryClient.FileInfo info = fileInfo();
+        if (info == null && manifest() == null && !isView()) {
+            info = resolve();
+        }
+        info = checkFile(info);
+        long end = offset + Math.min(length, Math.max(0, info.getSize() - offset));
+        return new ArtifactoryRangeInputStream(buildArtifactoryClient(), getKey(), offset, end, info.getSize(), null);
+    }
+
+    /**
+     * Check that the information is the one of a file, and keep it
+     */
+    @NonNull
+    private ArtifactoryClient.FileInfo checkFile(@CheckForNull ArtifactoryClient.FileInfo info)
+            throws FileNotFoundException {
+        if (info == null) {
+            throw new FileNotFoundException("Cannot open it because it is not a file.");
+        }
+        if (info.isDirectory()) {
+            throw new FileNotFoundException("Cannot open it because it is a directory.");
+        }
+        if (fileInfo() == null) {
+            this.resolved = info;
+        }
+        return info;
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            LOGGER.debug("Failed to close unused download", e);
+        }
+    }
+
+    /**
+     * Zip the files of this folder. When the whole folder is requested and no file is left out by the default
+     * excludes, Artifactory produces an archive of the folder in a single request, whose entries are renamed with the
+     * prefix. Otherwise, or if the server cannot produce archives, the files are downloaded in parallel with a bounded
+     * read-ahead and zipped here. The files are selected from the manifest of the run, or from one listing query
+     * @return the number of zipped files
+     */
+    @Override
+    public int zip(
+            OutputStream outputStream,
+            String includes,
+            String excludes,
+            boolean useDefaultExcludes,
+            String prefix,
+            OpenOption... openOptions)
+            throws IOException {
+        awaitUploads();
+        String folder = Utils.stripTrailingSlash(getKey());
         try (ArtifactoryClient client = buildArtifactoryClient()) {
-            return client.downloadArtifact(this.key);
+            ArtifactoryListing listing;
+            int from;
+            int to;
+            ArtifactoryManifest manifest = manifest();
+            if (manifest != null) {
+                listing = manifest.getListing();
+                int[] range = manifest.range(getKey());
+                from = range[0];
+                to = range[1];
+            } else {
+                listing = client.listing(folder + "/");
+                from = 0;
+                to = listing.size();
+            }
+            String[] includePatterns = Utils.splitPatterns(Util.fixEmptyAndTrim(includes) == null ? "**" : includes);
+            String[] excludePatterns = Utils.splitPatterns(excludes);
+            String[] defaultExcludes = useDefaultExcludes ? DirectoryScanner.getDefaultExcludes() : new String[0];
+            List<ArtifactoryZipWriter.Entry> entries = new ArrayList<>();
+            int files = 0;
+            for (int i = from; i < to; i++) {
+                if (listing.isDirectory(i)) {
+                    continue;
+                }
+                files++;
+                String path = listing.getPath(i);
+                String relativePath = path.substring(folder.length() + 1);
+                if (Utils.matchesAny(includePatterns, relativePath)
+                        && !Utils.matchesAny(excludePatterns, relativePath)
+                        && !Utils.matchesAny(defaultExcludes, relativePath)) {
+                    entries.add(new ArtifactoryZipWriter.Entry(
+                            path, Util.fixNull(prefix) + relativePath, listing.getSize(i), listing.getLastModified(i)));
+                }
+            }
+            ArtifactoryZipWriter writer =
+                    new ArtifactoryZipWriter(client, ZIP_THREADS, ZIP_READ_AHEAD, ZIP_MAX_PREFETCH_SIZE);
+            // The archive of Artifactory has every file of the folder, with paths relative to it
+            if (isWholeFolder(includes, excludes) && entries.size() == files) {
+                InputStream archive = client.downloadFolderArchive(folder);
+                if (archive != null) {
+                    LOGGER.debug(String.format("Zipping archive of %s produced by Artifactory", folder));
+                    return writer.write(outputStream, entries, archive, folder);
+                }
+            }
+            return writer.write(outputStream, entries);
+        } catch (IOException e) {
+            throw e;
         } catch (Exception e) {
-            LOGGER.warn(String.format("Failed to open %s", this.key), e);
             throw new IOException(e);
         }
     }
 
+    private static boolean isWholeFolder(String includes, String excludes) {
+        String fixedIncludes = Util.fixEmptyAndTrim(includes);
+        return (fixedIncludes == null || fixedIncludes.equals("**")) && Util.fixEmptyAndTrim(excludes) == null;
+    }
+
     private ArtifactoryClient buildArtifactoryClient() {
-        ArtifactoryGenericArtifactConfig config = Utils.getArtifactConfig();
-        return new ArtifactoryClient(config.getServerUrl(), config.getRepository(), Utils.getCredentials());
+        return new ArtifactoryClient(ArtifactoryConfigSnapshot.get().getArtifactoryConfig());
+    }
+
+    private ArtifactoryListing toListing(List<ArtifactoryClient.FileInfo> files) {
+        ArtifactoryListing.Builder builder = ArtifactoryListing.builder(childrenBase());
+        files.forEach(builder::add);
+        return builder.build();
+    }
+
+    private String childrenBase() {
+        String folder = Utils.stripTrailingSlash(getKey());
+        return folder.isEmpty() ? "" : folder + "/";
+    }
+
+    private VirtualFile[] toVirtualFiles(ArtifactoryListing listing, boolean browsed) {
+        VirtualFile[] files = new VirtualFile[listing.size()];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new ArtifactoryVirtualFile(listing, i, this.build, browsed);
+        }
+        return files;
+    }
+
+    private VirtualFile[] toVirtualFiles(ArtifactoryListing listing, int from, int to) {
+        VirtualFile[] files = new VirtualFile[to - from];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new ArtifactoryVirtualFile(listing, from + i, this.build, false);
+        }
+        return files;
+    }
+
+    /**
+     * List the direct children of this folder from the manifest of the run. Folders are derived from file paths
+     */
+    private VirtualFile[] manifestChildren(ArtifactoryManifest manifest, boolean browsed) {
+        ArtifactoryListing files = manifest.getListing();
+        int[] range = manifest.range(getKey());
+        int prefixLength = childrenBase().length();
+        List<VirtualFile> children = new ArrayList<>();
+        String lastFolder = null;
+        for (int i = range[0]; i < range[1]; i++) {
+            String path = files.getPath(i);
+            int slash = path.indexOf('/', prefixLength);
+            if (slash < 0) {
+                children.add(new ArtifactoryVirtualFile(files, i, this.build, browsed));
+            } else if (!path.substring(0, slash).equals(lastFolder)) {
+                lastFolder = path.substring(0, slash);
+                children.add(
+                        new ArtifactoryVirtualFile(ArtifactoryManifest.folder(lastFolder), this.build, browsed));
+            }
+        }
+        return children.toArray(new VirtualFile[0]);
+    }
+
+    private static boolean isPagedBrowsing() {
+        ArtifactoryGenericArtifactConfig config = ArtifactoryConfigSnapshot.get().getConfig();
+        return config != null && config.isPagedBrowsing();
+    }
+
+    private static int getBrowsingPageSize() {
+        ArtifactoryGenericArtifactConfig config = ArtifactoryConfigSnapshot.get().getConfig();
+        return config == null
+                ? ArtifactoryGenericArtifactConfig.DEFAULT_BROWSING_PAGE_SIZE
+                : config.getBrowsingPageSize();
     }
 
     /**
      * List the files from a prefix
      * @param prefix the prefix
-     * @return the list of files from the prefix
+     * @return the listing of files from the prefix
      */
-    private List<VirtualFile> listFilesFromPrefix(String prefix) {
+    private ArtifactoryListing listFilesFromPrefix(String prefix) {
         try (ArtifactoryClient client = buildArtifactoryClient()) {
-            List<ArtifactoryClient.FileInfo> files = client.list(prefix);
-            return files.stream()
-                    .map(info -> new ArtifactoryVirtualFile(info, this.build))
-                    .collect(Collectors.toList());
+            return client.listing(prefix);
         } catch (Exception e) {
             LOGGER.warn(String.format("Failed to list files from prefix %s", prefix), e);
-            return Collections.emptyList();
+            return ArtifactoryListing.builder(prefix).build();
         }
     }
 }
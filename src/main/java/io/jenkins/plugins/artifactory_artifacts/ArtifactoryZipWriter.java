@@ -0,0 +1,191 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write artifacts to a zip stream while downloading the next ones in parallel.
+ * <p>
+ * Small files are prefetched in memory by a pool of threads, at most {@code readAhead} files ahead of the one being
+ * written, so memory stays bounded. Files bigger than {@code maxPrefetchSize} are streamed when their turn comes.
+ */
+class ArtifactoryZipWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactoryZipWriter.class);
+
+    private final ArtifactoryClient client;
+    private final int threads;
+    private final int readAhead;
+    private final long maxPrefetchSize;
+
+    ArtifactoryZipWriter(ArtifactoryClient client, int threads, int readAhead, long maxPrefetchSize) {
+        this.client = client;
+        this.threads = threads;
+        this.readAhead = readAhead;
+        this.maxPrefetchSize = maxPrefetchSize;
+    }
+
+    /**
+     * Write the entries to a zip stream. The output stream is not closed
+     * @param outputStream the output stream
+     * @param entries the entries to write
+     * @return the number of files written
+     * @throws IOException if a file cannot be downloaded or written
+     */
+    int write(OutputStream outputStream, List<Entry> entries) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(outputStream);
+        write(zip, entries);
+        zip.finish();
+        LOGGER.debug(String.format("Zipped %d file(s)", entries.size()));
+        return entries.size();
+    }
+
+    /**
+     * Write the entries to a zip stream, copied from the archive of their folder produced by Artifactory. Files up to
+     * {@code maxPrefetchSize} are read whole from the archive before being written, so when the archive fails or
+     * misses some of them, the files not written yet are downloaded one by one instead. A failure while a bigger file
+     * is streamed fails the zip. The output stream is not closed
+     * @param outputStream the output stream
+     * @param entries the entries to write
+     * @param archive the archive of the folder, closed once read
+     * @param folder the path of the folder
+     * @return the number of files written
+     * @throws IOException if a file cannot be downloaded or written
+     */
+    int write(OutputStream outputStream, List<Entry> entries, InputStream archive, String folder)
+            throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(outputStream);
+        Map<String, Entry> pending = new LinkedHashMap<>();
+        entries.forEach(entry -> pending.put(entry.path, entry));
+        boolean streaming = false;
+        try (ZipInputStream in = new ZipInputStream(archive)) {
+            ZipEntry archived;
+            while (!pending.isEmpty() && (archived = in.getNextEntry()) != null) {
+                Entry entry = archived.isDirectory() ? null : pending.get(folder + "/" + archived.getName());
+                if (entry == null) {
+                    continue;
+                }
+                if (entry.size <= maxPrefetchSize) {
+                    byte[] content = in.readAllBytes();
+                    if (content.length != entry.size) {
+                        throw new IOException(String.format(
+                                "Size of %s in the archive is %d instead of %d",
+                                entry.path, content.length, entry.size));
+                    }
+                    zip.putNextEntry(zipEntry(entry));
+                    zip.write(content);
+                } else {
+                    streaming = true;
+                    zip.putNextEntry(zipEntry(entry));
+                    in.transferTo(zip);
+                    streaming = false;
+                }
+                zip.closeEntry();
+                pending.remove(entry.path);
+            }
+        } catch (IOException e) {
+            if (streaming) {
+                throw e;
+            }
+            LOGGER.warn(String.format("Failed to read the archive of %s, downloading the other files", folder), e);
+        }
+        if (!pending.isEmpty()) {
+            LOGGER.debug(String.format(
+                    "Downloading %d file(s) missing from the archive of %s", pending.size(), folder));
+            write(zip, new ArrayList<>(pending.values()));
+        }
+        zip.finish();
+        LOGGER.debug(String.format("Zipped %d file(s) from the archive of %s", entries.size(), folder));
+        return entries.size();
+    }
+
+    private void write(ZipOutputStream zip, List<Entry> entries) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<byte[]>> prefetched = new ArrayList<>(entries.size());
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                while (prefetched.size() < Math.min(entries.size(), i + readAhead + 1)) {
+                    Entry next = entries.get(prefetched.size());
+                    prefetched.add(next.size <= maxPrefetchSize ? executor.submit(download(next)) : null);
+                }
+                Entry entry = entries.get(i);
+                zip.putNextEntry(zipEntry(entry));
+                Future<byte[]> content = prefetched.set(i, null);
+                if (content != null) {
+                    zip.write(get(content));
+                } else {
+                    try (InputStream is = client.downloadArtifact(entry.path)) {
+                        is.transferTo(zip);
+                    }
+                }
+                zip.closeEntry();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ZipEntry zipEntry(Entry entry) {
+        ZipEntry zipEntry = new ZipEntry(entry.name);
+        zipEntry.setTime(entry.lastModified);
+        return zipEntry;
+    }
+
+    private Callable<byte[]> download(Entry entry) {
+        return () -> {
+            try (InputStream is = client.downloadArtifact(entry.path)) {
+                return is.readAllBytes();
+            }
+        };
+    }
+
+    private static byte[] get(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading artifact");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    static final class Entry {
+        private final String path;
+        private final String name;
+        private final long size;
+        private final long lastModified;
+
+        /**
+         * @param path the path of the artifact in the repository
+         * @param name the name of the zip entry
+         * @param size the size of the artifact
+         * @param lastModified the last modified time of the artifact
+         */
+        Entry(String path, String name, long size, long lastModified) {
+            this.path = path;
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
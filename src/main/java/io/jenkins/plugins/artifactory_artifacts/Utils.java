@@ -6,17 +6,27 @@ import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredenti
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.Util;
 import hudson.security.ACL;
 import hudson.util.DescribableList;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Locale;
 import jenkins.model.ArtifactManagerConfiguration;
 import jenkins.model.ArtifactManagerFactory;
 import jenkins.model.ArtifactManagerFactoryDescriptor;
 import jenkins.model.Jenkins;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+import org.jfrog.artifactory.client.model.AqlItemType;
 
 public final class Utils {
 
@@ -27,6 +37,14 @@ public final class Utils {
      * @return the artifactory config or null if not configured
      */
     public static @Nullable ArtifactoryGenericArtifactConfig getArtifactConfig() {
+        return ArtifactoryConfigSnapshot.get().getConfig();
+    }
+
+    /**
+     * Lookup the artifactory config from the artifact manager configuration
+     * @return the artifactory config or null if not configured
+     */
+    static @Nullable ArtifactoryGenericArtifactConfig lookupArtifactConfig() {
         ArtifactManagerConfiguration artifactManagerConfiguration = ArtifactManagerConfiguration.get();
         DescribableList<ArtifactManagerFactory, ArtifactManagerFactoryDescriptor> artifactManagerFactories =
                 artifactManagerConfiguration.getArtifactManagerFactories();
@@ -43,11 +61,7 @@ public final class Utils {
      * @return the credentials or null if not configured
      */
     public static @Nullable StandardUsernamePasswordCredentials getCredentials() {
-        ArtifactoryGenericArtifactConfig config = getArtifactConfig();
-        if (config == null) {
-            return null;
-        }
-        return getCredentials(config);
+        return ArtifactoryConfigSnapshot.get().getCredentials();
     }
 
     public static StandardUsernamePasswordCredentials getCredentials(String credentialsId) {
@@ -73,9 +87,8 @@ public final class Utils {
      * @return the URL of the artifact
      */
     public static String getUrl(String name) {
-        return String.format(
-                "%s/%s/%s",
-                getArtifactConfig().getServerUrl(), getArtifactConfig().getRepository(), urlEncodeParts(name));
+        ArtifactoryConfigSnapshot snapshot = ArtifactoryConfigSnapshot.get();
+        return String.format("%s/%s/%s", snapshot.getServerUrl(), snapshot.getRepository(), urlEncodeParts(name));
     }
 
     /**
@@ -91,6 +104,33 @@ public final class Utils {
         return localKey;
     }
 
+    /**
+     * Layout storing the runs of a job in folders of {@value #SHARD_SIZE} consecutive build numbers
+     */
+    public static final String SHARDED_LAYOUT = "sharded";
+
+    static final int SHARD_SIZE = 1000;
+
+    /**
+     * Prefix of the shard folders. Jenkins forbids {@code @} in item names, so a shard is never taken for a job
+     */
+    static final String SHARD_PREFIX = "@shard-";
+
+    /**
+     * Get the key of a run, the path of its folder without the prefix
+     * @param jobFullName the full name of the job
+     * @param number the build number
+     * @param layout the layout of the run, null for {@code <job>/<number>}
+     * @return the key, {@code <job>/<number>} or {@code <job>/@shard-<bucket>/<number>} for the sharded layout
+     */
+    public static String getBuildKey(String jobFullName, int number, @Nullable String layout) {
+        String job = jobFullName.replace("%2F", "/");
+        if (SHARDED_LAYOUT.equals(layout)) {
+            return String.format("%s/%s%d/%d", job, SHARD_PREFIX, number / SHARD_SIZE * SHARD_SIZE, number);
+        }
+        return String.format("%s/%d", job, number);
+    }
+
     /**
      * Get the path with the prefix
      * @param key the key
@@ -98,7 +138,7 @@ public final class Utils {
      * @return the path with the prefix
      */
     public static String getFilePath(String key, String path) {
-        return String.format("%s%s/%s", getArtifactConfig().getPrefix(), key, path);
+        return String.format("%s%s/%s", ArtifactoryConfigSnapshot.get().getPrefix(), key, path);
     }
 
     /**
@@ -113,4 +153,114 @@ public final class Utils {
                 StringUtils.isBlank(prefix) ? "" : prefix.endsWith("/") ? prefix : String.format("%s/", prefix);
         return String.format("%s%s", defaultPrefix, filePath.getFileName().toString());
     }
+
+    /**
+     * Describe a transfer and its throughput, for build logs
+     * @param bytes the number of bytes transferred
+     * @param elapsedNanos the duration of the transfer
+     * @return the description, like {@code 1.5 MiB in 2.0 s (768.0 KiB/s)}
+     */
+    public static String formatTransfer(long bytes, long elapsedNanos) {
+        double seconds = Math.max(elapsedNanos, 1) / 1e9;
+        return String.format(
+                Locale.ROOT,
+                "%s in %.1f s (%s/s)",
+                formatSize(bytes),
+                seconds,
+                formatSize((long) (bytes / seconds)));
+    }
+
+    /**
+     * Compute the SHA-1, SHA-256 and MD5 checksums of a file in one read, in the format of Artifactory
+     * @param file the file
+     * @param targetPath the path of the artifact in the repository
+     * @return the information of the artifact, with the checksums in lower case hexadecimal
+     * @throws IOException if the file cannot be read
+     */
+    public static ArtifactoryClient.FileInfo checksums(Path file, String targetPath) throws IOException {
+        MessageDigest sha1;
+        MessageDigest sha256;
+        MessageDigest md5;
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+            sha256 = MessageDigest.getInstance("SHA-256");
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Checksum algorithm not supported", e);
+        }
+        long size = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                sha1.update(buffer, 0, read);
+                sha256.update(buffer, 0, read);
+                md5.update(buffer, 0, read);
+                size += read;
+            }
+        }
+        return new ArtifactoryClient.FileInfo(
+                targetPath,
+                System.currentTimeMillis(),
+                size,
+                AqlItemType.FILE,
+                Util.toHexString(sha1.digest()),
+                Util.toHexString(sha256.digest()),
+                Util.toHexString(md5.digest()));
+    }
+
+    /**
+     * Describe a size with binary units
+     * @param bytes the size in bytes
+     * @return the description, like {@code 1.5 MiB}
+     */
+    public static String formatSize(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        String[] units = {"KiB", "MiB", "GiB", "TiB"};
+        double size = bytes / 1024.0;
+        int unit = 0;
+        while (size >= 1024 && unit < units.length - 1) {
+            size /= 1024;
+            unit++;
+        }
+        return String.format(Locale.ROOT, "%.1f %s", size, units[unit]);
+    }
+
+    /**
+     * Split comma separated Ant patterns
+     * @param patterns the patterns, or null
+     * @return the trimmed patterns, empty if none
+     */
+    public static String[] splitPatterns(@Nullable String patterns) {
+        String value = Util.fixEmptyAndTrim(patterns);
+        if (value == null) {
+            return new String[0];
+        }
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(pattern -> !pattern.isEmpty())
+                .toArray(String[]::new);
+    }
+
+    /**
+     * Match a relative path against Ant patterns, like the includes of {@code archiveArtifacts}
+     * @param patterns the patterns
+     * @param path the path, with slashes
+     * @return true if one of the patterns matches the path
+     */
+    public static boolean matchesAny(String[] patterns, String path) {
+        for (String pattern : patterns) {
+            // A pattern ending with a slash matches the whole folder, as in Ant
+            String normalized = pattern.replace('\\', '/');
+            if (normalized.endsWith("/")) {
+                normalized += "**";
+            }
+            if (SelectorUtils.matchPath(normalized, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -2,12 +2,26 @@ package io.jenkins.plugins.artifactory_artifacts;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import com.github.tomakehurst.wiremock.client.WireMock;
 import com.github.tomakehurst.wiremock.junit5.WireMockRuntimeInfo;
 import com.github.tomakehurst.wiremock.junit5.WireMockTest;
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import hudson.model.Label;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import hudson.slaves.DumbSlave;
 import hudson.util.FormValidation;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
 import java.util.Objects;
 import org.apache.commons.io.IOUtils;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
@@ -185,6 +199,443 @@ public class ArtifactoryArtifactManagerTest extends BaseTest {
                 startsWith("Unable to connect to Artifactory. Please check the server url and credentials"));
     }
 
+    @Test
+    public void shouldProbePerformanceAndCleanUp(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            ArtifactoryGenericArtifactConfig config = configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            ArtifactoryGenericArtifactConfig.DescriptorImpl descriptor = jenkinsRule
+                    .getInstance()
+                    .getDescriptorByType(ArtifactoryGenericArtifactConfig.DescriptorImpl.class);
+
+            FormValidation validation = descriptor.doPerformanceProbe(
+                    config.getServerUrl(), config.getStorageCredentialId(), config.getRepository(), config.getPrefix());
+
+            assertThat(validation.kind, is(FormValidation.Kind.OK));
+            String message = validation.renderHtml();
+            assertThat(message, containsString("Round trip time"));
+            assertThat(message, containsString("Concurrency"));
+            assertThat(message, containsString("Multipart threshold"));
+            assertThat(message, containsString("Small file batching"));
+            assertThat(
+                    server.getRequestCount("POST aql"),
+                    greaterThanOrEqualTo((long) ArtifactoryPerformanceProbe.AQL_QUERIES));
+            assertThat(server.countFiles("my-generic-repo", "jenkins/"), is(0L));
+        }
+    }
+
+    @Test
+    public void shouldArchiveInBackground(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            ArtifactoryGenericArtifactConfig config = configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            config.setDeferredArchiving(true);
+            server.delayNext("PUT", ".*/a\\.txt", Duration.ofSeconds(2), 1);
+            WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "deferred");
+            job.setDefinition(new CpsFlowDefinition(
+                    "node('built-in') {\n"
+                            + "  writeFile file: 'a.txt', text: 'a'\n"
+                            + "  archiveArtifacts artifacts: 'a.txt'\n"
+                            + "  writeFile file: 'a.txt', text: 'changed'\n"
+                            + "}\n",
+                    true));
+            WorkflowRun run = jenkinsRule.buildAndAssertSuccess(job);
+            jenkinsRule.assertLogContains(
+                    "Uploading 1 file(s) to jenkins/deferred/1/artifacts/ in the background", run);
+            jenkinsRule.assertLogContains("Archived 1 file(s) to jenkins/deferred/1/artifacts/", run);
+
+            // The staged copy was uploaded, and recorded in the manifest
+            ArtifactoryArtifactManager manager = (ArtifactoryArtifactManager) run.getArtifactManager();
+            assertThat(manager.getManifest().size(), is(1));
+            try (InputStream in = manager.root().child("a.txt").open()) {
+                assertThat(IOUtils.toString(in, StandardCharsets.UTF_8), is("a"));
+            }
+        }
+    }
+
+    @Test
+    public void shouldFailBuildWhenBackgroundArchivingFails(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            ArtifactoryGenericArtifactConfig config = configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            config.setDeferredArchiving(true);
+            server.failNext("PUT", ".*/a\\.txt", 500, 100);
+            WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "deferred-failure");
+            job.setDefinition(new CpsFlowDefinition(
+                    "node('built-in') {\n"
+                            + "  writeFile file: 'a.txt', text: 'a'\n"
+                            + "  archiveArtifacts artifacts: 'a.txt'\n"
+                            + "}\n"
+                            + "echo 'after archiving'\n",
+                    true));
+            // Without artifactoryAwaitUploads, the flow listener waits and changes the result when the flow ends
+            WorkflowRun run = jenkinsRule.buildAndAssertStatus(Result.FAILURE, job);
+            jenkinsRule.assertLogContains("after archiving", run);
+            jenkinsRule.assertLogContains("Failed to upload artifacts to Artifactory", run);
+
+            // Reads of the artifacts report the failure instead of a partial set
+            assertThrows(IOException.class, () -> run.getArtifactManager().root().list());
+        }
+    }
+
+    @Test
+    public void shouldAwaitBackgroundArchivingAtEndOfNode(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            ArtifactoryGenericArtifactConfig config = configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            config.setDeferredArchiving(true);
+            server.failNext("PUT", ".*/b\\.txt", 500, 100);
+            WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "deferred-barrier");
+            job.setDefinition(new CpsFlowDefinition(
+                    "node('built-in') {\n"
+                            + "  writeFile file: 'a.txt', text: 'a'\n"
+                            + "  archiveArtifacts artifacts: 'a.txt'\n"
+                            + "  artifactoryAwaitUploads()\n"
+                            + "  writeFile file: 'b.txt', text: 'b'\n"
+                            + "  archiveArtifacts artifacts: 'b.txt'\n"
+                            + "  artifactoryAwaitUploads()\n"
+                            + "  echo 'after barrier'\n"
+                            + "}\n",
+                    true));
+            WorkflowRun run = jenkinsRule.buildAndAssertStatus(Result.FAILURE, job);
+            jenkinsRule.assertLogContains("Failed to upload artifacts to Artifactory", run);
+            jenkinsRule.assertLogNotContains("after barrier", run);
+            ArtifactoryArtifactManager manager = (ArtifactoryArtifactManager) run.getArtifactManager();
+            assertThat(manager.getManifest().size(), is(1));
+            assertThat(server.exists("my-generic-repo", "jenkins/deferred-barrier/1/artifacts/a.txt"), is(true));
+        }
+    }
+
+    @Test
+    public void shouldMigrateRunsToShardedLayout(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            ArtifactoryGenericArtifactConfig config = configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "sharded");
+            job.setDefinition(new CpsFlowDefinition(
+                    "node('built-in') {\n"
+                            + "  writeFile file: 'a.txt', text: 'a'\n"
+                            + "  archiveArtifacts artifacts: 'a.txt'\n"
+                            + "}\n",
+                    true));
+            WorkflowRun legacy = jenkinsRule.buildAndAssertSuccess(job);
+            config.setShardedLayout(true);
+            WorkflowRun sharded = jenkinsRule.buildAndAssertSuccess(job);
+
+            // Each run keeps the layout it started with
+            assertThat(server.exists("my-generic-repo", "jenkins/sharded/1/artifacts/a.txt"), is(true));
+            assertThat(server.exists("my-generic-repo", "jenkins/sharded/@shard-0/2/artifacts/a.txt"), is(true));
+            assertThat(legacy.getArtifactManager().root().child("a.txt").isFile(), is(true));
+            assertThat(sharded.getArtifactManager().root().child("a.txt").isFile(), is(true));
+
+            ArtifactoryLayoutMigrator migrator = ExtensionList.lookupSingleton(ArtifactoryLayoutMigrator.class);
+            try (ArtifactoryClient client =
+                    new ArtifactoryClient(ArtifactoryConfigSnapshot.get().getArtifactoryConfig())) {
+                // A failed move leaves the run in its original layout
+                server.failNext("POST", ".*/api/move/.*", 500, 1);
+                assertThat(migrator.migrate(client, TaskListener.NULL), is(0));
+                assertThat(((ArtifactoryArtifactManager) legacy.getArtifactManager()).isShardedLayout(), is(false));
+                assertThat(legacy.getArtifactManager().root().child("a.txt").isFile(), is(true));
+
+                assertThat(migrator.migrate(client, TaskListener.NULL), is(1));
+                assertThat(migrator.migrate(client, TaskListener.NULL), is(0));
+            }
+            // The job is recorded as migrated
+            File record =
+                    new File(jenkinsRule.jenkins.getRootDir(), ArtifactoryLayoutMigrator.class.getName() + ".xml");
+            assertThat(new XmlFile(record).asString(), containsString("<string>sharded</string>"));
+            assertThat(server.exists("my-generic-repo", "jenkins/sharded/1/artifacts/a.txt"), is(false));
+            assertThat(server.exists("my-generic-repo", "jenkins/sharded/@shard-0/1/artifacts/a.txt"), is(true));
+            try (InputStream in = legacy.getArtifactManager().root().child("a.txt").open()) {
+                assertThat(IOUtils.toString(in, StandardCharsets.UTF_8), is("a"));
+            }
+
+            // The layout is saved with the run
+            legacy.reload();
+            assertThat(((ArtifactoryArtifactManager) legacy.getArtifactManager()).isShardedLayout(), is(true));
+        }
+    }
+
+    @Test
+    public void shouldSkipUnchangedFilesWhenArchivingAgain(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "rearchive");
+            job.setDefinition(new CpsFlowDefinition(
+                    "node('built-in') {\n"
+                            + "  writeFile file: 'a.txt', text: 'a'\n"
+                            + "  writeFile file: 'b.txt', text: 'b'\n"
+                            + "  archiveArtifacts artifacts: '*.txt'\n"
+                            + "  writeFile file: 'b.txt', text: 'changed'\n"
+                            + "  writeFile file: 'c.txt', text: 'c'\n"
+                            + "  archiveArtifacts artifacts: '*.txt'\n"
+                            + "}\n",
+                    true));
+            WorkflowRun run = jenkinsRule.buildAndAssertSuccess(job);
+            jenkinsRule.assertLogContains(
+                    "Archived 2 file(s) to jenkins/rearchive/1/artifacts/, 2 uploaded and 0 unchanged skipped", run);
+            jenkinsRule.assertLogContains(
+                    "Archived 3 file(s) to jenkins/rearchive/1/artifacts/, 2 uploaded and 1 unchanged skipped", run);
+            assertThat(server.getRequestCount("PUT"), is(4L));
+            // The checksums of the archived files are read from the manifest
+            assertThat(server.getRequestCount("POST aql"), is(0L));
+
+            ArtifactoryArtifactManager manager = (ArtifactoryArtifactManager) run.getArtifactManager();
+            assertThat(manager.getManifest().size(), is(3));
+            try (InputStream in = manager.root().child("b.txt").open()) {
+                assertThat(IOUtils.toString(in, StandardCharsets.UTF_8), is("changed"));
+            }
+        }
+    }
+
+    @Test
+    public void shouldArchiveWithStepOptions(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            server.putFile("my-generic-repo", "elsewhere/shared.txt", "shared".getBytes(StandardCharsets.UTF_8));
+            WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "step");
+            job.setDefinition(new CpsFlowDefinition(
+                    "node('built-in') {\n"
+                            + "  writeFile file: 'shared.txt', text: 'shared'\n"
+                            + "  writeFile file: 'new.txt', text: 'new'\n"
+                            + "  writeFile file: 'skipped.log', text: 'log'\n"
+                            + "  def r = artifactoryArchive artifacts: '*.txt', concurrency: 2, checksumDeploy: true,"
+                            + " bandwidthLimit: 1024\n"
+                            + "  echo \"files=${r.files} bytes=${r.bytes}\"\n"
+                            + "}\n",
+                    true));
+            WorkflowRun run = jenkinsRule.buildAndAssertSuccess(job);
+            jenkinsRule.assertLogContains("files=2 bytes=9", run);
+            jenkinsRule.assertLogContains("Deployed 1 file(s) by checksum", run);
+            jenkinsRule.assertLogContains(
+                    "Archived 2 file(s) to jenkins/step/1/artifacts/, 1 uploaded and 0 unchanged skipped", run);
+            // Nothing archived before, so the archived files are not listed
+            assertThat(server.getRequestCount("POST aql"), is(0L));
+
+            ArtifactoryArtifactManager manager = (ArtifactoryArtifactManager) run.getArtifactManager();
+            assertThat(manager.getManifest().size(), is(2));
+            // Files deployed by checksum record the same checksums as uploaded files
+            for (String name : List.of("shared.txt", "new.txt")) {
+                ArtifactoryClient.FileInfo file = manager.getManifest().file("jenkins/step/1/artifacts/" + name);
+                assertThat(file.getSha256(), notNullValue());
+                assertThat(file.getMd5(), notNullValue());
+            }
+            try (InputStream in = manager.root().child("shared.txt").open()) {
+                assertThat(IOUtils.toString(in, StandardCharsets.UTF_8), is("shared"));
+            }
+            assertThat(server.exists("my-generic-repo", "jenkins/step/1/artifacts/skipped.log"), is(false));
+        }
+    }
+
+    @Test
+    public void shouldFailStepWhenNothingMatches(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "empty");
+            job.setDefinition(new CpsFlowDefinition(
+                    "node('built-in') {\n"
+                            + "  def r = artifactoryArchive artifacts: '*.txt', allowEmpty: true\n"
+                            + "  echo \"files=${r.files}\"\n"
+                            + "  artifactoryArchive artifacts: '*.txt'\n"
+                            + "}\n",
+                    true));
+            WorkflowRun run = jenkinsRule.buildAndAssertStatus(Result.FAILURE, job);
+            jenkinsRule.assertLogContains("files=0", run);
+            jenkinsRule.assertLogContains("No artifacts found that match the file pattern \"*.txt\"", run);
+        }
+    }
+
+    @Test
+    public void shouldFetchArtifactsOfAnotherBuild(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            WorkflowJob upstream = jenkinsRule.createProject(WorkflowJob.class, "upstream");
+            upstream.setDefinition(new CpsFlowDefinition(
+                    "node('built-in') {\n"
+                            + "  writeFile file: 'a.txt', text: 'a'\n"
+                            + "  writeFile file: 'lib/b.txt', text: 'bb'\n"
+                            + "  writeFile file: 'lib/c.log', text: 'c'\n"
+                            + "  archiveArtifacts artifacts: '**'\n"
+                            + "}\n",
+                    true));
+            jenkinsRule.buildAndAssertSuccess(upstream);
+            server.resetStatistics();
+            WorkflowJob downstream = jenkinsRule.createProject(WorkflowJob.class, "downstream");
+            downstream.setDefinition(new CpsFlowDefinition(
+                    "node('built-in') {\n"
+                            + "  def r = artifactoryFetch job: 'upstream', artifacts: '**/*.txt', target: 'in'\n"
+                            + "  echo \"files=${r.files} bytes=${r.bytes}\"\n"
+                            + "  echo \"nested=${readFile 'in/lib/b.txt'}\"\n"
+                            + "  artifactoryFetch job: 'upstream', build: '1', artifacts: 'lib/', excludes: '**/*.log',"
+                            + " flatten: true, target: 'flat'\n"
+                            + "  echo \"flat=${readFile 'flat/b.txt'} log=${fileExists 'flat/c.log'}\"\n"
+                            + "}\n",
+                    true));
+            WorkflowRun run = jenkinsRule.buildAndAssertSuccess(downstream);
+            jenkinsRule.assertLogContains("files=2 bytes=3", run);
+            jenkinsRule.assertLogContains("nested=bb", run);
+            jenkinsRule.assertLogContains("flat=bb log=false", run);
+            jenkinsRule.assertLogContains("Fetched 2 file(s) from jenkins/upstream/1/artifacts/", run);
+            // Files are selected from the manifest of the upstream build
+            assertThat(server.getRequestCount("POST aql"), is(0L));
+        }
+    }
+
+    @Test
+    public void shouldFailFetchOfUnknownBuild(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            jenkinsRule.createProject(WorkflowJob.class, "upstream");
+            WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "downstream");
+            job.setDefinition(new CpsFlowDefinition(
+                    "node('built-in') {\n"
+                            + "  artifactoryFetch job: 'upstream', build: '7'\n"
+                            + "}\n",
+                    true));
+            WorkflowRun run = jenkinsRule.buildAndAssertStatus(Result.FAILURE, job);
+            jenkinsRule.assertLogContains("No build 7 of upstream found", run);
+        }
+    }
+
+    @Test
+    public void shouldCopyArtifactsFromAnotherRunInsideArtifactory(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            WorkflowJob source = jenkinsRule.createProject(WorkflowJob.class, "source");
+            source.setDefinition(new CpsFlowDefinition(
+                    "node('built-in') {\n"
+                            + "  writeFile file: 'a.txt', text: 'a'\n"
+                            + "  writeFile file: 'b/c.txt', text: 'c'\n"
+                            + "  writeFile file: 'd e.txt', text: 'd'\n"
+                            + "  archiveArtifacts artifacts: '**/*.txt'\n"
+                            + "}\n",
+                    true));
+            WorkflowRun from = jenkinsRule.buildAndAssertSuccess(source);
+            WorkflowJob target = jenkinsRule.createProject(WorkflowJob.class, "target");
+            target.setDefinition(new CpsFlowDefinition("echo 'promote'", true));
+            WorkflowRun to = jenkinsRule.buildAndAssertSuccess(target);
+            ArtifactoryArtifactManager manager = (ArtifactoryArtifactManager) to.pickArtifactManager();
+
+            // Server-side copy of a selection
+            server.resetStatistics();
+            assertThat(manager.copyArtifactsFrom(from, List.of("b/c.txt"), TaskListener.NULL), is(1));
+            assertThat(server.exists("my-generic-repo", "jenkins/target/1/artifacts/b/c.txt"), is(true));
+            assertThat(server.exists("my-generic-repo", "jenkins/target/1/artifacts/a.txt"), is(false));
+            assertThat(server.getRequestCount("POST copy"), is(1L));
+
+            // Target paths are encoded
+            server.resetStatistics();
+            assertThat(manager.copyArtifactsFrom(from, List.of("d e.txt"), TaskListener.NULL), is(1));
+            assertThat(server.exists("my-generic-repo", "jenkins/target/1/artifacts/d e.txt"), is(true));
+            assertThat(server.getRequestCount("POST copy"), is(1L));
+
+            // A server error only falls back for the failed file
+            server.failNext("POST", "/api/copy/.*", 500, 1);
+            server.resetStatistics();
+            assertThat(manager.copyArtifactsFrom(from, List.of("b/c.txt", "d e.txt"), TaskListener.NULL), is(2));
+            assertThat(server.getRequestCount("POST copy"), is(2L));
+
+            // Checksum deploy when the server cannot copy
+            server.failNext("POST", "/api/copy/.*", 400, 1);
+            server.resetStatistics();
+            assertThat(manager.copyArtifactsFrom(from, List.of(), TaskListener.NULL), is(3));
+            assertThat(server.exists("my-generic-repo", "jenkins/target/1/artifacts/a.txt"), is(true));
+            assertThat(server.getRequestCount("GET"), is(0L));
+            assertThat(server.getRequestCount("PUT"), greaterThanOrEqualTo(1L));
+
+            // Checksums are exposed on the virtual file
+            ArtifactoryVirtualFile copied = (ArtifactoryVirtualFile) to.getArtifactManager().root().child("a.txt");
+            assertThat(copied.getSha1(), is("86f7e437faa5a7fce15d1ddcb9eaeaea377667b8"));
+            assertThat(copied.getMd5(), is("0cc175b9c0f1b6a831c399e269772661"));
+        }
+    }
+
+    @Test
+    public void shouldStreamUploadListToAgents(JenkinsRule jenkinsRule) throws Exception {
+        int threshold = ArtifactoryArtifactManager.streamingThreshold;
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            ArtifactoryArtifactManager.streamingThreshold = 2;
+            configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            jenkinsRule.createSlave(Label.get("agent"));
+            WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "streamed");
+            job.setDefinition(new CpsFlowDefinition(
+                    "node('agent') {\n"
+                            + "  for (int i = 0; i < 20; i++) {\n"
+                            + "    writeFile file: \"dir/file-${i}.txt\", text: \"${i}\"\n"
+                            + "  }\n"
+                            + "  archiveArtifacts artifacts: 'dir/*.txt'\n"
+                            + "}\n",
+                    true));
+            WorkflowRun run = jenkinsRule.buildAndAssertSuccess(job);
+
+            assertThat(server.countFiles("my-generic-repo", "jenkins/streamed/1/artifacts"), is(20L));
+            assertThat(server.exists("my-generic-repo", "jenkins/streamed/1/artifacts/dir/file-7.txt"), is(true));
+            assertThat(run.getArtifacts().size(), is(20));
+        } finally {
+            ArtifactoryArtifactManager.streamingThreshold = threshold;
+        }
+    }
+
+    @Test
+    public void shouldResolveBandwidthLimitByLabel(JenkinsRule jenkinsRule, WireMockRuntimeInfo wmRuntimeInfo)
+            throws Exception {
+        ArtifactoryGenericArtifactConfig config = configureConfig(jenkinsRule, wmRuntimeInfo.getHttpPort(), "");
+        config.setBandwidthLimit(1024);
+        config.setBandwidthLimits(List.of(
+                new ArtifactoryBandwidthLimit("remote && linux", 64), new ArtifactoryBandwidthLimit("remote", 128)));
+        DumbSlave linux = jenkinsRule.createSlave("linux", "remote linux", null);
+        DumbSlave windows = jenkinsRule.createSlave("windows", "remote windows", null);
+        DumbSlave local = jenkinsRule.createSlave("local", "local", null);
+
+        assertThat(config.getBandwidthLimit(linux), is(64 * 1024L));
+        assertThat(config.getBandwidthLimit(windows), is(128 * 1024L));
+        assertThat(config.getBandwidthLimit(local), is(1024 * 1024L));
+        assertThat(config.getBandwidthLimit(null), is(1024 * 1024L));
+    }
+
+    @Test
+    public void shouldReadFromReplicaWithFallbackToPrimary(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer primary = new FakeArtifactoryServer();
+                FakeArtifactoryServer replica = new FakeArtifactoryServer()) {
+            ArtifactoryGenericArtifactConfig config = configureConfig(jenkinsRule, primary.getPort(), "jenkins/");
+            config.setReadReplicas(List.of(
+                    new ArtifactoryReadReplica("eu", replica.getUrl()),
+                    new ArtifactoryReadReplica("us", "http://localhost:1")));
+            DumbSlave agent = jenkinsRule.createSlave("eu-agent", "eu", null);
+            assertThat(config.getReadReplicaUrls(agent), is(List.of(replica.getUrl())));
+
+            primary.putFile("my-generic-repo", "jenkins/a.txt", "a".getBytes(StandardCharsets.UTF_8));
+            replica.putFile("my-generic-repo", "jenkins/a.txt", "a".getBytes(StandardCharsets.UTF_8));
+            primary.putFile("my-generic-repo", "jenkins/b.txt", "not replicated".getBytes(StandardCharsets.UTF_8));
+            primary.putFile("my-generic-repo", "jenkins/s.txt", "new".getBytes(StandardCharsets.UTF_8));
+            replica.putFile("my-generic-repo", "jenkins/s.txt", "stale".getBytes(StandardCharsets.UTF_8));
+            ArtifactoryClient.ArtifactoryConfig clientConfig = ArtifactoryConfigSnapshot.get()
+                    .getArtifactoryConfig()
+                    .withReadReplicas(config.getReadReplicaUrls(agent));
+            try (ArtifactoryClient client = new ArtifactoryClient(clientConfig)) {
+                String a = client.info("jenkins/a.txt").getSha1();
+                try (InputStream in = client.downloadArtifactFromReplicas("jenkins/a.txt", a)) {
+                    assertThat(IOUtils.toString(in, StandardCharsets.UTF_8), is("a"));
+                }
+                assertThat(replica.getRequestCount("GET"), is(1L));
+                String b = client.info("jenkins/b.txt").getSha1();
+                try (InputStream in = client.downloadArtifactFromReplicas("jenkins/b.txt", b)) {
+                    assertThat(IOUtils.toString(in, StandardCharsets.UTF_8), is("not replicated"));
+                }
+                // A replica not in sync yet serves another version, read from the primary instead
+                String s = client.info("jenkins/s.txt").getSha1();
+                try (InputStream in = client.downloadArtifactFromReplicas("jenkins/s.txt", s)) {
+                    assertThat(IOUtils.toString(in, StandardCharsets.UTF_8), is("new"));
+                }
+                // Without the expected checksum, only the primary is read
+                replica.resetStatistics();
+                try (InputStream in = client.downloadArtifact("jenkins/a.txt")) {
+                    assertThat(IOUtils.toString(in, StandardCharsets.UTF_8), is("a"));
+                }
+                assertThat(replica.getTotalRequestCount(), is(0L));
+                // Writes go to the primary
+                client.uploadArtifact(Files.writeString(Files.createTempFile("upload", ".txt"), "c"), "jenkins/c.txt");
+            }
+            assertThat(primary.exists("my-generic-repo", "jenkins/c.txt"), is(true));
+            assertThat(replica.exists("my-generic-repo", "jenkins/c.txt"), is(false));
+        }
+    }
+
     @Test
     public void shouldCreteCorrectFactory(JenkinsRule jenkinsRule, WireMockRuntimeInfo wmRuntimeInfo) throws Exception {
         ArtifactoryGenericArtifactConfig config = configureConfig(jenkinsRule, wmRuntimeInfo.getHttpPort(), "jenkins/");
@@ -0,0 +1,32 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+public class ArtifactoryBandwidthLimiterTest {
+
+    @Test
+    public void shouldShareLimiterPerLimit() {
+        assertThat(ArtifactoryBandwidthLimiter.of(1234), sameInstance(ArtifactoryBandwidthLimiter.of(1234)));
+        InputStream in = new ByteArrayInputStream(new byte[0]);
+        assertThat(ArtifactoryBandwidthLimiter.limit(in, 0), sameInstance(in));
+    }
+
+    @Test
+    public void shouldThrottleReads() throws Exception {
+        // The first second of transfer is a burst
+        long start = System.nanoTime();
+        try (InputStream in = ArtifactoryBandwidthLimiter.limit(new ByteArrayInputStream(new byte[300_000]), 100_000)) {
+            assertThat(IOUtils.toByteArray(in).length, is(300_000));
+        }
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(1_500L));
+    }
+}
@@ -0,0 +1,51 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class ArtifactoryListingTest {
+
+    private static final String BASE = "jenkins/folder/job/123/artifacts/";
+
+    @Test
+    public void shouldDecodeFrontCodedPaths() {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            paths.add(String.format("dir-%d/sub/file-%03d.txt", i % 3, i));
+        }
+        paths.add("é/ünïcode.txt");
+        paths.add("a");
+        paths.add("ab");
+        ArtifactoryListing.Builder builder = ArtifactoryListing.builder(BASE);
+        for (int i = 0; i < paths.size(); i++) {
+            builder.add(BASE + paths.get(i), i, i * 10L, false);
+        }
+        builder.add(BASE + "dir-0", 0, 0, true);
+        builder.add("elsewhere/file.txt", 0, 0, false);
+        ArtifactoryListing listing = builder.build();
+
+        paths.add("dir-0");
+        Collections.sort(paths);
+        assertThat(listing.size(), is(paths.size()));
+        for (int i = 0; i < listing.size(); i++) {
+            String path = listing.getPath(i);
+            assertThat(path, is(BASE + paths.get(i)));
+            ArtifactoryClient.FileInfo info = listing.getFileInfo(i);
+            assertThat(info.getPath(), is(path));
+            assertThat(info.isDirectory(), is(path.endsWith("dir-0")));
+            if (info.isFile()) {
+                assertThat(info.getSize(), is(info.getLastUpdated() * 10));
+            }
+        }
+    }
+
+    @Test
+    public void shouldBuildEmptyListing() {
+        assertThat(ArtifactoryListing.builder(BASE).build().size(), is(0));
+    }
+}
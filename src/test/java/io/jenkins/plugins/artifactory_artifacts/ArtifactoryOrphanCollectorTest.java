@@ -0,0 +1,97 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import hudson.ExtensionList;
+import hudson.model.TaskListener;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+public class ArtifactoryOrphanCollectorTest extends BaseTest {
+
+    private static final String REPOSITORY = "my-generic-repo";
+
+    @Test
+    public void shouldFindBuildFolders() {
+        ArtifactoryOrphanCollector.BuildFolder folder =
+                ArtifactoryOrphanCollector.buildFolder("folder/job/12/artifacts/3/artifacts/a.txt");
+        assertThat(folder.getJob(), is("folder/job"));
+        assertThat(folder.getNumber(), is(12));
+        assertThat(ArtifactoryOrphanCollector.buildFolder("job/12/stashes/s.tgz").getJob(), is("job"));
+        ArtifactoryOrphanCollector.BuildFolder sharded =
+                ArtifactoryOrphanCollector.buildFolder("folder/job/@shard-1000/1234/artifacts/a.txt");
+        assertThat(sharded.getKey(), is("folder/job/@shard-1000/1234"));
+        assertThat(sharded.getJob(), is("folder/job"));
+        assertThat(sharded.getNumber(), is(1234));
+        assertThat(ArtifactoryOrphanCollector.buildFolder("job/012/artifacts/a.txt"), nullValue());
+        assertThat(ArtifactoryOrphanCollector.buildFolder("job/12/other/a.txt"), nullValue());
+        assertThat(ArtifactoryOrphanCollector.buildFolder("12/artifacts/a.txt"), nullValue());
+    }
+
+    @Test
+    public void shouldDeleteOrphanedBuildFolders(JenkinsRule jenkinsRule) throws Exception {
+        long gracePeriodHours = ArtifactoryOrphanCollector.gracePeriodHours;
+        int pageSize = ArtifactoryOrphanCollector.pageSize;
+        int batchSize = ArtifactoryOrphanCollector.batchSize;
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            ArtifactoryOrphanCollector.gracePeriodHours = 0;
+            ArtifactoryOrphanCollector.pageSize = 2;
+            ArtifactoryOrphanCollector.batchSize = 1;
+            configureConfig(jenkinsRule, server.getPort(), "jenkins/").setOrphanCollection(true);
+            WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "alive");
+            job.setDefinition(new CpsFlowDefinition(
+                    "node('built-in') {\n"
+                            + "  writeFile file: 'a.txt', text: 'a'\n"
+                            + "  archiveArtifacts artifacts: 'a.txt'\n"
+                            + "}\n",
+                    true));
+            jenkinsRule.buildAndAssertSuccess(job);
+            String marker = ArtifactoryOrphanCollector.ownerMarker();
+            assertThat(server.exists(REPOSITORY, "jenkins/alive/" + marker), is(true));
+
+            byte[] content = "orphan".getBytes(StandardCharsets.UTF_8);
+            server.putFile(REPOSITORY, "jenkins/alive/1/artifacts/3/artifacts/nested.txt", content);
+            server.putFile(REPOSITORY, "jenkins/alive/2/artifacts/b.txt", content);
+            server.putFile(REPOSITORY, "jenkins/gone/1/artifacts/c.txt", content);
+            server.putFile(REPOSITORY, "jenkins/gone/1/stashes/s.tgz", content);
+            server.putFile(REPOSITORY, "jenkins/gone/" + marker, new byte[0]);
+            server.putFile(REPOSITORY, "jenkins/foreign/1/artifacts/e.txt", content);
+            server.putFile(REPOSITORY, "jenkins/foreign/.jenkins-owner-other", new byte[0]);
+            server.putFile(REPOSITORY, "jenkins/unmarked/1/artifacts/f.txt", content);
+            server.putFile(REPOSITORY, "elsewhere/gone/1/artifacts/d.txt", content);
+            Thread.sleep(10);
+
+            ArtifactoryOrphanCollector collector = ExtensionList.lookupSingleton(ArtifactoryOrphanCollector.class);
+            List<ArtifactoryOrphanCollector.BuildFolder> deleted;
+            try (ArtifactoryClient client =
+                    new ArtifactoryClient(ArtifactoryConfigSnapshot.get().getArtifactoryConfig())) {
+                // Never without a prefix, the repository root may hold files of anything
+                assertThat(collector.collect(client, "", TaskListener.NULL).size(), is(0));
+                deleted = collector.collect(client, "jenkins/", TaskListener.NULL);
+            }
+
+            assertThat(deleted.size(), is(2));
+            assertThat(deleted.stream().mapToLong(ArtifactoryOrphanCollector.BuildFolder::getSize).sum(), is(18L));
+            assertThat(server.exists(REPOSITORY, "jenkins/alive/1/artifacts/a.txt"), is(true));
+            assertThat(server.exists(REPOSITORY, "jenkins/alive/1/artifacts/3/artifacts/nested.txt"), is(true));
+            assertThat(server.countFiles(REPOSITORY, "jenkins/alive/2/"), is(0L));
+            assertThat(server.countFiles(REPOSITORY, "jenkins/gone/1/"), is(0L));
+            // Folders of deleted jobs are kept unless marked by this controller
+            assertThat(server.exists(REPOSITORY, "jenkins/foreign/1/artifacts/e.txt"), is(true));
+            assertThat(server.exists(REPOSITORY, "jenkins/unmarked/1/artifacts/f.txt"), is(true));
+            assertThat(server.exists(REPOSITORY, "elsewhere/gone/1/artifacts/d.txt"), is(true));
+        } finally {
+            ArtifactoryOrphanCollector.gracePeriodHours = gracePeriodHours;
+            ArtifactoryOrphanCollector.pageSize = pageSize;
+            ArtifactoryOrphanCollector.batchSize = batchSize;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.Test;
+
+public class ArtifactoryParallelGzipOutputStreamTest {
+
+    @Test
+    public void shouldProduceStandardGzip() throws Exception {
+        Random random = new Random(42);
+        for (int size : new int[] {0, 1, 1024, 4096, 100_000, 1_000_000}) {
+            byte[] data = compressible(random, size);
+            byte[] compressed = compress(data, 4, 1024);
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+                assertThat("size " + size, in.readAllBytes(), is(data));
+            }
+        }
+    }
+
+    @Test
+    public void shouldCompressCloseToSingleStream() throws Exception {
+        byte[] data = compressible(new Random(42), 2_000_000);
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(single)) {
+            out.write(data);
+        }
+        byte[] parallel = compress(data, 4, 128 * 1024);
+        assertThat((double) parallel.length, lessThan(single.size() * 1.01));
+    }
+
+    private static byte[] compress(byte[] data, int threads, int blockSize) throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new ArtifactoryParallelGzipOutputStream(compressed, threads, blockSize)) {
+            // Uneven writes across block boundaries
+            int offset = 0;
+            while (offset < data.length) {
+                int length = Math.min(data.length - offset, 777);
+                out.write(data, offset, length);
+                offset += length;
+            }
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] compressible(Random random, int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + random.nextInt(10));
+        }
+        return data;
+    }
+}
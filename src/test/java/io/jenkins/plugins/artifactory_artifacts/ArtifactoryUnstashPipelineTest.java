@@ -0,0 +1,136 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ArtifactoryUnstashPipelineTest {
+
+    @TempDir
+    Path target;
+
+    @Test
+    public void shouldExtractSmallAndLargeFiles() throws Exception {
+        Random random = new Random(42);
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            byte[] content = new byte[random.nextInt(3000)];
+            random.nextBytes(content);
+            files.put(String.format("dir-%d/sub-%d/file-%d.txt", i % 10, i % 3, i), content);
+        }
+        byte[] large = new byte[3 * 1024 * 1024];
+        random.nextBytes(large);
+        files.put("large/blob.bin", large);
+
+        int count = new ArtifactoryUnstashPipeline(target, 4).extract(new ByteArrayInputStream(tgz(files, null)));
+
+        assertThat(count, is(files.size()));
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            byte[] restored = Files.readAllBytes(target.resolve(file.getKey()));
+            assertThat(file.getKey(), Arrays.equals(restored, file.getValue()));
+        }
+    }
+
+    @Test
+    public void shouldRefuseEntriesOutsideTarget() throws Exception {
+        byte[] traversal = tgz(Map.of("../evil.txt", new byte[1]), null);
+        assertThrows(
+                IOException.class,
+                () -> new ArtifactoryUnstashPipeline(target, 2).extract(new ByteArrayInputStream(traversal)));
+        assertThat(Files.exists(target.resolveSibling("evil.txt")), is(false));
+
+        byte[] throughLink = tgz(Map.of("link/evil.txt", new byte[1]), "..");
+        assertThrows(
+                IOException.class,
+                () -> new ArtifactoryUnstashPipeline(target, 2).extract(new ByteArrayInputStream(throughLink)));
+        assertThat(Files.exists(target.resolveSibling("evil.txt")), is(false));
+    }
+
+    @Test
+    public void shouldFailOnTruncatedStash() throws Exception {
+        byte[] stash = tgz(Map.of("file.txt", new byte[100_000]), null);
+        byte[] truncated = Arrays.copyOf(stash, stash.length / 2);
+        assertThrows(
+                IOException.class,
+                () -> new ArtifactoryUnstashPipeline(target, 2).extract(new ByteArrayInputStream(truncated)));
+    }
+
+    @Test
+    public void shouldNotWriteThroughLinkReplacingQueuedFile() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GZIPOutputStream(out))) {
+            // Keep the writers busy so the write of the replaced file is still queued
+            for (int i = 0; i < 500; i++) {
+                TarArchiveEntry entry = new TarArchiveEntry(String.format("busy-%d.txt", i));
+                entry.setSize(1000);
+                tar.putArchiveEntry(entry);
+                tar.write(new byte[1000]);
+                tar.closeArchiveEntry();
+            }
+            TarArchiveEntry file = new TarArchiveEntry("replaced");
+            file.setSize(1);
+            tar.putArchiveEntry(file);
+            tar.write(new byte[1]);
+            tar.closeArchiveEntry();
+            TarArchiveEntry link = new TarArchiveEntry("replaced", TarConstants.LF_SYMLINK);
+            link.setLinkName("../outside.txt");
+            tar.putArchiveEntry(link);
+            tar.closeArchiveEntry();
+        }
+
+        new ArtifactoryUnstashPipeline(target, 1).extract(new ByteArrayInputStream(out.toByteArray()));
+
+        assertThat(Files.isSymbolicLink(target.resolve("replaced")), is(true));
+        assertThat(Files.exists(target.resolveSibling("outside.txt")), is(false));
+    }
+
+    @Test
+    @Timeout(30)
+    public void shouldFailWhenStageDiesWithError() {
+        InputStream broken = new InputStream() {
+            @Override
+            public int read() {
+                throw new AssertionError("Broken stage");
+            }
+        };
+        assertThrows(IOException.class, () -> new ArtifactoryUnstashPipeline(target, 2).extract(broken));
+    }
+
+    private static byte[] tgz(Map<String, byte[]> files, String linkTarget) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GZIPOutputStream(out))) {
+            if (linkTarget != null) {
+                TarArchiveEntry link = new TarArchiveEntry("link", TarConstants.LF_SYMLINK);
+                link.setLinkName(linkTarget);
+                tar.putArchiveEntry(link);
+                tar.closeArchiveEntry();
+            }
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                TarArchiveEntry entry = new TarArchiveEntry(file.getKey());
+                entry.setSize(file.getValue().length);
+                tar.putArchiveEntry(entry);
+                tar.write(file.getValue());
+                tar.closeArchiveEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+}
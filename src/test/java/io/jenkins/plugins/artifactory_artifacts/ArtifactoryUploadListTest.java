@@ -0,0 +1,50 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+public class ArtifactoryUploadListTest {
+
+    @Test
+    public void shouldDecodeEntriesInOrder() throws Exception {
+        Map<String, String> artifacts = new LinkedHashMap<>();
+        for (int i = 0; i < 200; i++) {
+            String path = String.format("target/classes/pkg-%d/File%03d.class", i % 7, i);
+            artifacts.put(path, path);
+        }
+        artifacts.put("renamed.txt", "build/out/original.txt");
+        artifacts.put("é/ünïcode.txt", "é/ünïcode.txt");
+
+        ArtifactoryUploadList list = ArtifactoryUploadList.of(artifacts);
+        assertThat(list.size(), is(artifacts.size()));
+        ArtifactoryUploadList.Reader reader = list.reader();
+        for (Map.Entry<String, String> expected : new TreeMap<>(artifacts).entrySet()) {
+            ArtifactoryUploadList.Entry entry = reader.next();
+            assertThat(entry.getPath(), is(expected.getKey()));
+            assertThat(entry.getName(), is(expected.getValue()));
+        }
+        assertThat(reader.next(), nullValue());
+    }
+
+    @Test
+    public void shouldRejectTruncatedStream() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ArtifactoryUploadList.write(Map.of("a.txt", "a.txt", "b.txt", "b.txt"), out);
+        byte[] bytes = out.toByteArray();
+        ArtifactoryUploadList.Reader reader =
+                new ArtifactoryUploadList.Reader(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 3)));
+        assertThat(reader.next().getPath(), is("a.txt"));
+        assertThrows(EOFException.class, reader::next);
+    }
+}
@@ -0,0 +1,43 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class ArtifactoryUploadSchedulerTest {
+
+    @Test
+    public void shouldRunAllTransfers() throws Exception {
+        ArtifactoryUploadScheduler<Integer, Integer> scheduler =
+                new ArtifactoryUploadScheduler<>(4, item -> item * 2);
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            scheduler.add(i, i % 10 == 0 ? 1_000_000L : i);
+            expected.add(i * 2);
+        }
+        assertThat(scheduler.finish(), containsInAnyOrder(expected.toArray()));
+    }
+
+    @Test
+    public void shouldStopOnFirstFailure() {
+        AtomicInteger runs = new AtomicInteger();
+        ArtifactoryUploadScheduler<Integer, Integer> scheduler = new ArtifactoryUploadScheduler<>(1, item -> {
+            runs.incrementAndGet();
+            throw new IOException("Failed " + item);
+        });
+        for (int i = 0; i < 100; i++) {
+            scheduler.add(i, i);
+        }
+        IOException e = assertThrows(IOException.class, scheduler::finish);
+        assertThat(e.getMessage().startsWith("Failed "), is(true));
+        assertThat(runs.get(), lessThan(100));
+    }
+}
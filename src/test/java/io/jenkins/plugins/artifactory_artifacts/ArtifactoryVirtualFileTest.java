@@ -0,0 +1,449 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import jenkins.util.VirtualFile;
+import net.sf.json.JSONArray;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+public class ArtifactoryVirtualFileTest extends BaseTest {
+
+    private static final String ROOT = "jenkins/job/1/artifacts";
+
+    @Test
+    public void shouldListOneLevelPageByPage(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            ArtifactoryGenericArtifactConfig config = configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            config.setPagedBrowsing(true);
+            config.setBrowsingPageSize(2);
+            for (String name : List.of("c.txt", "a.txt", "b.txt", "sub/d.txt")) {
+                server.putFile("my-generic-repo", ROOT + "/" + name, name.getBytes(StandardCharsets.UTF_8));
+            }
+            ArtifactoryVirtualFile root = new ArtifactoryVirtualFile(ROOT, null);
+
+            // Explicit pages
+            assertThat(names(root.list(0, 2)), contains("a.txt", "b.txt"));
+            assertThat(names(root.list(2, 2)), contains("c.txt", "sub"));
+
+            // Every direct child is listed, page by page and named relative to the folder
+            server.resetStatistics();
+            assertThat(names(root.list()), contains("a.txt", "b.txt", "c.txt", "sub"));
+            assertThat(server.getRequestCount("POST aql"), is(2L));
+
+            // Without the option, every file is listed, named relative to the artifacts folder
+            config.setPagedBrowsing(false);
+            assertThat(names(root.list()), containsInAnyOrder("a.txt", "b.txt", "c.txt", "sub/d.txt"));
+            config.setPagedBrowsing(true);
+
+            // Metadata comes from the listing
+            config.setBrowsingPageSize(10);
+            VirtualFile[] children = root.browse();
+            server.resetStatistics();
+            assertThat(children[0].isFile(), is(true));
+            assertThat(children[0].length(), is(5L));
+            assertThat(children[3].isDirectory(), is(true));
+            assertThat(server.getTotalRequestCount(), is(0L));
+            assertThat(names(((ArtifactoryVirtualFile) root.child("sub")).browse()), contains("d.txt"));
+
+            // A failed listing is reported, not shown as an empty folder
+            server.failNext("POST", ".*/api/search/aql", 500, 100);
+            assertThrows(IOException.class, root::list);
+        }
+    }
+
+    @Test
+    public void shouldBrowseAndListEveryArtifactOneLevelAtATime(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            ArtifactoryGenericArtifactConfig config = configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            config.setPagedBrowsing(true);
+            config.setBrowsingPageSize(1);
+            WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "browse");
+            job.setDefinition(new CpsFlowDefinition(
+                    "node('built-in') {\n"
+                            + "  writeFile file: 'a.txt', text: 'a'\n"
+                            + "  writeFile file: 'b.txt', text: 'b'\n"
+                            + "  writeFile file: 'sub/c.txt', text: 'c'\n"
+                            + "  archiveArtifacts artifacts: '**'\n"
+                            + "}\n",
+                    true));
+            WorkflowRun run = jenkinsRule.buildAndAssertSuccess(job);
+
+            // The remote API lists every artifact
+            JSONArray artifacts = jenkinsRule
+                    .getJSON(run.getUrl() + "api/json?tree=artifacts[relativePath]")
+                    .getJSONObject()
+                    .getJSONArray("artifacts");
+            assertThat(artifacts.size(), is(3));
+
+            // The directory browser renders every child, even past the page size
+            String rootPage = jenkinsRule
+                    .createWebClient()
+                    .goTo(run.getUrl() + "artifact/")
+                    .getWebResponse()
+                    .getContentAsString();
+            assertThat(rootPage.contains("href=\"a.txt\""), is(true));
+            assertThat(rootPage.contains("href=\"b.txt\""), is(true));
+
+            // The directory browser links the children of a folder relative to it
+            String page = jenkinsRule
+                    .createWebClient()
+                    .goTo(run.getUrl() + "artifact/sub/")
+                    .getWebResponse()
+                    .getContentAsString();
+            assertThat(page.contains("href=\"c.txt\""), is(true));
+        }
+    }
+
+    @Test
+    public void shouldDownloadArtifactsZipWithArtifactoryArchive(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            server.setFolderArchiveSupported(true);
+            WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "zip");
+            job.setDefinition(new CpsFlowDefinition(
+                    "node('built-in') {\n"
+                            + "  writeFile file: 'a.txt', text: 'a'\n"
+                            + "  writeFile file: 'sub/b.txt', text: 'b'\n"
+                            + "  archiveArtifacts artifacts: '**'\n"
+                            + "}\n",
+                    true));
+            WorkflowRun run = jenkinsRule.buildAndAssertSuccess(job);
+
+            // The zip of the directory browser is made from the archive of Artifactory, in a single request
+            server.resetStatistics();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream is = jenkinsRule
+                    .createWebClient()
+                    .goTo(run.getUrl() + "artifact/*zip*/archive.zip", "application/zip")
+                    .getWebResponse()
+                    .getContentAsStream()) {
+                is.transferTo(out);
+            }
+            assertThat(zipEntries(out), containsInAnyOrder(endsWith("a.txt"), endsWith("sub/b.txt")));
+            assertThat(server.getRequestCount("GET archive"), is(1L));
+            assertThat(server.getRequestCount("GET"), is(0L));
+        }
+    }
+
+    @Test
+    public void shouldHedgeSlowMetadataRequests(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            ArtifactoryGenericArtifactConfig config = configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            config.setPagedBrowsing(true);
+            config.setHedgedRequests(true);
+            server.putFile("my-generic-repo", ROOT + "/a.txt", "a".getBytes(StandardCharsets.UTF_8));
+            ArtifactoryVirtualFile root = new ArtifactoryVirtualFile(ROOT, null);
+
+            // One stalled listing request is answered by its hedge
+            server.delayNext("POST", "/api/search/aql", Duration.ofSeconds(30), 1);
+            long start = System.nanoTime();
+            assertThat(names(root.list(0, 10)), contains("a.txt"));
+            assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), lessThan(10L));
+            assertThat(server.getRequestCount("POST aql"), is(2L));
+        }
+    }
+
+    @Test
+    public void shouldResolveMetadataOnceAndOpenConcurrently(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            server.putFile("my-generic-repo", ROOT + "/a.txt", "abc".getBytes(StandardCharsets.UTF_8));
+
+            // One storage request answers all the metadata
+            ArtifactoryVirtualFile file = new ArtifactoryVirtualFile(ROOT + "/a.txt", null);
+            assertThat(file.isDirectory(), is(false));
+            assertThat(file.isFile(), is(true));
+            assertThat(file.length(), is(3L));
+            assertThat(file.getSha1(), is("a9993e364706816aba3e25717850c26c9cd0d89d"));
+            assertThat(server.getRequestCount("GET storage"), is(1L));
+            assertThat(server.getRequestCount("GET"), is(0L));
+
+            // The lookup and the download of an unknown file are sent at once
+            server.resetStatistics();
+            server.delayNext("GET", "/api/storage/.*", Duration.ofSeconds(2), 1);
+            server.delayNext("GET", "/my-generic-repo/.*", Duration.ofSeconds(2), 1);
+            long start = System.nanoTime();
+            assertThat(read(new ArtifactoryVirtualFile(ROOT + "/a.txt", null)), is("abc"));
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(3500L));
+            assertThat(server.getRequestCount("GET storage"), is(1L));
+            assertThat(server.getRequestCount("GET"), is(1L));
+        }
+    }
+
+    @Test
+    public void shouldReadRangesWithoutDownloadingWholeFile(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            byte[] content = new byte[4 * 1024 * 1024];
+            new Random(42).nextBytes(content);
+            server.putFile("my-generic-repo", ROOT + "/big.log", content);
+            ArtifactoryVirtualFile file = new ArtifactoryVirtualFile(ROOT + "/big.log", null);
+
+            // Tail of the file
+            server.resetStatistics();
+            try (InputStream is = file.open()) {
+                assertThat(is.skip(content.length - 100), is((long) content.length - 100));
+                assertThat(is.readAllBytes(), is(Arrays.copyOfRange(content, content.length - 100, content.length)));
+            }
+            assertThat(server.getBytesOut(), lessThan(256 * 1024L));
+
+            // Explicit range, seekable inside the range
+            server.resetStatistics();
+            try (ArtifactoryRangeInputStream is = file.openRange(1_000_000, 1000)) {
+                assertThat(is.readNBytes(10), is(Arrays.copyOfRange(content, 1_000_000, 1_000_010)));
+                is.seek(1_000_500);
+                assertThat(is.readAllBytes(), is(Arrays.copyOfRange(content, 1_000_500, 1_001_000)));
+            }
+            assertThat(server.getBytesOut(), lessThan(2000L));
+
+            // Full sequential read needs the first block and a single open-ended range
+            server.resetStatistics();
+            try (InputStream is = file.open()) {
+                assertThat(is.readAllBytes(), is(content));
+            }
+            assertThat(server.getRequestCount("GET"), is(2L));
+
+            // Random reads fall back to bounded blocks
+            server.resetStatistics();
+            try (ArtifactoryRangeInputStream is = file.openRange(0, content.length)) {
+                is.seek(2_000_000);
+                assertThat(is.readNBytes(100), is(Arrays.copyOfRange(content, 2_000_000, 2_000_100)));
+                is.seek(500_000);
+                assertThat(is.readNBytes(100), is(Arrays.copyOfRange(content, 500_000, 500_100)));
+            }
+            assertThat(server.getBytesOut(), lessThan(256 * 1024L));
+        }
+    }
+
+    @Test
+    public void shouldQueryLargeListingsPageByPage(JenkinsRule jenkinsRule) throws Exception {
+        int pageSize = ArtifactoryClient.listingPageSize;
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            ArtifactoryClient.listingPageSize = 2;
+            configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            for (String name : List.of("a.txt", "b.txt", "c.txt", "sub/d.txt", "sub/e/f.txt")) {
+                server.putFile("my-generic-repo", ROOT + "/" + name, name.getBytes(StandardCharsets.UTF_8));
+            }
+            assertThat(
+                    names(new ArtifactoryVirtualFile(ROOT, null).list()),
+                    containsInAnyOrder("a.txt", "b.txt", "c.txt", "sub/d.txt", "sub/e/f.txt"));
+            assertThat(server.getRequestCount("POST aql"), is(3L));
+        } finally {
+            ArtifactoryClient.listingPageSize = pageSize;
+        }
+    }
+
+    @Test
+    public void shouldZipWithArtifactoryArchiveOrFallback(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            for (String name : List.of("a.txt", "sub/b.txt")) {
+                server.putFile("my-generic-repo", ROOT + "/" + name, name.getBytes(StandardCharsets.UTF_8));
+            }
+            ArtifactoryVirtualFile root = new ArtifactoryVirtualFile(ROOT, null);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            // Archive produced by Artifactory in one request, when it has the requested layout
+            server.setFolderArchiveSupported(true);
+            assertThat(root.zip(out, "**", null, true, ""), is(2));
+            assertThat(zipEntries(out), containsInAnyOrder("a.txt", "sub/b.txt"));
+            assertThat(server.getRequestCount("GET archive"), is(1L));
+            assertThat(server.getRequestCount("GET"), is(0L));
+
+            // The entries of the archive of Artifactory are renamed with the prefix
+            server.resetStatistics();
+            out.reset();
+            assertThat(root.zip(out, "**", null, true, "archive/"), is(2));
+            assertThat(zipEntries(out), containsInAnyOrder("archive/a.txt", "archive/sub/b.txt"));
+            assertThat(server.getRequestCount("GET archive"), is(1L));
+            assertThat(server.getRequestCount("GET"), is(0L));
+
+            // Neither are default excludes
+            server.putFile("my-generic-repo", ROOT + "/.git/config", "x".getBytes(StandardCharsets.UTF_8));
+            server.resetStatistics();
+            out.reset();
+            assertThat(root.zip(out, "**", null, true, ""), is(2));
+            assertThat(zipEntries(out), containsInAnyOrder("a.txt", "sub/b.txt"));
+            assertThat(server.getRequestCount("GET archive"), is(0L));
+            assertThat(root.zip(new ByteArrayOutputStream(), "**", null, false, ""), is(3));
+            assertThat(server.getRequestCount("GET archive"), is(1L));
+
+            // Failures other than a missing feature don't disable the archive
+            server.failNext("GET", "/api/archive/download/.*", 503, 1);
+            server.resetStatistics();
+            assertThat(root.zip(new ByteArrayOutputStream(), "**", null, false, ""), is(3));
+            assertThat(root.zip(new ByteArrayOutputStream(), "**", null, false, ""), is(3));
+            assertThat(server.getRequestCount("GET archive"), is(2L));
+
+            // The files not written yet when the archive breaks are downloaded instead
+            server.setFolderArchiveBrokenAfter(1);
+            server.resetStatistics();
+            out.reset();
+            assertThat(root.zip(out, "**", null, false, "archive/"), is(3));
+            assertThat(
+                    zipEntries(out),
+                    containsInAnyOrder("archive/.git/config", "archive/a.txt", "archive/sub/b.txt"));
+            assertThat(zipContent(out, "archive/a.txt"), is("a.txt"));
+            assertThat(server.getRequestCount("GET archive"), is(1L));
+            assertThat(server.getRequestCount("GET"), is(2L));
+            server.setFolderArchiveBrokenAfter(-1);
+
+            // Filtered zip is built from parallel downloads
+            out.reset();
+            assertThat(root.zip(out, "sub/**", null, true, "archive/"), is(1));
+            assertThat(zipEntries(out), contains("archive/sub/b.txt"));
+
+            // Fallback when the server cannot produce archives
+            server.setFolderArchiveSupported(false);
+            server.resetStatistics();
+            out.reset();
+            assertThat(root.zip(out, "**", null, false, ""), is(3));
+            assertThat(zipEntries(out), containsInAnyOrder("a.txt", "sub/b.txt", ".git/config"));
+            assertThat(root.zip(new ByteArrayOutputStream(), "**", null, false, ""), is(3));
+            assertThat(server.getRequestCount("GET archive"), is(1L));
+        }
+    }
+
+    @Test
+    public void shouldNotSignAgainAfterFailureUntilConfigurationChanges(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            ArtifactoryGenericArtifactConfig config = configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            config.setSignedUrls(true);
+            server.putFile("my-generic-repo", ROOT + "/a.txt", "a".getBytes(StandardCharsets.UTF_8));
+
+            // The server cannot sign, downloads go through Jenkins without asking again
+            for (int i = 0; i < 3; i++) {
+                assertThat(new ArtifactoryVirtualFile(ROOT + "/a.txt", null).toExternalURL(), nullValue());
+            }
+            assertThat(server.getRequestCount("POST signed"), is(1L));
+
+            // A new configuration tries again
+            config.setSignedUrlExpiry(120);
+            assertThat(new ArtifactoryVirtualFile(ROOT + "/a.txt", null).toExternalURL(), nullValue());
+            assertThat(server.getRequestCount("POST signed"), is(2L));
+        }
+    }
+
+    @Test
+    public void shouldServeHotArtifactsFromContentCache(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            ArtifactoryGenericArtifactConfig config = configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            config.setContentCache(true);
+            config.setContentCacheMaxFileSize(1);
+            server.putFile("my-generic-repo", ROOT + "/version.txt", "1.0".getBytes(StandardCharsets.UTF_8));
+            server.putFile("my-generic-repo", ROOT + "/big.bin", new byte[2048]);
+
+            // First read downloads and caches
+            assertThat(read(new ArtifactoryVirtualFile(ROOT + "/version.txt", null)), is("1.0"));
+            assertThat(server.getRequestCount("GET"), is(1L));
+
+            // Recently validated artifact costs nothing
+            server.resetStatistics();
+            assertThat(read(new ArtifactoryVirtualFile(ROOT + "/version.txt", null)), is("1.0"));
+            assertThat(server.getTotalRequestCount(), is(0L));
+
+            // Artifacts over the maximum size are never cached
+            for (int i = 0; i < 2; i++) {
+                try (InputStream is = new ArtifactoryVirtualFile(ROOT + "/big.bin", null).open()) {
+                    assertThat(is.readAllBytes().length, is(2048));
+                }
+            }
+            assertThat(server.getRequestCount("GET"), is(2L));
+        }
+    }
+
+    @Test
+    public void shouldAnswerFromRunManifestWithoutRequests(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "manifest");
+            job.setDefinition(new CpsFlowDefinition(
+                    "node('built-in') {\n"
+                            + "  for (int i = 0; i < 150; i++) {\n"
+                            + "    writeFile file: \"files/file-${i}.txt\", text: \"${i}\"\n"
+                            + "  }\n"
+                            + "  writeFile file: 'top.txt', text: 'top'\n"
+                            + "  archiveArtifacts artifacts: '**/*.txt'\n"
+                            + "}\n",
+                    true));
+            WorkflowRun run = jenkinsRule.buildAndAssertSuccess(job);
+
+            // Large manifest is spilled next to the build record
+            assertThat(new File(run.getRootDir(), ArtifactoryManifest.FILE_NAME).isFile(), is(true));
+
+            server.resetStatistics();
+            assertThat(run.getArtifacts(), hasSize(151));
+            VirtualFile root = run.getArtifactManager().root();
+            assertThat(root.isDirectory(), is(true));
+            assertThat(root.child("files").isDirectory(), is(true));
+            assertThat(root.child("files/file-7.txt").length(), is(1L));
+            assertThat(root.child("missing.txt").exists(), is(false));
+            assertThat(
+                    ((ArtifactoryVirtualFile) root.child("top.txt")).getSha1(),
+                    is("af2c7b4ca07ae6c74d261bc745e174df8ab3ffef"));
+            assertThat(server.getTotalRequestCount(), is(0L));
+        }
+    }
+
+    private static String read(VirtualFile file) throws IOException {
+        try (InputStream is = file.open()) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static List<String> zipEntries(ByteArrayOutputStream out) throws IOException {
+        List<String> entries = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                entries.add(entry.getName());
+            }
+        }
+        return entries;
+    }
+
+    private static String zipContent(ByteArrayOutputStream out, String name) throws IOException {
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.getName().equals(name)) {
+                    return new String(zip.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<String> names(VirtualFile[] files) {
+        return Arrays.stream(files).map(VirtualFile::getName).collect(Collectors.toList());
+    }
+}
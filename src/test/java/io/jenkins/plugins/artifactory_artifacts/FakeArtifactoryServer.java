@@ -0,0 +1,1086 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * In-process stand-in for an Artifactory server backed by a temporary directory.
+ * <p>
+ * It implements the subset of the REST API used by the plugin: deploy (including checksum deploy), download with
+ * ranges and ETags, delete, the storage API, an AQL subset, copy, move and optionally folder archive download.
+ * Latency, bandwidth limits and errors can be injected to observe the plugin behaviour on slow or unreliable links,
+ * and every request is counted.
+ */
+public class FakeArtifactoryServer implements AutoCloseable {
+
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX").withZone(ZoneOffset.UTC);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Path storage;
+    private final Path blobs;
+    private final NavigableMap<String, Item> items = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> requestCounts = new ConcurrentSkipListMap<>();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final List<Failure> failures = new CopyOnWriteArrayList<>();
+    private final List<Delay> delays = new CopyOnWriteArrayList<>();
+    private final AtomicLong errorCandidates = new AtomicLong();
+    private final LongAdder injectedErrors = new LongAdder();
+
+    private volatile long latencyMillis;
+    private volatile long bytesPerSecond;
+    private volatile double errorRate;
+    private volatile boolean folderArchiveSupported;
+    private volatile int folderArchiveBrokenAfter = -1;
+    private long nextFreeNanos;
+
+    public FakeArtifactoryServer() throws IOException {
+        this.storage = Files.createTempDirectory("fake-artifactory");
+        this.blobs = Files.createDirectories(storage.resolve("blobs"));
+        this.executor = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 256);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + getPort();
+    }
+
+    /**
+     * Delay every request by the given round trip time
+     * @param latency the latency to add to each request
+     */
+    public void setLatency(Duration latency) {
+        this.latencyMillis = latency.toMillis();
+    }
+
+    /**
+     * Limit the bandwidth shared by all requests, in both directions
+     * @param bytesPerSecond the bandwidth in bytes per second. 0 for unlimited
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Fail a share of the requests with a 500 error. The failures are spread evenly and deterministically: with a rate
+     * of 0.01, the 100th, 200th... requests fail
+     * @param errorRate the share of requests to fail, between 0 and 1
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        this.errorCandidates.set(0);
+    }
+
+    /**
+     * @return the number of requests failed by the error rate since the last reset
+     */
+    public long getInjectedErrorCount() {
+        return injectedErrors.sum();
+    }
+
+    /**
+     * Enable the folder archive download API, which requires Artifactory PRO with folder download enabled
+     * @param folderArchiveSupported true to enable the API
+     */
+    public void setFolderArchiveSupported(boolean folderArchiveSupported) {
+        this.folderArchiveSupported = folderArchiveSupported;
+    }
+
+    /**
+     * Cut the folder archives in the middle of an entry, like a connection lost while the archive is streamed
+     * @param entries the number of complete entries of the archives, -1 to send them whole
+     */
+    public void setFolderArchiveBrokenAfter(int entries) {
+        this.folderArchiveBrokenAfter = entries;
+    }
+
+    /**
+     * Fail the next requests matching a method and a path
+     * @param method the HTTP method
+     * @param pathRegex the regular expression matched against the decoded request path
+     * @param status the status to return
+     * @param count the number of requests to fail
+     */
+    public void failNext(String method, String pathRegex, int status, int count) {
+        failures.add(new Failure(method, Pattern.compile(pathRegex), status, count));
+    }
+
+    /**
+     * Delay the next requests matching a method and a path, on top of the latency
+     * @param method the HTTP method
+     * @param pathRegex the regular expression matched against the decoded request path
+     * @param delay the delay
+     * @param count the number of requests to delay
+     */
+    public void delayNext(String method, String pathRegex, Duration delay, int count) {
+        delays.add(new Delay(method, Pattern.compile(pathRegex), delay.toMillis(), count));
+    }
+
+    /**
+     * Return the number of requests received for a category, for example "PUT", "GET storage" or "POST aql"
+     * @param category the category
+     * @return the number of requests
+     */
+    public long getRequestCount(String category) {
+        LongAdder adder = requestCounts.get(category);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    public long getTotalRequestCount() {
+        return requestCounts.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    public Map<String, Long> getRequestCounts() {
+        return requestCounts.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().sum(), (a, b) -> a, TreeMap::new));
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public void resetStatistics() {
+        requestCounts.clear();
+        injectedErrors.reset();
+        bytesIn.reset();
+        bytesOut.reset();
+    }
+
+    /**
+     * Check if a file or folder exists
+     * @param repository the repository
+     * @param path the path in the repository
+     * @return true if the item exists
+     */
+    public boolean exists(String repository, String path) {
+        return items.containsKey(key(repository, path));
+    }
+
+    /**
+     * Return the number of files stored under a path
+     * @param repository the repository
+     * @param path the path in the repository
+     * @return the number of files
+     */
+    public long countFiles(String repository, String path) {
+        return descendants(repository, path).values().stream()
+                .filter(item -> !item.folder)
+                .count();
+    }
+
+    /**
+     * Store a file directly, bypassing the HTTP layer
+     * @param repository the repository
+     * @param path the path in the repository
+     * @param content the content
+     */
+    public void putFile(String repository, String path, byte[] content) throws IOException {
+        Path tmp = Files.createTempFile(storage, "upload", ".tmp");
+        Files.write(tmp, content);
+        store(repository, path, tmp);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.stop(0);
+        executor.shutdownNow();
+        FileUtils.deleteDirectory(storage.toFile());
+    }
+
+    public String report() {
+        return String.format(
+                "%d request(s) %s, %d byte(s) received, %d byte(s) sent",
+                getTotalRequestCount(), getRequestCounts(), getBytesIn(), getBytesOut());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            requestCounts
+                    .computeIfAbsent(category(method, path), c -> new LongAdder())
+                    .increment();
+            sleep(latencyMillis);
+            sleep(nextDelay(method, path));
+            Failure failure = nextFailure(method, path);
+            if (failure != null) {
+                sendText(exchange, failure.status, "Injected failure");
+                return;
+            }
+            if (nextInjectedError()) {
+                injectedErrors.increment();
+                sendText(exchange, 500, "Injected failure from the error rate");
+                return;
+            }
+            if (path.startsWith("/api/storage/")) {
+                handleStorage(exchange, path.substring("/api/storage/".length()));
+            } else if (path.equals("/api/search/aql")) {
+                handleAql(exchange);
+            } else if (path.startsWith("/api/copy/")) {
+                handleCopyOrMove(exchange, path.substring("/api/copy/".length()), query, false);
+            } else if (path.startsWith("/api/move/")) {
+                handleCopyOrMove(exchange, path.substring("/api/move/".length()), query, true);
+            } else if (path.startsWith("/api/archive/download/")) {
+                if (folderArchiveSupported) {
+                    handleArchiveDownload(exchange, path.substring("/api/archive/download/".length()));
+                } else {
+                    sendText(exchange, 400, "Download Folder functionality is disabled");
+                }
+            } else if (path.equals("/api/system/ping")) {
+                sendText(exchange, 200, "OK");
+            } else if (path.startsWith("/api/")) {
+                sendText(exchange, 404, "Unsupported API " + path);
+            } else {
+                handleRepository(exchange, method, path.substring(1));
+            }
+        } catch (Exception e) {
+            sendText(exchange, 500, e.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private boolean nextInjectedError() {
+        double rate = errorRate;
+        if (rate <= 0) {
+            return false;
+        }
+        long n = errorCandidates.incrementAndGet();
+        return (long) (n * rate) > (long) ((n - 1) * rate);
+    }
+
+    private void handleRepository(HttpExchange exchange, String method, String repoPath) throws IOException {
+        String repository = repoPath.contains("/") ? repoPath.substring(0, repoPath.indexOf('/')) : repoPath;
+        String path = normalize(repoPath.substring(repository.length()));
+        switch (method) {
+            case "PUT":
+                handleDeploy(exchange, repository, path);
+                break;
+            case "GET":
+            case "HEAD":
+                handleDownload(exchange, repository, path, method.equals("HEAD"));
+                break;
+            case "DELETE":
+                if (descendants(repository, path).isEmpty()) {
+                    sendText(exchange, 404, "Not found");
+                } else {
+                    descendants(repository, path).keySet().forEach(items::remove);
+                    exchange.sendResponseHeaders(204, -1);
+                }
+                break;
+            default:
+                sendText(exchange, 405, "Method not allowed");
+        }
+    }
+
+    private void handleDeploy(HttpExchange exchange, String repository, String path) throws IOException {
+        Headers headers = exchange.getRequestHeaders();
+        if ("true".equalsIgnoreCase(headers.getFirst("X-Checksum-Deploy"))) {
+            String sha1 = headers.getFirst("X-Checksum-Sha1");
+            Item existing = sha1 == null ? null : findBySha1(sha1);
+            if (existing == null) {
+                sendText(exchange, 404, "Checksum deploy failed: no artifact with this checksum");
+                return;
+            }
+            Item item = existing.copyTo(repository, path);
+            putItem(item);
+            sendJson(exchange, 201, fileJson(item));
+            return;
+        }
+        if (path.isEmpty() || exchange.getRequestURI().getPath().endsWith("/")) {
+            ensureFolders(repository, path, Instant.now());
+            sendJson(exchange, 201, new JSONObject());
+            return;
+        }
+        Path tmp = Files.createTempFile(storage, "upload", ".tmp");
+        try (InputStream in = exchange.getRequestBody();
+                OutputStream out = Files.newOutputStream(tmp)) {
+            bytesIn.add(throttledCopy(in, out, Long.MAX_VALUE));
+        }
+        Item item = store(repository, path, tmp);
+        sendJson(exchange, 201, fileJson(item));
+    }
+
+    private void handleDownload(HttpExchange exchange, String repository, String path, boolean head)
+            throws IOException {
+        Item item = items.get(key(repository, path));
+        if (item == null || item.folder) {
+            sendText(exchange, 404, "Not found");
+            return;
+        }
+        Headers responseHeaders = exchange.getResponseHeaders();
+        responseHeaders.set("ETag", item.sha1);
+        responseHeaders.set("X-Checksum-Sha1", item.sha1);
+        responseHeaders.set("X-Checksum-Sha256", item.sha256);
+        responseHeaders.set("X-Checksum-Md5", item.md5);
+        responseHeaders.set("Accept-Ranges", "bytes");
+        responseHeaders.set("Content-Type", "application/octet-stream");
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch != null && ifNoneMatch.replace("\"", "").equals(item.sha1)) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        long start = 0;
+        long end = item.size - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=") && item.size > 0) {
+            String[] bounds = range.substring("bytes=".length()).split("-", 2);
+            if (bounds[0].isEmpty()) {
+                start = Math.max(0, item.size - Long.parseLong(bounds[1]));
+            } else {
+                start = Long.parseLong(bounds[0]);
+                if (!bounds[1].isEmpty()) {
+                    end = Math.min(end, Long.parseLong(bounds[1]));
+                }
+            }
+            if (start > end) {
+                responseHeaders.set("Content-Range", "bytes */" + item.size);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            responseHeaders.set("Content-Range", String.format("bytes %d-%d/%d", start, end, item.size));
+            status = 206;
+        }
+        long length = item.size == 0 ? 0 : end - start + 1;
+        if (head) {
+            responseHeaders.set("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        try (InputStream in = Files.newInputStream(blobs.resolve(item.sha1));
+                OutputStream out = exchange.getResponseBody()) {
+            in.skipNBytes(start);
+            bytesOut.add(throttledCopy(in, out, length));
+        }
+    }
+
+    private void handleStorage(HttpExchange exchange, String repoPath) throws IOException {
+        String repository = repoPath.contains("/") ? repoPath.substring(0, repoPath.indexOf('/')) : repoPath;
+        String path = normalize(repoPath.substring(repository.length()));
+        Item item = items.get(key(repository, path));
+        if (item == null && !path.isEmpty()) {
+            sendJson(
+                    exchange,
+                    404,
+                    JSONObject.fromObject("{\"errors\":[{\"status\":404,\"message\":\"Unable to find item\"}]}"));
+            return;
+        }
+        if (item == null || item.folder) {
+            JSONArray children = new JSONArray();
+            for (Item child : children(repository, path)) {
+                JSONObject json = new JSONObject();
+                json.put("uri", "/" + child.name());
+                json.put("folder", child.folder);
+                children.add(json);
+            }
+            Instant created = item == null ? Instant.EPOCH : item.created;
+            Instant modified = item == null ? Instant.EPOCH : item.modified;
+            JSONObject json = new JSONObject();
+            json.put("repo", repository);
+            json.put("path", "/" + path);
+            json.put("created", format(created));
+            json.put("createdBy", "admin");
+            json.put("lastModified", format(modified));
+            json.put("modifiedBy", "admin");
+            json.put("lastUpdated", format(modified));
+            json.put("children", children);
+            json.put("uri", String.format("%s/api/storage/%s/%s", getUrl(), repository, path));
+            sendJson(exchange, 200, json);
+            return;
+        }
+        sendJson(exchange, 200, fileJson(item));
+    }
+
+    private void handleCopyOrMove(HttpExchange exchange, String repoPath, Map<String, String> query, boolean move)
+            throws IOException {
+        String repository = repoPath.contains("/") ? repoPath.substring(0, repoPath.indexOf('/')) : repoPath;
+        String path = normalize(repoPath.substring(repository.length()));
+        String to = normalize(query.getOrDefault("to", ""));
+        String toRepository = to.contains("/") ? to.substring(0, to.indexOf('/')) : to;
+        String toPath = normalize(to.substring(toRepository.length()));
+        NavigableMap<String, Item> sources = descendants(repository, path);
+        if (sources.isEmpty()) {
+            sendText(exchange, 404, "Not found");
+            return;
+        }
+        int files = 0;
+        int folders = 0;
+        for (Item source : new ArrayList<>(sources.values())) {
+            String target = toPath + source.path.substring(path.length());
+            putItem(source.copyTo(toRepository, normalize(target)));
+            if (source.folder) {
+                folders++;
+            } else {
+                files++;
+            }
+        }
+        if (move) {
+            sources.keySet().forEach(items::remove);
+        }
+        JSONObject message = new JSONObject();
+        message.put("level", "INFO");
+        message.put(
+                "message",
+                String.format(
+                        "%s %s:%s to %s:%s completed successfully, %d artifacts and %d folders were %s",
+                        move ? "moving" : "copying",
+                        repository,
+                        path,
+                        toRepository,
+                        toPath,
+                        files,
+                        folders,
+                        move ? "moved" : "copied"));
+        JSONArray messages = new JSONArray();
+        messages.add(message);
+        JSONObject json = new JSONObject();
+        json.put("messages", messages);
+        sendJson(exchange, 200, json);
+    }
+
+    private void handleArchiveDownload(HttpExchange exchange, String repoPath) throws IOException {
+        String repository = repoPath.contains("/") ? repoPath.substring(0, repoPath.indexOf('/')) : repoPath;
+        String path = normalize(repoPath.substring(repository.length()));
+        List<Item> files = descendants(repository, path).values().stream()
+                .filter(item -> !item.folder)
+                .collect(Collectors.toList());
+        if (files.isEmpty()) {
+            sendText(exchange, 404, "Not found");
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/zip");
+        exchange.sendResponseHeaders(200, 0);
+        ZipOutputStream zip = new ZipOutputStream(exchange.getResponseBody());
+        int entries = 0;
+        for (Item item : files) {
+            zip.putNextEntry(new ZipEntry(item.path.substring(path.isEmpty() ? 0 : path.length() + 1)));
+            if (entries++ == folderArchiveBrokenAfter) {
+                // The archive ends after the header of the entry
+                zip.flush();
+                return;
+            }
+            try (InputStream in = Files.newInputStream(blobs.resolve(item.sha1))) {
+                bytesOut.add(throttledCopy(in, zip, Long.MAX_VALUE));
+            }
+            zip.closeEntry();
+        }
+        zip.close();
+    }
+
+    private void handleAql(HttpExchange exchange) throws IOException {
+        String body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        bytesIn.add(body.length());
+        AqlQuery query = AqlQuery.parse(body);
+        List<Item> matches = items.values().stream()
+                .filter(query::matches)
+                .sorted(query.comparator())
+                .collect(Collectors.toList());
+        int total = matches.size();
+        int from = (int) Math.min(query.offset, total);
+        int to = (int) Math.min(total, query.limit < 0 ? total : from + query.limit);
+        JSONArray results = new JSONArray();
+        for (Item item : matches.subList(from, to)) {
+            results.add(query.toJson(item));
+        }
+        JSONObject range = new JSONObject();
+        range.put("start_pos", from);
+        range.put("end_pos", to);
+        range.put("total", to - from);
+        if (query.limit >= 0) {
+            range.put("limit", query.limit);
+        }
+        JSONObject json = new JSONObject();
+        json.put("results", results);
+        json.put("range", range);
+        sendJson(exchange, 200, json);
+    }
+
+    private Item store(String repository, String path, Path content) throws IOException {
+        MessageDigest sha1 = digest("SHA-1");
+        MessageDigest sha256 = digest("SHA-256");
+        MessageDigest md5 = digest("MD5");
+        try (InputStream in = new DigestInputStream(
+                new DigestInputStream(new DigestInputStream(Files.newInputStream(content), sha1), sha256), md5)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        String sha1Hex = hex(sha1.digest());
+        Path blob = blobs.resolve(sha1Hex);
+        Files.move(content, blob, StandardCopyOption.REPLACE_EXISTING);
+        Instant now = Instant.now();
+        Item item = new Item(
+                repository, path, false, Files.size(blob), sha1Hex, hex(sha256.digest()), hex(md5.digest()), now, now);
+        putItem(item);
+        return item;
+    }
+
+    private void putItem(Item item) {
+        int slash = item.path.lastIndexOf('/');
+        ensureFolders(item.repository, slash < 0 ? "" : item.path.substring(0, slash), item.created);
+        items.put(key(item.repository, item.path), item);
+    }
+
+    private void ensureFolders(String repository, String path, Instant now) {
+        String current = "";
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            current = current.isEmpty() ? segment : current + "/" + segment;
+            items.putIfAbsent(
+                    key(repository, current), new Item(repository, current, true, 0, null, null, null, now, now));
+        }
+    }
+
+    private Item findBySha1(String sha1) {
+        return items.values().stream()
+                .filter(item -> sha1.equals(item.sha1))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private NavigableMap<String, Item> descendants(String repository, String path) {
+        if (path.isEmpty()) {
+            return items.subMap(repository + "/", true, repository + "/\uffff", true);
+        }
+        String key = key(repository, path);
+        NavigableMap<String, Item> result = new TreeMap<>(items.subMap(key + "/", true, key + "/\uffff", true));
+        Item item = items.get(key);
+        if (item != null) {
+            result.put(key, item);
+        }
+        return result;
+    }
+
+    private List<Item> children(String repository, String path) {
+        String parent = path.isEmpty() ? "." : path;
+        return descendants(repository, path).values().stream()
+                .filter(item -> item.parent().equals(parent))
+                .collect(Collectors.toList());
+    }
+
+    private JSONObject fileJson(Item item) {
+        JSONObject checksums = new JSONObject();
+        checksums.put("sha1", item.sha1);
+        checksums.put("md5", item.md5);
+        checksums.put("sha256", item.sha256);
+        JSONObject json = new JSONObject();
+        json.put("repo", item.repository);
+        json.put("path", "/" + item.path);
+        json.put("created", format(item.created));
+        json.put("createdBy", "admin");
+        json.put("lastModified", format(item.modified));
+        json.put("modifiedBy", "admin");
+        json.put("lastUpdated", format(item.modified));
+        json.put("downloadUri", String.format("%s/%s/%s", getUrl(), item.repository, item.path));
+        json.put("mimeType", "application/octet-stream");
+        json.put("size", String.valueOf(item.size));
+        json.put("checksums", checksums);
+        json.put("originalChecksums", checksums);
+        json.put("uri", String.format("%s/api/storage/%s/%s", getUrl(), item.repository, item.path));
+        return json;
+    }
+
+    private long throttledCopy(InputStream in, OutputStream out, long limit) throws IOException {
+        byte[] buffer = new byte[16 * 1024];
+        long total = 0;
+        while (total < limit) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, limit - total));
+            if (read < 0) {
+                break;
+            }
+            throttle(read);
+            out.write(buffer, 0, read);
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Shared token bucket: every transferred chunk reserves its slot on the simulated link.
+     */
+    private void throttle(int bytes) {
+        long bandwidth = bytesPerSecond;
+        if (bandwidth <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            nextFreeNanos = Math.max(now, nextFreeNanos) + TimeUnit.SECONDS.toNanos(bytes) / bandwidth;
+            waitNanos = nextFreeNanos - now;
+        }
+        sleep(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+    }
+
+    private Failure nextFailure(String method, String path) {
+        for (Failure failure : failures) {
+            if (failure.method.equals(method)
+                    && failure.path.matcher(path).matches()
+                    && failure.remaining.getAndDecrement() > 0) {
+                return failure;
+            }
+        }
+        return null;
+    }
+
+    private long nextDelay(String method, String path) {
+        for (Delay delay : delays) {
+            if (delay.method.equals(method)
+                    && delay.path.matcher(path).matches()
+                    && delay.remaining.getAndDecrement() > 0) {
+                return delay.millis;
+            }
+        }
+        return 0;
+    }
+
+    private static String category(String method, String path) {
+        if (path.startsWith("/api/")) {
+            String api = path.substring("/api/".length());
+            int slash = api.indexOf('/');
+            String name = slash < 0 ? api : api.substring(0, slash);
+            if (name.equals("search")) {
+                name = api.substring(slash + 1);
+            }
+            return method + " " + name;
+        }
+        return method;
+    }
+
+    private void sendJson(HttpExchange exchange, int status, JSONObject json) throws IOException {
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        bytesOut.add(body.length);
+    }
+
+    private void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            String[] parts = pair.split("=", 2);
+            query.put(
+                    URLDecoder.decode(parts[0], StandardCharsets.UTF_8),
+                    parts.length > 1 ? URLDecoder.decode(parts[1], StandardCharsets.UTF_8) : "");
+        }
+        return query;
+    }
+
+    private static String normalize(String path) {
+        String result = path;
+        while (result.startsWith("/")) {
+            result = result.substring(1);
+        }
+        while (result.endsWith("/")) {
+            result = result.substring(0, result.length() - 1);
+        }
+        return result.replaceAll("/+", "/");
+    }
+
+    private static String key(String repository, String path) {
+        return repository + "/" + normalize(path);
+    }
+
+    private static String format(Instant instant) {
+        return DATE_FORMAT.format(instant);
+    }
+
+    private static MessageDigest digest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Failure {
+        private final String method;
+        private final Pattern path;
+        private final int status;
+        private final AtomicInteger remaining;
+
+        private Failure(String method, Pattern path, int status, int count) {
+            this.method = method;
+            this.path = path;
+            this.status = status;
+            this.remaining = new AtomicInteger(count);
+        }
+    }
+
+    private static final class Delay {
+        private final String method;
+        private final Pattern path;
+        private final long millis;
+        private final AtomicInteger remaining;
+
+        private Delay(String method, Pattern path, long millis, int count) {
+            this.method = method;
+            this.path = path;
+            this.millis = millis;
+            this.remaining = new AtomicInteger(count);
+        }
+    }
+
+    private static final class Item {
+        private final String repository;
+        private final String path;
+        private final boolean folder;
+        private final long size;
+        private final String sha1;
+        private final String sha256;
+        private final String md5;
+        private final Instant created;
+        private final Instant modified;
+
+        private Item(
+                String repository,
+                String path,
+                boolean folder,
+                long size,
+                String sha1,
+                String sha256,
+                String md5,
+                Instant created,
+                Instant modified) {
+            this.repository = repository;
+            this.path = path;
+            this.folder = folder;
+            this.size = size;
+            this.sha1 = sha1;
+            this.sha256 = sha256;
+            this.md5 = md5;
+            this.created = created;
+            this.modified = modified;
+        }
+
+        private String name() {
+            int slash = path.lastIndexOf('/');
+            return slash < 0 ? path : path.substring(slash + 1);
+        }
+
+        private String parent() {
+            int slash = path.lastIndexOf('/');
+            return slash < 0 ? "." : path.substring(0, slash);
+        }
+
+        private Item copyTo(String toRepository, String toPath) {
+            Instant now = Instant.now();
+            return new Item(toRepository, toPath, folder, size, sha1, sha256, md5, now, now);
+        }
+
+        private Object field(String name) {
+            switch (name) {
+                case "repo":
+                    return repository;
+                case "path":
+                    return parent();
+                case "name":
+                    return name();
+                case "type":
+                    return folder ? "folder" : "file";
+                case "size":
+                    return size;
+                case "created":
+                    return format(created);
+                case "modified":
+                case "updated":
+                    return format(modified);
+                case "actual_sha1":
+                    return sha1;
+                case "sha256":
+                    return sha256;
+                case "actual_md5":
+                    return md5;
+                case "depth":
+                    return path.split("/").length;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Subset of AQL: {@code items.find(criteria).include(fields).sort(order).offset(n).limit(n)}.
+     * Criteria support {@code $and}, {@code $or} and the {@code $eq}, {@code $ne}, {@code $match}, {@code $nmatch},
+     * {@code $gt}, {@code $gte}, {@code $lt} and {@code $lte} operators. As on Artifactory, only files are returned
+     * unless the query has a criteria on the type.
+     */
+    private static final class AqlQuery {
+        private static final List<String> DEFAULT_FIELDS =
+                List.of("repo", "path", "name", "type", "size", "created", "modified");
+
+        private JSONObject criteria = new JSONObject();
+        private List<String> include = DEFAULT_FIELDS;
+        private List<String> sortFields = List.of();
+        private boolean descending;
+        private long offset;
+        private long limit = -1;
+
+        static AqlQuery parse(String body) {
+            AqlQuery query = new AqlQuery();
+            String remaining = body.trim();
+            if (!remaining.startsWith("items.find(")) {
+                throw new IllegalArgumentException("Unsupported AQL domain: " + body);
+            }
+            while (!remaining.isEmpty()) {
+                int open = remaining.indexOf('(');
+                String name = remaining.substring(0, open).replaceFirst("^\\.", "").trim();
+                int close = closingParenthesis(remaining, open);
+                String args = remaining.substring(open + 1, close).trim();
+                remaining = remaining.substring(close + 1).trim();
+                switch (name) {
+                    case "items.find":
+                        query.criteria = args.isEmpty() ? new JSONObject() : JSONObject.fromObject(args);
+                        break;
+                    case "include":
+                        query.include = List.of(args.replace("\"", "").split("\\s*,\\s*"));
+                        break;
+                    case "sort":
+                        JSONObject sort = JSONObject.fromObject(args);
+                        query.descending = sort.has("$desc");
+                        JSONArray fields = sort.getJSONArray(query.descending ? "$desc" : "$asc");
+                        query.sortFields = new ArrayList<>();
+                        for (Object field : fields) {
+                            query.sortFields.add(field.toString());
+                        }
+                        break;
+                    case "offset":
+                        query.offset = Long.parseLong(args);
+                        break;
+                    case "limit":
+                        query.limit = Long.parseLong(args);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unsupported AQL function: " + name);
+                }
+            }
+            return query;
+        }
+
+        private static int closingParenthesis(String s, int open) {
+            int depth = 0;
+            boolean quoted = false;
+            for (int i = open; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '\\' && quoted) {
+                    i++;
+                } else if (c == '"') {
+                    quoted = !quoted;
+                } else if (!quoted && c == '(') {
+                    depth++;
+                } else if (!quoted && c == ')' && --depth == 0) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Unbalanced parenthesis in AQL: " + s);
+        }
+
+        boolean matches(Item item) {
+            if (!hasTypeCriteria(criteria) && item.folder) {
+                return false;
+            }
+            return matches(item, criteria);
+        }
+
+        private static boolean matches(Item item, JSONObject criteria) {
+            for (Object k : criteria.keySet()) {
+                String key = (String) k;
+                Object value = criteria.get(key);
+                boolean matched;
+                if (key.equals("$and")) {
+                    matched = ((JSONArray) value).stream().allMatch(c -> matches(item, (JSONObject) c));
+                } else if (key.equals("$or")) {
+                    matched = ((JSONArray) value).stream().anyMatch(c -> matches(item, (JSONObject) c));
+                } else if (value instanceof JSONObject) {
+                    matched = true;
+                    JSONObject operators = (JSONObject) value;
+                    for (Object op : operators.keySet()) {
+                        matched &= operate(item, key, (String) op, operators.get(op));
+                    }
+                } else {
+                    matched = operate(item, key, "$eq", value);
+                }
+                if (!matched) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean operate(Item item, String field, String operator, Object expected) {
+            if (field.equals("type") && "any".equals(expected)) {
+                return true;
+            }
+            Object actual = item.field(field);
+            if (actual == null) {
+                return false;
+            }
+            switch (operator) {
+                case "$eq":
+                    return compare(actual, expected) == 0;
+                case "$ne":
+                    return compare(actual, expected) != 0;
+                case "$match":
+                    return glob(expected.toString()).matcher(actual.toString()).matches();
+                case "$nmatch":
+                    return !glob(expected.toString()).matcher(actual.toString()).matches();
+                case "$gt":
+                    return compare(actual, expected) > 0;
+                case "$gte":
+                    return compare(actual, expected) >= 0;
+                case "$lt":
+                    return compare(actual, expected) < 0;
+                case "$lte":
+                    return compare(actual, expected) <= 0;
+                default:
+                    throw new IllegalArgumentException("Unsupported AQL operator: " + operator);
+            }
+        }
+
+        private static boolean hasTypeCriteria(Object criteria) {
+            if (criteria instanceof JSONObject) {
+                JSONObject object = (JSONObject) criteria;
+                return object.has("type") || object.values().stream().anyMatch(AqlQuery::hasTypeCriteria);
+            }
+            if (criteria instanceof JSONArray) {
+                return ((JSONArray) criteria).stream().anyMatch(AqlQuery::hasTypeCriteria);
+            }
+            return false;
+        }
+
+        private static int compare(Object actual, Object expected) {
+            if (actual instanceof Number && expected instanceof Number) {
+                return Long.compare(((Number) actual).longValue(), ((Number) expected).longValue());
+            }
+            return actual.toString().compareTo(expected.toString());
+        }
+
+        private static Pattern glob(String glob) {
+            StringBuilder regex = new StringBuilder();
+            for (char c : glob.toCharArray()) {
+                if (c == '*') {
+                    regex.append(".*");
+                } else if (c == '?') {
+                    regex.append('.');
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+
+        @SuppressWarnings("unchecked")
+        Comparator<Item> comparator() {
+            Comparator<Item> comparator = (a, b) -> 0;
+            for (String field : sortFields) {
+                comparator = comparator.thenComparing(
+                        item -> (Comparable<Object>) item.field(field),
+                        Comparator.nullsFirst(Comparator.naturalOrder()));
+            }
+            return descending ? comparator.reversed() : comparator;
+        }
+
+        JSONObject toJson(Item item) {
+            JSONObject json = new JSONObject();
+            for (String field : include) {
+                Object value = item.field(field);
+                if (value != null) {
+                    json.put(field, value);
+                }
+            }
+            return json;
+        }
+    }
+}
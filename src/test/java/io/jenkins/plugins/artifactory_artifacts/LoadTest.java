@@ -0,0 +1,142 @@
+package io.jenkins.plugins.artifactory_artifacts;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import hudson.model.Result;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import jenkins.util.VirtualFile;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drive archive, stash/unstash, browsing and deletion from concurrent builds against {@link FakeArtifactoryServer}.
+ * <p>
+ * Each phase logs its throughput. Defaults keep the suite fast. Scale it with system properties, for example
+ * {@code mvn test -Dtest=LoadTest -Dartifactory.load.builds=16 -Dartifactory.load.files=2000
+ * -Dartifactory.load.latencyMs=200 -Dartifactory.load.bandwidth=20971520}
+ * <p>
+ * With {@code -Dartifactory.load.errorRate}, the server fails an even share of the requests of the builds. The test
+ * then checks that builds only fail on injected errors, never with another result, and continues with the builds that
+ * succeeded.
+ */
+@WithJenkins
+public class LoadTest extends BaseTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadTest.class);
+
+    private static final int BUILDS = Integer.getInteger("artifactory.load.builds", 4);
+    private static final int FILES = Integer.getInteger("artifactory.load.files", 20);
+    private static final int FILE_SIZE = Integer.getInteger("artifactory.load.fileSize", 1024);
+    private static final long LATENCY_MS = Long.getLong("artifactory.load.latencyMs", 0);
+    private static final long BANDWIDTH = Long.getLong("artifactory.load.bandwidth", 0);
+    private static final double ERROR_RATE =
+            Double.parseDouble(System.getProperty("artifactory.load.errorRate", "0"));
+
+    @Test
+    public void shouldArchiveStashBrowseAndDeleteConcurrently(JenkinsRule jenkinsRule) throws Exception {
+        try (FakeArtifactoryServer server = new FakeArtifactoryServer()) {
+            configureConfig(jenkinsRule, server.getPort(), "jenkins/");
+            jenkinsRule.jenkins.setNumExecutors(BUILDS);
+            server.setLatency(Duration.ofMillis(LATENCY_MS));
+            server.setBandwidth(BANDWIDTH);
+
+            // Archive, stash and unstash
+            List<WorkflowJob> jobs = new ArrayList<>();
+            for (int i = 0; i < BUILDS; i++) {
+                WorkflowJob job = jenkinsRule.createProject(WorkflowJob.class, "load-" + i);
+                job.setDefinition(new CpsFlowDefinition(pipeline(FILES, FILE_SIZE), true));
+                jobs.add(job);
+            }
+            server.resetStatistics();
+            // Errors are only injected while building. Each one fails at most one build, best-effort requests like
+            // the listing of the files already archived tolerate them
+            server.setErrorRate(ERROR_RATE);
+            long start = System.nanoTime();
+            List<WorkflowRun> started = new ArrayList<>();
+            for (WorkflowJob job : jobs) {
+                started.add(Objects.requireNonNull(job.scheduleBuild2(0)).waitForStart());
+            }
+            List<WorkflowRun> runs = new ArrayList<>();
+            for (WorkflowRun run : started) {
+                jenkinsRule.waitForCompletion(run);
+                if (run.getResult() == Result.SUCCESS) {
+                    runs.add(run);
+                } else {
+                    assertThat(run.getLog(), run.getResult(), equalTo(Result.FAILURE));
+                }
+            }
+            server.setErrorRate(0);
+            report("archive+stash+unstash", server, start, (long) BUILDS * FILES);
+            long injected = server.getInjectedErrorCount();
+            assertThat((long) (BUILDS - runs.size()), lessThanOrEqualTo(injected));
+            if (injected == 0) {
+                assertThat(server.getRequestCount("PUT"), greaterThanOrEqualTo((long) BUILDS * (FILES + 1)));
+            }
+            for (WorkflowRun run : runs) {
+                String artifactsPath = "jenkins/" + run.getParent().getFullName() + "/1/artifacts";
+                assertThat(server.countFiles("my-generic-repo", artifactsPath), is((long) FILES));
+            }
+
+            // Browse
+            server.resetStatistics();
+            start = System.nanoTime();
+            for (WorkflowRun run : runs) {
+                assertThat(run.getArtifacts(), hasSize(FILES));
+                VirtualFile root = run.getArtifactManager().root();
+                assertThat(root.isDirectory(), is(true));
+                assertThat(root.child("files/file-0.txt").length(), is((long) FILE_SIZE));
+            }
+            report("browse", server, start, BUILDS);
+
+            // Delete
+            server.resetStatistics();
+            start = System.nanoTime();
+            for (WorkflowRun run : runs) {
+                String buildPath = "jenkins/" + run.getParent().getFullName() + "/1";
+                run.delete();
+                assertThat(server.exists("my-generic-repo", buildPath), is(false));
+            }
+            report("delete", server, start, BUILDS);
+        }
+    }
+
+    private static String pipeline(int files, int fileSize) {
+        return "node('built-in') {\n"
+                + "  for (int i = 0; i < " + files + "; i++) {\n"
+                + "    writeFile file: \"files/file-${i}.txt\", text: '" + "x".repeat(fileSize) + "'\n"
+                + "  }\n"
+                + "  archiveArtifacts artifacts: 'files/**'\n"
+                + "  stash name: 'load', includes: 'files/**'\n"
+                + "  dir('restored') {\n"
+                + "    unstash 'load'\n"
+                + "  }\n"
+                + "}\n";
+    }
+
+    private static void report(String phase, FakeArtifactoryServer server, long startNanos, long operations) {
+        double seconds = Math.max(1, System.nanoTime() - startNanos) / 1e9;
+        LOGGER.info(String.format(
+                "%s: %d operation(s) in %.2fs (%.1f/s, %.1f KiB/s in, %.1f KiB/s out), %s",
+                phase,
+                operations,
+                seconds,
+                operations / seconds,
+                server.getBytesIn() / 1024.0 / seconds,
+                server.getBytesOut() / 1024.0 / seconds,
+                server.report()));
+    }
+}
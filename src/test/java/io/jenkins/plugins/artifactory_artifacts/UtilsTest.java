@@ -3,8 +3,14 @@ package io.jenkins.plugins.artifactory_artifacts;
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
 import com.github.tomakehurst.wiremock.junit5.WireMockRuntimeInfo;
 import com.github.tomakehurst.wiremock.junit5.WireMockTest;
+import jenkins.model.ArtifactManagerConfiguration;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
@@ -25,10 +31,64 @@ public class UtilsTest extends BaseTest {
                 is("http://localhost:" + wmRuntimeInfo.getHttpPort() + "/my-generic-repo/item%231.txt"));
     }
 
+    @Test
+    public void shouldGetBuildKey() {
+        assertThat(Utils.getBuildKey("folder/job", 12, null), is("folder/job/12"));
+        assertThat(Utils.getBuildKey("multi/feature%2Fa", 3, null), is("multi/feature/a/3"));
+        assertThat(Utils.getBuildKey("folder/job", 12, Utils.SHARDED_LAYOUT), is("folder/job/@shard-0/12"));
+        assertThat(Utils.getBuildKey("folder/job", 51234, Utils.SHARDED_LAYOUT), is("folder/job/@shard-51000/51234"));
+    }
+
+    @Test
+    public void shouldMatchPatterns() {
+        String[] patterns = Utils.splitPatterns(" *.txt, lib/ ,");
+        assertThat(patterns.length, is(2));
+        assertThat(Utils.matchesAny(patterns, "a.txt"), is(true));
+        assertThat(Utils.matchesAny(patterns, "b/a.txt"), is(false));
+        assertThat(Utils.matchesAny(patterns, "lib/x/a.jar"), is(true));
+        assertThat(Utils.matchesAny(Utils.splitPatterns("**/*.txt"), "b/a.txt"), is(true));
+        assertThat(Utils.matchesAny(Utils.splitPatterns(null), "a.txt"), is(false));
+    }
+
     @Test
     public void shouldGetCredentials(JenkinsRule jenkinsRule, WireMockRuntimeInfo wmRuntimeInfo) throws Exception {
         configureConfig(jenkinsRule, wmRuntimeInfo.getHttpPort(), "jenkins/");
         assertThat(Utils.getCredentials().getUsername(), is("sample"));
         assertThat(Utils.getCredentials().getPassword().getPlainText(), is("sample"));
     }
+
+    @Test
+    public void shouldRefreshSnapshotOnConfigurationChange(JenkinsRule jenkinsRule, WireMockRuntimeInfo wmRuntimeInfo)
+            throws Exception {
+        ArtifactoryGenericArtifactConfig config = configureConfig(jenkinsRule, wmRuntimeInfo.getHttpPort(), "jenkins/");
+        ArtifactoryConfigSnapshot snapshot = ArtifactoryConfigSnapshot.get();
+        assertThat(ArtifactoryConfigSnapshot.get(), sameInstance(snapshot));
+
+        // Configuration change
+        config.setRepository("other-repo");
+        ArtifactManagerConfiguration.get().save();
+        assertThat(ArtifactoryConfigSnapshot.get().getVersion(), not(snapshot.getVersion()));
+        assertThat(
+                Utils.getUrl("artifact.txt"),
+                is("http://localhost:" + wmRuntimeInfo.getHttpPort() + "/other-repo/artifact.txt"));
+
+        // Credentials change
+        snapshot = ArtifactoryConfigSnapshot.get();
+        CredentialsStore store =
+                CredentialsProvider.lookupStores(jenkinsRule.getInstance()).iterator().next();
+        store.updateCredentials(
+                Domain.global(),
+                Utils.getCredentials(),
+                new UsernamePasswordCredentialsImpl(
+                        CredentialsScope.GLOBAL, "the-credentials-id", "sample", "updated", "updated"));
+        assertThat(ArtifactoryConfigSnapshot.get(), not(sameInstance(snapshot)));
+        assertThat(Utils.getCredentials().getUsername(), is("updated"));
+    }
+
+    @Test
+    public void shouldFormatTransfer() {
+        assertThat(Utils.formatTransfer(512, 1_000_000_000L), is("512 B in 1.0 s (512 B/s)"));
+        assertThat(
+                Utils.formatTransfer(3 * 1024 * 1024, 2_000_000_000L), is("3.0 MiB in 2.0 s (1.5 MiB/s)"));
+    }
 }